@@ -152,6 +152,8 @@ public class Listing {
 
         /** The length of the codes. */
         private final int length;
+        /** Whether the element is an instruction (and not data). */
+        private final boolean code;
 
         /**
          * Creates a new ListingElement.
@@ -192,6 +194,7 @@ public class Listing {
                     break;
             }
             this.length = codes.length;
+            this.code = tokens[0].getType() == Token.TokenType.MNEMONIC_NAME;
             this.path = a.getFile().toAbsolutePath().toString();
 
             this.line = tokens[0].getLine();
@@ -298,6 +301,15 @@ public class Listing {
             return length;
         }
 
+        /**
+         * @return
+         *      whether the element is an instruction (<code>false</code>
+         *      for data).
+         */
+        public boolean isCode() {
+            return code;
+        }
+
         /**
          * Checks whether a address is within the addresses 'occupied'
          * by this element (the address of the element plus the number
@@ -0,0 +1,279 @@
+package controller;
+
+import emulator.Breakpoints;
+import emulator.ByteRegister;
+import emulator.EmulatorException;
+import emulator.HexReader;
+import emulator.MappedRAM;
+import emulator.MappedROM;
+import emulator.RAM;
+import emulator.ROM;
+import emulator.Register;
+import emulator.RunResult;
+import emulator.arc8051.MC8051;
+import misc.Logger;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.function.BooleanSupplier;
+
+/**
+ * This class runs a program without the GUI (see the {@code --run} option of {@link Main}) and writes the results
+ * to files or stdout. It does not use any AWT or Swing classes, so it can be used on headless JVMs.
+ *
+ * @author 5hir0kur0
+ */
+final class HeadlessRun {
+    /** The default cycle limit (about 17 minutes of a 12 MHz 8051), so that a run always terminates. */
+    static final long DEFAULT_MAX_CYCLES = 1_000_000_000L;
+    /** The target that stands for stdout. */
+    static final String STDOUT = "-";
+
+    /** The exit code if the program was run successfully. */
+    static final int EXIT_SUCCESS = 0;
+    /** The exit code if the program could not be loaded or the results could not be written. */
+    static final int EXIT_IO_ERROR = 20;
+    /** The exit code if an instruction failed. */
+    static final int EXIT_EMULATOR_ERROR = 21;
+    /** The exit code if the limit was reached before the requested address or the halt condition. */
+    static final int EXIT_LIMIT_REACHED = 22;
+
+    private Path program;
+    private boolean stateDump;
+    private long maxCycles = DEFAULT_MAX_CYCLES;
+    private long maxInstructions = -1;
+    private final Breakpoints stopAddresses = new Breakpoints();
+    private boolean untilHalt;
+    private String registerDump;
+    private String internalRamDump;
+    private String externalRamDump;
+    private Path stateOutput;
+    private Path externalRamFile;
+    private String summary = STDOUT;
+
+    /**
+     * @param program
+     *     the binary, Intel HEX or S-record file with the content of the code memory or a state dump
+     * @param stateDump
+     *     {@code true} if {@code program} is a state dump
+     */
+    void setProgram(Path program, boolean stateDump) {
+        this.program = program;
+        this.stateDump = stateDump;
+    }
+
+    boolean hasProgram() {
+        return this.program != null;
+    }
+
+    void setMaxCycles(long maxCycles) {
+        if (maxCycles <= 0) throw new IllegalArgumentException("the maximum number of cycles must be > 0");
+        this.maxCycles = maxCycles;
+    }
+
+    void setMaxInstructions(long maxInstructions) {
+        if (maxInstructions <= 0) throw new IllegalArgumentException("the maximum number of instructions must be > 0");
+        this.maxInstructions = maxInstructions;
+    }
+
+    void addStopAddress(int address) {
+        if (address < 0 || address > 0xFFFF) throw new IllegalArgumentException("invalid address: " + address);
+        this.stopAddresses.add(address);
+    }
+
+    void setUntilHalt(boolean untilHalt) {
+        this.untilHalt = untilHalt;
+    }
+
+    void setRegisterDump(String target) {
+        this.registerDump = target;
+    }
+
+    void setInternalRamDump(String target) {
+        this.internalRamDump = target;
+    }
+
+    void setExternalRamDump(String target) {
+        this.externalRamDump = target;
+    }
+
+    void setStateOutput(Path path) {
+        this.stateOutput = path;
+    }
+
+    /**
+     * @param path
+     *     the file that is mapped as the external RAM (see {@link MappedRAM}); ignored for state dumps, which contain
+     *     the external RAM
+     */
+    void setExternalRamFile(Path path) {
+        this.externalRamFile = path;
+    }
+
+    void setSummary(String target) {
+        this.summary = target;
+    }
+
+    /**
+     * Load the program, run it until a limit or a stop condition is reached and write the requested results.
+     * @return
+     *     the exit code ({@link #EXIT_SUCCESS}, {@link #EXIT_IO_ERROR}, {@link #EXIT_EMULATOR_ERROR} or
+     *     {@link #EXIT_LIMIT_REACHED})
+     */
+    int run() {
+        final MC8051 emulator;
+        try {
+            emulator = this.load();
+        } catch (IOException | RuntimeException e) {
+            Logger.log("Could not load " + this.program + ": " + e.getMessage(), HeadlessRun.class,
+                    Logger.LogLevel.ERROR);
+            return EXIT_IO_ERROR;
+        }
+        final long startCycles = emulator.getCycleCount();
+        final long startInstructions = emulator.getInstructionCount();
+        // skipped idle loops would overshoot the instruction limit
+        if (this.maxInstructions > 0) emulator.setSkipIdleLoops(false);
+        final BooleanSupplier stopCondition = this.makeStopCondition(emulator, startInstructions);
+
+        String stopReason;
+        final long start = System.nanoTime();
+        try {
+            final RunResult result = this.stopAddresses.run(emulator, this.maxCycles, stopCondition);
+            stopReason = result.stopReason.name();
+            if (result.stopReason == RunResult.StopReason.CONDITION)
+                stopReason = this.maxInstructions > 0
+                        && emulator.getInstructionCount() - startInstructions >= this.maxInstructions
+                        ? "INSTRUCTION_LIMIT" : "HALT";
+        } catch (EmulatorException e) {
+            stopReason = "ERROR (" + e.getMessage() + ")";
+        }
+        final long nanoseconds = System.nanoTime() - start;
+        final long cycles = emulator.getCycleCount() - startCycles;
+        final long instructions = emulator.getInstructionCount() - startInstructions;
+
+        try {
+            if (this.registerDump != null) write(this.registerDump, out -> dumpRegisters(emulator, out));
+            if (this.internalRamDump != null)
+                write(this.internalRamDump, out -> dumpMemory(emulator.getMainMemory(), out));
+            if (this.externalRamDump != null)
+                write(this.externalRamDump, out -> dumpMemory(emulator.getSecondaryMemory(), out));
+            if (this.stateOutput != null) emulator.saveStateTo(this.stateOutput);
+            final String reason = stopReason;
+            if (this.summary != null) write(this.summary, out -> {
+                out.printf("stop reason: %s%n", reason);
+                out.printf("program counter: 0x%04X%n", emulator.getProgramCounter());
+                if (reason.equals(RunResult.StopReason.BREAKPOINT.name()))
+                    out.printf("breakpoint hits: %d%n",
+                            this.stopAddresses.getHitCount((int) emulator.getProgramCounter()));
+                out.printf("cycles: %d%n", cycles);
+                out.printf("instructions: %d%n", instructions);
+                out.printf(Locale.ROOT, "wall time: %.3f s%n", nanoseconds / 1e9);
+                out.printf(Locale.ROOT, "MIPS: %.2f%n", nanoseconds > 0 ? instructions * 1e3 / nanoseconds : 0.0);
+            });
+        } catch (IOException e) {
+            Logger.log("Could not write the results: " + e.getMessage(), HeadlessRun.class, Logger.LogLevel.ERROR);
+            return EXIT_IO_ERROR;
+        }
+
+        if (stopReason.startsWith("ERROR")) return EXIT_EMULATOR_ERROR;
+        final boolean waitingForStop = this.untilHalt || !this.stopAddresses.getEnabled().isEmpty();
+        if (waitingForStop && !stopReason.equals(RunResult.StopReason.BREAKPOINT.name()) && !stopReason.equals("HALT"))
+            return EXIT_LIMIT_REACHED;
+        return EXIT_SUCCESS;
+    }
+
+    private MC8051 load() throws IOException {
+        if (this.stateDump) return new MC8051(this.program);
+        final ROM codeMemory;
+        if (HexReader.isHexFile(this.program)) {
+            final RAM decoded = new RAM(65_536);
+            HexReader.load(this.program, decoded);
+            codeMemory = decoded;
+        } else {
+            codeMemory = new MappedROM(this.program, 65_536); // binaries are used as they are, without copying them
+        }
+        return new MC8051(codeMemory, this.externalRamFile == null ? new RAM(65_536)
+                : new MappedRAM(this.externalRamFile, 65_536));
+    }
+
+    /**
+     * The program is halted if the CPU is in idle or power down mode or if it is stuck in an unconditional jump to
+     * itself ({@code SJMP $}, {@code AJMP $} or {@code LJMP $}) while all interrupts are disabled. Loops that end by
+     * themselves, like {@code DJNZ R0, $} or {@code JNB TF0, $}, do not count.
+     */
+    private BooleanSupplier makeStopCondition(MC8051 emulator, long startInstructions) {
+        final long maxInstructions = this.maxInstructions;
+        if (!this.untilHalt)
+            return maxInstructions <= 0 ? null
+                    : () -> emulator.getInstructionCount() - startInstructions >= maxInstructions;
+        final ByteRegister ie = findRegister(emulator, "IE");
+        final ByteRegister pcon = findRegister(emulator, "PCON");
+        final ROM code = emulator.getCodeMemory();
+        return () -> {
+            if (maxInstructions > 0 && emulator.getInstructionCount() - startInstructions >= maxInstructions)
+                return true;
+            if ((pcon.getValue() & 0x03) != 0) return true; // IDL or PD
+            return (ie.getValue() & 0x80) == 0 && isJumpToItself(code, (int) emulator.getProgramCounter());
+        };
+    }
+
+    private static boolean isJumpToItself(ROM code, int address) {
+        final int opcode = code.get(address) & 0xFF;
+        final int operand1 = code.get(address + 1 & 0xFFFF) & 0xFF;
+        if (opcode == 0x80) return operand1 == 0xFE; // SJMP $
+        if (opcode == 0x02) return (operand1 << 8 | code.get(address + 2 & 0xFFFF) & 0xFF) == address; // LJMP $
+        if ((opcode & 0x1F) == 0x01) // AJMP $
+            return (address + 2 & 0xF800 | (opcode & 0xE0) << 3 | operand1) == address;
+        return false;
+    }
+
+    private static ByteRegister findRegister(MC8051 emulator, String name) {
+        for (Register r : emulator.getRegisters())
+            if (r.getName().equals(name)) return (ByteRegister) r;
+        throw new IllegalStateException("the emulator has no register " + name);
+    }
+
+    private static void dumpRegisters(MC8051 emulator, PrintWriter out) {
+        for (Register r : emulator.getRegisters())
+            out.printf("%s=%s%n", r.getName(), r.getHexadecimalDisplayValue());
+    }
+
+    /**
+     * Write a hex dump with 16 bytes per line, e.g. {@code 0010: 00 01 02 ...}.
+     */
+    private static void dumpMemory(ROM memory, PrintWriter out) {
+        final StringBuilder line = new StringBuilder(6 + 3 * 16);
+        final byte[] bytes = new byte[16];
+        for (int address = 0; address < memory.getSize(); address += 16) {
+            final int length = Math.min(16, memory.getSize() - address);
+            memory.copyTo(address, bytes, 0, length);
+            line.setLength(0);
+            line.append(String.format("%04X:", address));
+            for (int i = 0; i < length; ++i) line.append(String.format(" %02X", bytes[i] & 0xFF));
+            out.println(line);
+        }
+    }
+
+    private interface Output {
+        void write(PrintWriter out) throws IOException;
+    }
+
+    private static void write(String target, Output output) throws IOException {
+        if (target.equals(STDOUT)) {
+            final PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out));
+            output.write(out);
+            out.flush();
+            return;
+        }
+        try (Writer w = Files.newBufferedWriter(Paths.get(target)); PrintWriter out = new PrintWriter(w)) {
+            output.write(out);
+            if (out.checkError()) throw new IOException("could not write " + target);
+        }
+    }
+}
@@ -3,6 +3,8 @@ package controller;
 import assembler.Assembler;
 import assembler.util.problems.Problem;
 import emulator.Emulator;
+import emulator.HexReader;
+import emulator.PagedRAM;
 import emulator.RAM;
 import emulator.arc8051.MC8051;
 import gui.EmulatorWindow;
@@ -21,6 +23,7 @@ import java.nio.file.Paths;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * @author 5hir0kur0
@@ -33,14 +36,18 @@ public class Main {
     private static Project PROJECT;
     private static MainWindow MAIN_WINDOW;
     private static boolean exitAfterOption = false;
+    private static HeadlessRun HEADLESS_RUN; // null unless the '--run' or '--run-state-dump' option is used
+    private static boolean HEADLESS = false;
 
     private static final String LOOK_AND_FEEL_SETTING = "gui.look-and-feel";
+    // the system look and feel is looked up when the GUI is set up, so that headless runs never initialize Swing
+    private static final String SYSTEM_LOOK_AND_FEEL = "system";
     private static final String LOOK_AND_FEEL_SETTING_DEFAULT;
     static {
         if (System.getProperty("os.name").equalsIgnoreCase("linux"))
             LOOK_AND_FEEL_SETTING_DEFAULT = "com.sun.java.swing.plaf.gtk.GTKLookAndFeel";
         else
-            LOOK_AND_FEEL_SETTING_DEFAULT = UIManager.getSystemLookAndFeelClassName();
+            LOOK_AND_FEEL_SETTING_DEFAULT = SYSTEM_LOOK_AND_FEEL;
         Settings.INSTANCE.setDefault(LOOK_AND_FEEL_SETTING, LOOK_AND_FEEL_SETTING_DEFAULT);
     }
 
@@ -93,7 +100,36 @@ public class Main {
             System.out.println(" --open-state-dump FILE");
             System.out.println("  open specified state dump in a new emulator window");
             System.out.println(" --emulate FILE");
-            System.out.println("  open specified binary file in a new emulator window");
+            System.out.println("  open specified binary, Intel HEX or S-record file in a new emulator window");
+            System.out.println(" --run FILE");
+            System.out.println("  run specified binary, Intel HEX or S-record file without the GUI and print a");
+            System.out.println("  summary (cycles, wall time, MIPS); exits with 0 on success, 20 if a file could not");
+            System.out.println("  be read or written, 21 if an instruction failed and 22 if the limit was reached");
+            System.out.println("  before '--until-pc' or '--until-halt'");
+            System.out.println(" --run-state-dump FILE");
+            System.out.println("  same as '--run', but start from the specified state dump");
+            System.out.println(" --max-cycles N");
+            System.out.println("  stop the headless run after N machine cycles (default: "
+                    + HeadlessRun.DEFAULT_MAX_CYCLES + ")");
+            System.out.println(" --max-instructions N");
+            System.out.println("  stop the headless run after N instructions");
+            System.out.println(" --until-pc ADDRESS...");
+            System.out.println("  stop the headless run when the program counter reaches one of the addresses");
+            System.out.println("  (decimal, or hexadecimal with '0x' prefix)");
+            System.out.println(" --until-halt");
+            System.out.println("  stop the headless run in idle or power down mode or at an unconditional jump to");
+            System.out.println("  itself ('SJMP $', 'AJMP $', 'LJMP $') while interrupts are disabled");
+            System.out.println(" --dump-registers FILE");
+            System.out.println(" --dump-internal-ram FILE");
+            System.out.println(" --dump-external-ram FILE");
+            System.out.println(" --summary FILE");
+            System.out.println("  write registers, hex dumps of the memory or the summary of the headless run to");
+            System.out.println("  FILE ('-' for stdout; the summary goes to stdout by default)");
+            System.out.println(" --external-ram-file FILE");
+            System.out.println("  map FILE as the external RAM of the headless run ('--run' only), so that its");
+            System.out.println("  content persists across runs and can be read by other programs while running");
+            System.out.println(" --store-state FILE");
+            System.out.println("  store the state after the headless run as a state dump");
             System.out.println(" --");
             System.out.println("  end option parsing");
             System.exit(exit);
@@ -114,6 +150,39 @@ public class Main {
             Settings.INSTANCE.listDefaults(System.out);
             System.exit(0);
         }));
+        CL_OPTIONS.add(new Pair<>("--run", list -> setUpHeadlessRun("--run", list, false)));
+        CL_OPTIONS.add(new Pair<>("--run-state-dump", list -> setUpHeadlessRun("--run-state-dump", list, true)));
+        CL_OPTIONS.add(new Pair<>("--max-cycles", list -> headlessRun().setMaxCycles(
+                parseHeadlessArgument("--max-cycles", list, Long::parseLong))));
+        CL_OPTIONS.add(new Pair<>("--max-instructions", list -> headlessRun().setMaxInstructions(
+                parseHeadlessArgument("--max-instructions", list, Long::parseLong))));
+        CL_OPTIONS.add(new Pair<>("--until-pc", list -> {
+            if (list.isEmpty()) {
+                System.err.println("Invalid syntax for '--until-pc': Expected at least one address");
+                System.exit(15);
+            }
+            for (String address : list)
+                headlessRun().addStopAddress(parseHeadlessArgument("--until-pc", address, Integer::decode));
+        }));
+        CL_OPTIONS.add(new Pair<>("--until-halt", list -> {
+            if (!list.isEmpty()) {
+                System.err.println("Invalid syntax for '--until-halt' (no arguments required)");
+                System.exit(15);
+            }
+            headlessRun().setUntilHalt(true);
+        }));
+        CL_OPTIONS.add(new Pair<>("--external-ram-file", list -> headlessRun().setExternalRamFile(
+                parseHeadlessArgument("--external-ram-file", list, Paths::get))));
+        CL_OPTIONS.add(new Pair<>("--dump-registers", list -> headlessRun().setRegisterDump(
+                parseHeadlessArgument("--dump-registers", list, s -> s))));
+        CL_OPTIONS.add(new Pair<>("--dump-internal-ram", list -> headlessRun().setInternalRamDump(
+                parseHeadlessArgument("--dump-internal-ram", list, s -> s))));
+        CL_OPTIONS.add(new Pair<>("--dump-external-ram", list -> headlessRun().setExternalRamDump(
+                parseHeadlessArgument("--dump-external-ram", list, s -> s))));
+        CL_OPTIONS.add(new Pair<>("--summary", list -> headlessRun().setSummary(
+                parseHeadlessArgument("--summary", list, s -> s))));
+        CL_OPTIONS.add(new Pair<>("--store-state", list -> headlessRun().setStateOutput(
+                parseHeadlessArgument("--store-state", list, Paths::get))));
         CL_OPTIONS.add(new Pair<>("--new-project", list -> {
             if (list.size() < 1 && list.size() > 2) {
                 System.err.println("Invalid syntax for '--project' (usage: '--new-project PATH [name]')");
@@ -145,7 +214,8 @@ public class Main {
         CL_OPTIONS.add(new Pair<>("--settings", list -> {
             try {
                 for (String className : CLASSES_WITH_SETTINGS)
-                    Class.forName(className);
+                    // initializing the GUI classes would initialize AWT, which a headless run must not do
+                    if (!HEADLESS || !className.startsWith("gui.")) Class.forName(className);
             } catch (ClassNotFoundException e) {
                 Logger.log("An error occurred while loading the default settings:", Main.class, Logger.LogLevel.ERROR);
                 Logger.logThrowable(e, Main.class, Logger.LogLevel.ERROR);
@@ -253,18 +323,17 @@ public class Main {
                     System.err.println("Invalid syntax for '--emulate': Expected a path to a regular, readable file");
                     System.exit(1);
                 }
-                byte[] code = Files.readAllBytes(path);
-                RAM codeMemory = new RAM(65_536);
-                int i = 0;
-                for (byte b : code) codeMemory.set(i++, b);
-                Emulator emulator = new MC8051(codeMemory, new RAM(256));
+                // paged memory is forked without copying it when the emulator window takes checkpoints
+                RAM codeMemory = new PagedRAM(65_536);
+                HexReader.load(path, codeMemory);
+                Emulator emulator = new MC8051(codeMemory, new PagedRAM(256));
                 SwingUtilities.invokeLater(() -> new EmulatorWindow(emulator, null));
                 exitAfterOption = true;
             } catch (InvalidPathException e) {
                 Logger.log("Invalid syntax for '--emulate': Expected valid path", Main.class, Logger.LogLevel.ERROR);
                 System.exit(1);
             } catch (IOException e) {
-                Logger.log("Error: Couldn't load path.", Main.class, Logger.LogLevel.ERROR);
+                Logger.log("Error: Couldn't load path: " + e.getMessage(), Main.class, Logger.LogLevel.ERROR);
             }
         }));
      }
@@ -290,8 +359,51 @@ public class Main {
         Logger.logThrowable(throwable, Thread.UncaughtExceptionHandler.class, Logger.LogLevel.ERROR);
     };
 
+    private static HeadlessRun headlessRun() {
+        if (HEADLESS_RUN == null) HEADLESS_RUN = new HeadlessRun();
+        return HEADLESS_RUN;
+    }
+
+    private static void setUpHeadlessRun(String option, List<String> list, boolean stateDump) {
+        if (list.size() != 1) {
+            System.err.println("Invalid syntax for '" + option + "': Expected exactly one argument");
+            System.exit(15);
+        }
+        try {
+            final Path path = Paths.get(list.get(0));
+            if (!Files.isRegularFile(path) || !Files.isReadable(path)) {
+                System.err.println("Invalid syntax for '" + option + "': Expected a path to a regular, readable file");
+                System.exit(15);
+            }
+            headlessRun().setProgram(path, stateDump);
+            exitAfterOption = true;
+        } catch (InvalidPathException e) {
+            Logger.log("Invalid syntax for '" + option + "': Expected valid path", Main.class, Logger.LogLevel.ERROR);
+            System.exit(15);
+        }
+    }
+
+    private static <T> T parseHeadlessArgument(String option, List<String> list, Function<String, T> parser) {
+        if (list.size() != 1) {
+            System.err.println("Invalid syntax for '" + option + "': Expected exactly one argument");
+            System.exit(15);
+        }
+        return parseHeadlessArgument(option, list.get(0), parser);
+    }
+
+    private static <T> T parseHeadlessArgument(String option, String argument, Function<String, T> parser) {
+        try {
+            return parser.apply(argument);
+        } catch (RuntimeException e) {
+            System.err.println("Invalid argument for '" + option + "': " + argument);
+            System.exit(15);
+            return null;
+        }
+    }
+
     private static void setUpLookAndFeel() {
-        final String lookAndFeel = Settings.INSTANCE.getProperty(LOOK_AND_FEEL_SETTING);
+        String lookAndFeel = Settings.INSTANCE.getProperty(LOOK_AND_FEEL_SETTING);
+        if (lookAndFeel.equals(SYSTEM_LOOK_AND_FEEL)) lookAndFeel = UIManager.getSystemLookAndFeelClassName();
         try {
             UIManager.setLookAndFeel(lookAndFeel);
         } catch (Exception e) {
@@ -307,6 +419,14 @@ public class Main {
         Thread.setDefaultUncaughtExceptionHandler(EXCEPTION_HANDLER);
         PROJECT_CREATE = false;
         PROJECT_PERMANENT = true;
+        for (String arg : args) {
+            if (arg.equals("--")) break;
+            // make sure that AWT does not try to connect to a display if anything touches it during a headless run
+            if (arg.equals("--run") || arg.equals("--run-state-dump")) {
+                HEADLESS = true;
+                System.setProperty("java.awt.headless", "true");
+            }
+        }
 
         int i = 0; // argument loop counter
         if (args.length >= 1 && !args[0].startsWith("--")) {
@@ -345,6 +465,13 @@ public class Main {
             }
         }
 
+        if (HEADLESS_RUN != null) {
+            if (!HEADLESS_RUN.hasProgram()) {
+                System.err.println("The headless run options require '--run' or '--run-state-dump'");
+                System.exit(15);
+            }
+            System.exit(HEADLESS_RUN.run());
+        }
         if (!exitAfterOption) {
             PROJECT = new Project(PROJECT_PATH, PROJECT_PERMANENT, PROJECT_CREATE);
             setUpLookAndFeel();
@@ -2,6 +2,7 @@ package controller;
 
 import assembler.Assembler;
 import emulator.Emulator;
+import emulator.PagedRAM;
 import emulator.RAM;
 import emulator.arc8051.MC8051;
 import misc.Logger;
@@ -84,10 +85,9 @@ public class Project implements AutoCloseable {
     }
 
     public Emulator makeEmulator(byte[] code) {
-        final RAM codeMemory = new RAM(65536);
-        final RAM externalMemory = new RAM(65536);
-        int i = 0;
-        for (byte b : code) codeMemory.set(i++, b);
+        final RAM codeMemory = new PagedRAM(65536);
+        final RAM externalMemory = new PagedRAM(65536);
+        if (code.length > 0) codeMemory.set(0, code, 0, code.length);
         return new MC8051(codeMemory, externalMemory);
     }
 
@@ -0,0 +1,201 @@
+package emulator;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+/**
+ * This class manages the breakpoints of an {@code Emulator}.
+ * <br>
+ * The enabled breakpoints are kept in a {@code BitSet} over the code addresses, which is passed to
+ * {@link Emulator#run(long, BitSet, BooleanSupplier)}, so checking for a breakpoint costs a single bit test per
+ * instruction. Breakpoints can be disabled without removing them and temporary breakpoints are removed when they are
+ * hit. The number of times every breakpoint was hit is counted by {@link #run(Emulator, long, BooleanSupplier)} (or
+ * {@link #hit(int)}).
+ * <br>
+ * The breakpoints can be changed (e.g. by the GUI) while another thread runs the {@code Emulator}. All methods are
+ * thread-safe and the set of enabled breakpoints is copy-on-write: {@link #getEnabled()} returns a snapshot that is
+ * never modified, so a running {@code Emulator} does not see the changes until it is run again.
+ *
+ * @author 5hir0kur0
+ */
+public class Breakpoints {
+    /** The number of addresses the sets are initially allocated for (the whole code memory of the 8051). */
+    private static final int INITIAL_SIZE = 0x10000;
+
+    // replaced by a modified copy on every change, so it can be read without locking
+    private volatile BitSet enabled = new BitSet(INITIAL_SIZE);
+    private final BitSet disabled = new BitSet(INITIAL_SIZE);
+    private final BitSet temporary = new BitSet(INITIAL_SIZE);
+    // hit() is called by the thread that runs the emulator, getHitCount() e.g. by the GUI
+    private final Map<Integer, Long> hitCounts = new ConcurrentHashMap<>();
+
+    /**
+     * Add an enabled breakpoint. If there already is a breakpoint at the address, it is enabled and made permanent.
+     * @param address
+     *     the address; must be &gt;= 0
+     */
+    public synchronized void add(int address) {
+        checkAddress(address);
+        this.setEnabledBit(address, true);
+        this.disabled.clear(address);
+        this.temporary.clear(address);
+    }
+
+    /**
+     * Add an enabled breakpoint that is removed the next time it is hit (e.g. for "run to here"). If there already is
+     * a permanent breakpoint at the address, it is kept unchanged.
+     * @param address
+     *     the address; must be &gt;= 0
+     */
+    public synchronized void addTemporary(int address) {
+        if (this.contains(address) && !this.temporary.get(address)) return;
+        this.add(address);
+        this.temporary.set(address);
+    }
+
+    /**
+     * Remove the breakpoint at an address (if there is one) and forget its hit count.
+     * @param address
+     *     the address; must be &gt;= 0
+     */
+    public synchronized void remove(int address) {
+        checkAddress(address);
+        this.setEnabledBit(address, false);
+        this.disabled.clear(address);
+        this.temporary.clear(address);
+        this.hitCounts.remove(address);
+    }
+
+    /**
+     * Add a breakpoint if there is none at the address; remove it otherwise.
+     * @param address
+     *     the address; must be &gt;= 0
+     * @return
+     *     {@code true} if there is a breakpoint at the address now
+     */
+    public synchronized boolean toggle(int address) {
+        if (this.contains(address)) {
+            this.remove(address);
+            return false;
+        }
+        this.add(address);
+        return true;
+    }
+
+    /**
+     * @param address
+     *     the address; must be &gt;= 0
+     * @return
+     *     {@code true} if there is a breakpoint (enabled or disabled) at the address
+     */
+    public synchronized boolean contains(int address) {
+        checkAddress(address);
+        return this.enabled.get(address) || this.disabled.get(address);
+    }
+
+    public synchronized boolean isEnabled(int address) {
+        checkAddress(address);
+        return this.enabled.get(address);
+    }
+
+    /**
+     * Enable or disable an existing breakpoint.
+     * @param address
+     *     the address; must be &gt;= 0
+     * @param enable
+     *     {@code true} to enable the breakpoint; {@code false} to disable it
+     * @throws IllegalArgumentException
+     *     if there is no breakpoint at the address
+     */
+    public synchronized void setEnabled(int address, boolean enable) {
+        if (!this.contains(address))
+            throw new IllegalArgumentException("there is no breakpoint at address " + address);
+        this.setEnabledBit(address, enable);
+        this.disabled.set(address, !enable);
+    }
+
+    public synchronized boolean isTemporary(int address) {
+        checkAddress(address);
+        return this.temporary.get(address);
+    }
+
+    /**
+     * @param address
+     *     the address; must be &gt;= 0
+     * @return
+     *     the number of times the breakpoint at the address was hit
+     */
+    public long getHitCount(int address) {
+        checkAddress(address);
+        return this.hitCounts.getOrDefault(address, 0L);
+    }
+
+    /**
+     * Remove all breakpoints.
+     */
+    public synchronized void clear() {
+        this.enabled = new BitSet(INITIAL_SIZE);
+        this.disabled.clear();
+        this.temporary.clear();
+        this.hitCounts.clear();
+    }
+
+    /**
+     * Return the addresses of the enabled breakpoints. The returned set is a snapshot; it must not be modified and it
+     * does not change when breakpoints are added or removed later.
+     * @return
+     *     the set of addresses at which the {@code Emulator} should stop
+     */
+    public BitSet getEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Record that the {@code Emulator} stopped at an address. The hit count of the breakpoint is incremented and
+     * temporary breakpoints are removed.
+     * @param address
+     *     the address; must be &gt;= 0
+     * @return
+     *     {@code true} if there was an enabled breakpoint at the address
+     */
+    public synchronized boolean hit(int address) {
+        if (!this.isEnabled(address)) return false;
+        if (this.temporary.get(address)) this.remove(address);
+        else this.hitCounts.merge(address, 1L, Long::sum);
+        return true;
+    }
+
+    /**
+     * Run an {@code Emulator} until it reaches an enabled breakpoint or another stop condition is met, and record
+     * the hit.
+     * @param emulator
+     *     the {@code Emulator}; must not be {@code null}
+     * @param maxCycles
+     *     the number of cycles after which the {@code Emulator} stops; must be &gt; 0
+     * @param stopCondition
+     *     an additional stop condition; may be {@code null}
+     * @return
+     *     the result of {@link Emulator#run(long, BitSet, BooleanSupplier)}
+     * @throws EmulatorException
+     *     when an instruction fails
+     */
+    public RunResult run(Emulator emulator, long maxCycles, BooleanSupplier stopCondition) throws EmulatorException {
+        // no lock is held while the emulator runs; changes from other threads take effect in the next run
+        final RunResult result = emulator.run(maxCycles, this.enabled, stopCondition);
+        if (result.stopReason == RunResult.StopReason.BREAKPOINT) this.hit((int) emulator.getProgramCounter());
+        return result;
+    }
+
+    private void setEnabledBit(int address, boolean value) {
+        if (this.enabled.get(address) == value) return;
+        final BitSet copy = (BitSet) this.enabled.clone();
+        copy.set(address, value);
+        this.enabled = copy;
+    }
+
+    private static void checkAddress(int address) {
+        if (address < 0) throw new IllegalArgumentException("invalid breakpoint address: " + address);
+    }
+}
@@ -23,6 +23,10 @@ public class ByteRegister implements Register {
 
     //fires whenever value is changed
     @XmlTransient private final PropertyChangeSupport changeSupport = new PropertyChangeSupport(this);
+    //when set, changes are only recorded and fired by flushChanges()
+    @XmlTransient private boolean deferChanges;
+    @XmlTransient private boolean changed;
+    @XmlTransient private byte valueBeforeChange;
 
     @SuppressWarnings("unused")
     private ByteRegister() { // no-arg constructor for JAXB
@@ -50,9 +54,47 @@ public class ByteRegister implements Register {
     }
 
     public void setValue(byte newValue) {
-        byte oldValue = getValue();
+        //the stored value is used here (instead of getValue()) because subclasses may compute the value on the fly;
+        //the listeners should always be notified if the stored value changes
+        byte oldValue = this.value;
         this.value = newValue;
-        changeSupport.firePropertyChange("value", oldValue, newValue);
+        if (this.deferChanges) {
+            if (!this.changed) {
+                this.changed = true;
+                this.valueBeforeChange = oldValue;
+            }
+        } else changeSupport.firePropertyChange("value", oldValue, newValue);
+    }
+
+    /**
+     * Enable or disable deferred change events.<br>
+     * While change events are deferred, {@code setValue()} does not notify the listeners. Instead, all changes up to
+     * the next call of {@link #flushChanges()} are combined into a single event (which is not fired if the value is
+     * the same as before). Disabling deferred change events flushes the pending changes.
+     * @param deferChanges
+     *     {@code true} to defer change events; {@code false} to fire them immediately
+     */
+    public void setDeferChanges(boolean deferChanges) {
+        this.deferChanges = deferChanges;
+        if (!deferChanges) this.flushChanges();
+    }
+
+    /**
+     * @return whether change events are deferred
+     * @see #setDeferChanges(boolean)
+     */
+    public boolean isDeferChanges() {
+        return this.deferChanges;
+    }
+
+    /**
+     * Notify the listeners of the changes since the last flush (if there were any).
+     * @see #setDeferChanges(boolean)
+     */
+    public void flushChanges() {
+        if (!this.changed) return;
+        this.changed = false;
+        changeSupport.firePropertyChange("value", this.valueBeforeChange, this.value);
     }
 
     public byte getValue() {
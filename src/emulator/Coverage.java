@@ -0,0 +1,156 @@
+package emulator;
+
+import assembler.util.Listing;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class records which code addresses were executed and which outcomes (taken or not taken) the conditional
+ * jumps had (see {@link Emulator#setCoverage(Coverage)}).
+ * <br>
+ * Everything is stored in {@code BitSet}s over the code addresses, so the coverage of many runs (e.g. of the jobs of
+ * an {@link EmulatorFarm}, each with its own {@code Coverage}) can be combined with {@link #merge(Coverage)}. The
+ * result is mapped to the source lines with a {@link Listing} and written in the LCOV trace file format, which can be
+ * read by tools like {@code genhtml}.
+ *
+ * @author 5hir0kur0
+ */
+public class Coverage {
+    /** The number of addresses the sets are initially allocated for (the whole code memory of the 8051). */
+    private static final int INITIAL_SIZE = 0x10000;
+
+    private final BitSet executed = new BitSet(INITIAL_SIZE);
+    private final BitSet taken = new BitSet(INITIAL_SIZE);
+    private final BitSet notTaken = new BitSet(INITIAL_SIZE);
+
+    /**
+     * Record an executed instruction.
+     * @param address
+     *     the address of the instruction; must be &gt;= 0
+     */
+    public void record(int address) {
+        this.executed.set(address);
+    }
+
+    /**
+     * Record the outcome of an executed conditional jump.
+     * @param address
+     *     the address of the jump instruction; must be &gt;= 0
+     * @param taken
+     *     {@code true} if the program jumped; {@code false} if it continued with the next instruction
+     */
+    public void recordBranch(int address, boolean taken) {
+        (taken ? this.taken : this.notTaken).set(address);
+    }
+
+    public boolean isExecuted(int address) {
+        return this.executed.get(address);
+    }
+
+    /**
+     * @param address
+     *     the address; must be &gt;= 0
+     * @return
+     *     {@code true} if a conditional jump at the address was executed
+     */
+    public boolean isBranch(int address) {
+        return this.taken.get(address) || this.notTaken.get(address);
+    }
+
+    public boolean wasTaken(int address) {
+        return this.taken.get(address);
+    }
+
+    public boolean wasNotTaken(int address) {
+        return this.notTaken.get(address);
+    }
+
+    /**
+     * @return the number of executed addresses (of the first bytes of the executed instructions)
+     */
+    public int getExecutedCount() {
+        return this.executed.cardinality();
+    }
+
+    /**
+     * Add the coverage of another run to this one. This method may be called by several threads at once (e.g. when
+     * the jobs of an {@link EmulatorFarm} finish).
+     * @param other
+     *     the coverage of the other run; must not be {@code null}; must not be modified at the same time
+     */
+    public synchronized void merge(Coverage other) {
+        this.executed.or(other.executed);
+        this.taken.or(other.taken);
+        this.notTaken.or(other.notTaken);
+    }
+
+    public synchronized void clear() {
+        this.executed.clear();
+        this.taken.clear();
+        this.notTaken.clear();
+    }
+
+    /**
+     * Write the coverage of the source lines in the LCOV trace file format ({@code DA} records for the lines with
+     * instructions and {@code BRDA} records with the two outcomes of every executed conditional jump). Conditional
+     * jumps that were never executed are only reported as uncovered lines, because the listing does not tell which
+     * instructions are conditional jumps.
+     * @param out
+     *     the output; must not be {@code null}
+     * @param listing
+     *     the listing of the program; must not be {@code null}
+     * @param testName
+     *     the name of the test ({@code TN} record); may be empty
+     * @throws IOException
+     *     if there was an IO error
+     */
+    public synchronized void writeLcov(Writer out, Listing listing, String testName) throws IOException {
+        // path -> line -> instructions on the line
+        final Map<String, TreeMap<Integer, List<Listing.ListingElement>>> files = new LinkedHashMap<>();
+        for (Listing.ListingElement element : listing.getElements()) {
+            if (!element.isCode() || element.getLength() == 0) continue;
+            files.computeIfAbsent(element.getPath(), p -> new TreeMap<>())
+                    .computeIfAbsent(element.getLine(), l -> new ArrayList<>()).add(element);
+        }
+        final String nl = System.lineSeparator();
+        for (Map.Entry<String, TreeMap<Integer, List<Listing.ListingElement>>> file : files.entrySet()) {
+            out.write("TN:" + testName + nl);
+            out.write("SF:" + file.getKey() + nl);
+            int branches = 0;
+            int branchesHit = 0;
+            for (Map.Entry<Integer, List<Listing.ListingElement>> line : file.getValue().entrySet()) {
+                int block = 0;
+                for (Listing.ListingElement element : line.getValue()) {
+                    final int address = (int) element.getAddressAsLong();
+                    if (!this.isBranch(address)) continue;
+                    out.write("BRDA:" + line.getKey() + "," + block + ",0," + (this.taken.get(address) ? 1 : 0) + nl);
+                    out.write("BRDA:" + line.getKey() + "," + block + ",1," + (this.notTaken.get(address) ? 1 : 0)
+                            + nl);
+                    branches += 2;
+                    branchesHit += (this.taken.get(address) ? 1 : 0) + (this.notTaken.get(address) ? 1 : 0);
+                    ++block;
+                }
+            }
+            out.write("BRF:" + branches + nl);
+            out.write("BRH:" + branchesHit + nl);
+            int linesHit = 0;
+            for (Map.Entry<Integer, List<Listing.ListingElement>> line : file.getValue().entrySet()) {
+                boolean hit = false;
+                for (Listing.ListingElement element : line.getValue())
+                    hit |= this.executed.get((int) element.getAddressAsLong());
+                if (hit) ++linesHit;
+                out.write("DA:" + line.getKey() + "," + (hit ? 1 : 0) + nl);
+            }
+            out.write("LF:" + file.getValue().size() + nl);
+            out.write("LH:" + linesHit + nl);
+            out.write("end_of_record" + nl);
+        }
+    }
+}
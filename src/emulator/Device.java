@@ -0,0 +1,29 @@
+package emulator;
+
+/**
+ * This interface represents a simulated peripheral (e.g. an LCD controller, an ADC or an EEPROM) that is attached to
+ * an address range of a {@link DeviceBus}. Every read or write of the program to the range is handed to the device
+ * instead of the memory.
+ *
+ * @author 5hir0kur0
+ */
+public interface Device {
+
+    /**
+     * Called when the program reads from an address of the device.
+     * @param offset
+     *     the address minus the first address of the range the device is mapped at
+     * @return
+     *     the value the program reads
+     */
+    byte read(int offset);
+
+    /**
+     * Called when the program writes to an address of the device.
+     * @param offset
+     *     the address minus the first address of the range the device is mapped at
+     * @param value
+     *     the value the program writes
+     */
+    void write(int offset, byte value);
+}
@@ -0,0 +1,224 @@
+package emulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * This class connects {@link Device}s to the external RAM and to the SFR area of an {@code Emulator} (see
+ * {@link Emulator#setDeviceBus(DeviceBus)}), so that boards with memory-mapped peripherals can be simulated.
+ * <br>
+ * The external address space is divided into pages of {@link #PAGE_SIZE} addresses. A page without devices has no
+ * entry in the page table, so accesses to plain RAM only cost an array lookup and a comparison with {@code null};
+ * only the accesses to a page with a device look up the device of the address and call it.
+ *
+ * @author 5hir0kur0
+ */
+public class DeviceBus {
+    /** The number of addresses in a page of the external address space. */
+    public static final int PAGE_SIZE = 256;
+    private static final int PAGE_SHIFT = 8;
+    /** The number of addresses in the external address space (64 KiB). */
+    public static final int EXTERNAL_SIZE = 0x10000;
+
+    /** The value returned by the read methods if there is no device at an address. */
+    public static final int UNMAPPED = -1;
+
+    /**
+     * A device and the range of addresses it is mapped at.
+     */
+    public static final class Mapping {
+        /** {@code true} if the device is in the SFR area; {@code false} if it is in the external address space */
+        public final boolean sfr;
+        /** the first address */
+        public final int from;
+        /** the last address (inclusive) */
+        public final int to;
+        public final Device device;
+
+        Mapping(boolean sfr, int from, int to, Device device) {
+            this.sfr = sfr;
+            this.from = from;
+            this.to = to;
+            this.device = device;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %04X-%04X: %s", this.sfr ? "SFR" : "XRAM", this.from, this.to, this.device);
+        }
+    }
+
+    private final Mapping[][] externalPages = new Mapping[EXTERNAL_SIZE / PAGE_SIZE][];
+    private final Mapping[] sfrs = new Mapping[0x80]; // indexed by the address - 0x80
+    private final List<Mapping> mappings = new ArrayList<>();
+
+    /**
+     * Attach a device to a range of the external address space.
+     * @param from
+     *     the first address; must be &gt;= 0 and &lt;= {@code to}
+     * @param to
+     *     the last address (inclusive); must be &lt; {@link #EXTERNAL_SIZE}
+     * @param device
+     *     the device; must not be {@code null}
+     * @throws IllegalArgumentException
+     *     if the range is invalid or overlaps the range of another device
+     */
+    public void addExternal(int from, int to, Device device) {
+        if (from < 0 || from > to || to >= EXTERNAL_SIZE)
+            throw new IllegalArgumentException("invalid external address range: " + from + "-" + to);
+        final Mapping mapping = new Mapping(false, from, to, Objects.requireNonNull(device, "device must not be null"));
+        for (int address = from; address <= to; ++address)
+            if (this.getExternalMapping(address) != null)
+                throw new IllegalArgumentException(String.format("there already is a device at %04X", address));
+        for (int address = from; address <= to; ++address) {
+            final int page = address >>> PAGE_SHIFT;
+            if (this.externalPages[page] == null) this.externalPages[page] = new Mapping[PAGE_SIZE];
+            this.externalPages[page][address & PAGE_SIZE - 1] = mapping;
+        }
+        this.mappings.add(mapping);
+    }
+
+    /**
+     * Attach a device to a range of SFR addresses. The device should only be attached to addresses without an SFR,
+     * because most instructions access SFRs like A or PSW implicitly and not through the bus.
+     * @param from
+     *     the first address; must be &gt;= 0x80 and &lt;= {@code to}
+     * @param to
+     *     the last address (inclusive); must be &lt;= 0xFF
+     * @param device
+     *     the device; must not be {@code null}
+     * @throws IllegalArgumentException
+     *     if the range is invalid or overlaps the range of another device
+     */
+    public void addSfr(int from, int to, Device device) {
+        if (from < 0x80 || from > to || to > 0xFF)
+            throw new IllegalArgumentException("invalid SFR address range: " + from + "-" + to);
+        final Mapping mapping = new Mapping(true, from, to, Objects.requireNonNull(device, "device must not be null"));
+        for (int address = from; address <= to; ++address)
+            if (this.sfrs[address - 0x80] != null)
+                throw new IllegalArgumentException(String.format("there already is a device at SFR %02X", address));
+        for (int address = from; address <= to; ++address) this.sfrs[address - 0x80] = mapping;
+        this.mappings.add(mapping);
+    }
+
+    /**
+     * Detach a device from all of its ranges.
+     * @param device
+     *     the device
+     */
+    public void remove(Device device) {
+        for (int page = 0; page < this.externalPages.length; ++page) {
+            final Mapping[] entries = this.externalPages[page];
+            if (entries == null) continue;
+            boolean empty = true;
+            for (int i = 0; i < entries.length; ++i) {
+                if (entries[i] != null && entries[i].device == device) entries[i] = null;
+                empty &= entries[i] == null;
+            }
+            if (empty) this.externalPages[page] = null; // the page is plain RAM again
+        }
+        for (int i = 0; i < this.sfrs.length; ++i)
+            if (this.sfrs[i] != null && this.sfrs[i].device == device) this.sfrs[i] = null;
+        this.mappings.removeIf(m -> m.device == device);
+    }
+
+    /**
+     * Detach all devices.
+     */
+    public void clear() {
+        Arrays.fill(this.externalPages, null);
+        Arrays.fill(this.sfrs, null);
+        this.mappings.clear();
+    }
+
+    /**
+     * @return the ranges of all attached devices in the order they were added
+     */
+    public List<Mapping> getMappings() {
+        return Collections.unmodifiableList(this.mappings);
+    }
+
+    /**
+     * @param address
+     *     the address; must be &gt;= 0 and &lt; {@link #EXTERNAL_SIZE}
+     * @return
+     *     the device range containing the address or {@code null} if the address is plain RAM
+     */
+    public Mapping getExternalMapping(int address) {
+        final Mapping[] page = this.externalPages[address >>> PAGE_SHIFT];
+        return page == null ? null : page[address & PAGE_SIZE - 1];
+    }
+
+    /**
+     * @param address
+     *     the address; must be &gt;= 0x80 and &lt;= 0xFF
+     * @return
+     *     the device range containing the address or {@code null} if there is no device at the address
+     */
+    public Mapping getSfrMapping(int address) {
+        return this.sfrs[address - 0x80];
+    }
+
+    /**
+     * Read from the external address space.
+     * @param address
+     *     the address; must be &gt;= 0 and &lt; {@link #EXTERNAL_SIZE}
+     * @return
+     *     the value the device returned (0 to 255) or {@link #UNMAPPED} if there is no device at the address
+     */
+    public int readExternal(int address) {
+        final Mapping[] page = this.externalPages[address >>> PAGE_SHIFT];
+        if (page == null) return UNMAPPED;
+        final Mapping mapping = page[address & PAGE_SIZE - 1];
+        return mapping == null ? UNMAPPED : mapping.device.read(address - mapping.from) & 0xFF;
+    }
+
+    /**
+     * Write to the external address space.
+     * @param address
+     *     the address; must be &gt;= 0 and &lt; {@link #EXTERNAL_SIZE}
+     * @param value
+     *     the value
+     * @return
+     *     {@code true} if the value was written to a device; {@code false} if there is no device at the address
+     */
+    public boolean writeExternal(int address, byte value) {
+        final Mapping[] page = this.externalPages[address >>> PAGE_SHIFT];
+        if (page == null) return false;
+        final Mapping mapping = page[address & PAGE_SIZE - 1];
+        if (mapping == null) return false;
+        mapping.device.write(address - mapping.from, value);
+        return true;
+    }
+
+    /**
+     * Read from the SFR area.
+     * @param address
+     *     the direct address; must be &gt;= 0x80 and &lt;= 0xFF
+     * @return
+     *     the value the device returned (0 to 255) or {@link #UNMAPPED} if there is no device at the address
+     */
+    public int readSfr(int address) {
+        final Mapping mapping = this.sfrs[address - 0x80];
+        return mapping == null ? UNMAPPED : mapping.device.read(address - mapping.from) & 0xFF;
+    }
+
+    /**
+     * Write to the SFR area.
+     * @param address
+     *     the direct address; must be &gt;= 0x80 and &lt;= 0xFF
+     * @param value
+     *     the value
+     * @return
+     *     {@code true} if the value was written to a device; {@code false} if there is no device at the address
+     */
+    public boolean writeSfr(int address, byte value) {
+        final Mapping mapping = this.sfrs[address - 0x80];
+        if (mapping == null) return false;
+        mapping.device.write(address - mapping.from, value);
+        return true;
+    }
+}
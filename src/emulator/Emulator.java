@@ -2,7 +2,10 @@ package emulator;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.function.BooleanSupplier;
 
 /**
  * This interface represents a general CPU emulator.
@@ -31,6 +34,251 @@ public interface Emulator {
      */
     int next() throws EmulatorException;
 
+    /**
+     * Execute instructions until one of the stop conditions is met.<br>
+     * At least one instruction is always executed, so it is possible to continue from a breakpoint. The conditions are
+     * checked after every instruction in this order: breakpoints, {@code stopCondition}, {@code maxCycles}.
+     * <br>
+     * Implementations should override this method if they can run faster than repeated calls to {@link #next()}.
+     * @param maxCycles
+     *     the number of machine cycles after which the {@code Emulator} stops; must be &gt; 0
+     *     (the last instruction may overshoot it)
+     * @param breakpoints
+     *     the set of addresses at which to stop; the {@code Emulator} stops when the program counter points to one of
+     *     them after an instruction; may be {@code null}
+     * @param stopCondition
+     *     a condition that is checked after every instruction; the {@code Emulator} stops when it returns
+     *     {@code true}; may be {@code null}
+     * @return
+     *     the number of cycles and instructions that were executed and the reason why the {@code Emulator} stopped
+     * @throws EmulatorException
+     *     when an instruction fails (see {@link #next()})
+     */
+    default RunResult run(long maxCycles, BitSet breakpoints, BooleanSupplier stopCondition)
+            throws EmulatorException {
+        if (maxCycles <= 0) throw new IllegalArgumentException("the maximum number of cycles must be > 0");
+        long cycles = 0;
+        long instructions = 0;
+        while (true) {
+            cycles += next();
+            ++instructions;
+            if (breakpoints != null && breakpoints.get((int) getProgramCounter()))
+                return new RunResult(cycles, instructions, RunResult.StopReason.BREAKPOINT);
+            if (stopCondition != null && stopCondition.getAsBoolean())
+                return new RunResult(cycles, instructions, RunResult.StopReason.CONDITION);
+            if (cycles >= maxCycles)
+                return new RunResult(cycles, instructions, RunResult.StopReason.CYCLE_LIMIT);
+        }
+    }
+
+    /**
+     * Execute instructions for (at least) the specified number of machine cycles.
+     * @param cycles
+     *     the number of cycles; must be &gt; 0
+     * @return
+     *     the number of cycles and instructions that were executed
+     * @throws EmulatorException
+     *     when an instruction fails (see {@link #next()})
+     * @see #run(long, BitSet, BooleanSupplier)
+     */
+    default RunResult runFor(long cycles) throws EmulatorException {
+        return run(cycles, null, null);
+    }
+
+    /**
+     * Execute instructions until the program counter reaches an address.
+     * @param address
+     *     the address at which to stop; must be &gt;= 0
+     * @param maxCycles
+     *     the number of cycles after which the {@code Emulator} stops even if {@code address} was not reached;
+     *     must be &gt; 0
+     * @return
+     *     the result; its stop reason is {@link RunResult.StopReason#BREAKPOINT} if {@code address} was reached
+     * @throws EmulatorException
+     *     when an instruction fails (see {@link #next()})
+     * @see #run(long, BitSet, BooleanSupplier)
+     */
+    default RunResult runUntilAddress(long address, long maxCycles) throws EmulatorException {
+        if (address < 0 || address > Integer.MAX_VALUE) throw new IllegalArgumentException("invalid address");
+        final BitSet breakpoint = new BitSet();
+        breakpoint.set((int) address);
+        return run(maxCycles, breakpoint, null);
+    }
+
+    /**
+     * Execute instructions until a condition becomes {@code true}.
+     * @param stopCondition
+     *     the condition; it is checked after every instruction; must not be {@code null}
+     * @param maxCycles
+     *     the number of cycles after which the {@code Emulator} stops even if the condition is still {@code false};
+     *     must be &gt; 0
+     * @return
+     *     the result; its stop reason is {@link RunResult.StopReason#CONDITION} if the condition became {@code true}
+     * @throws EmulatorException
+     *     when an instruction fails (see {@link #next()})
+     * @see #run(long, BitSet, BooleanSupplier)
+     */
+    default RunResult runUntil(BooleanSupplier stopCondition, long maxCycles) throws EmulatorException {
+        return run(maxCycles, null, Objects.requireNonNull(stopCondition, "stop condition must not be null"));
+    }
+
+    /**
+     * Enable or disable deferred change events for the {@code Register}s.<br>
+     * While change events are deferred, the {@code Register}s only record that they were changed and their listeners
+     * receive one combined event per {@code Register} on every call of {@link #flushChanges()}. This is meant for
+     * running many instructions in a row, where firing events after every instruction would be wasted work.
+     * Disabling deferred change events flushes the pending changes.
+     * <br>
+     * The default implementation does nothing, so the events are always fired immediately.
+     * @param deferChanges
+     *     {@code true} to defer change events; {@code false} to fire them immediately
+     */
+    default void setDeferChanges(boolean deferChanges) { }
+
+    /**
+     * Fire the change events that were deferred since the last flush.
+     * @see #setDeferChanges(boolean)
+     */
+    default void flushChanges() { }
+
+    /**
+     * Return the number of machine cycles the {@code Emulator} has executed so far.
+     * This is used to stamp changes made from outside of the program (see {@link InputLog}).
+     * @return
+     *     the number of cycles; &gt;= 0
+     * @throws UnsupportedOperationException
+     *     if the {@code Emulator} does not count its cycles
+     */
+    default long getCycleCount() throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("Emulator::getCycleCount");
+    }
+
+    /**
+     * Return the number of periods of the crystal oscillator in a machine cycle. This is needed to run the
+     * {@code Emulator} at the speed of the real hardware (see {@link RealTimePacer}).
+     * @return
+     *     the number of clock periods; &gt; 0; the default implementation returns 1
+     */
+    default int getClocksPerCycle() {
+        return 1;
+    }
+
+    /**
+     * Set the watchpoints that stop {@link #run(long, BitSet, BooleanSupplier)} when the program accesses a watched
+     * address. The run stops after the instruction that made the access with the stop reason
+     * {@link RunResult.StopReason#WATCHPOINT}; the access is available from {@link Watchpoints#getHit()}.
+     * Changes made to the watchpoints take effect the next time the {@code Emulator} is started.
+     * @param watchpoints
+     *     the watchpoints; {@code null} to remove all watchpoints
+     * @throws UnsupportedOperationException
+     *     if the {@code Emulator} does not support watchpoints
+     */
+    default void setWatchpoints(Watchpoints watchpoints) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("Emulator::setWatchpoints");
+    }
+
+    /**
+     * Set the profiler that counts the instructions executed and the cycles spent at every code address. The counters
+     * are added up until the profiler is removed or cleared.
+     * @param profiler
+     *     the profiler; must be large enough for the code memory; {@code null} to stop profiling
+     * @throws UnsupportedOperationException
+     *     if the {@code Emulator} does not support profiling
+     */
+    default void setProfiler(Profiler profiler) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("Emulator::setProfiler");
+    }
+
+    /**
+     * Set the coverage that records the executed code addresses and the outcomes of the conditional jumps. The
+     * addresses are added until the coverage is removed or cleared.
+     * @param coverage
+     *     the coverage; {@code null} to stop recording
+     * @throws UnsupportedOperationException
+     *     if the {@code Emulator} does not support recording the coverage
+     */
+    default void setCoverage(Coverage coverage) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("Emulator::setCoverage");
+    }
+
+    /**
+     * Set the bus that connects simulated peripherals to the memory. Reads and writes of the program to an address
+     * with a {@link Device} go to the device instead of the memory. The devices are not part of the state of the
+     * {@code Emulator}: they are not stored in state dumps and not reset by {@link #stepBack(long)}, which replays
+     * the instructions since the last checkpoint (including their device accesses).
+     * @param bus
+     *     the bus; {@code null} to detach all devices
+     * @throws UnsupportedOperationException
+     *     if the {@code Emulator} does not support devices
+     */
+    default void setDeviceBus(DeviceBus bus) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("Emulator::setDeviceBus");
+    }
+
+    /**
+     * Enable or disable recording the execution history that is needed for {@link #stepBack(long)} and
+     * {@link #runBackwards(BitSet)}. Recording costs some time and memory, so it should only be enabled when it is
+     * needed (e.g. in a debugger).
+     * @param recordHistory
+     *     {@code true} to start recording; {@code false} to stop recording and forget the history
+     * @throws UnsupportedOperationException
+     *     if the {@code Emulator} cannot step backwards
+     */
+    default void setRecordHistory(boolean recordHistory) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("Emulator::setRecordHistory");
+    }
+
+    /**
+     * Tell the {@code Emulator} that its state was changed from outside of the program (e.g. by a user editing a
+     * register or the memory). If the execution history is recorded, the current state is added to it, so that going
+     * back to this point or to a later one keeps the change. The default implementation does nothing.
+     */
+    default void recordExternalChange() {
+    }
+
+    /**
+     * @return {@code true} if there is a recorded history and it contains instructions before the current one
+     */
+    default boolean canStepBack() {
+        return false;
+    }
+
+    /**
+     * Go back to the state before the last {@code instructions} instructions.<br>
+     * The history only reaches back a limited number of instructions; the {@code Emulator} stops at the oldest
+     * recorded state. Changes that were not made by the program itself (e.g. values entered by the user) are only part
+     * of the history if they were reported with {@link #recordExternalChange()}.
+     * @param instructions
+     *     the number of instructions; must be &gt;= 0
+     * @return
+     *     the number of instructions the {@code Emulator} actually went back
+     * @throws UnsupportedOperationException
+     *     if the {@code Emulator} cannot step backwards
+     * @throws IllegalStateException
+     *     if the history is not being recorded
+     * @see #setRecordHistory(boolean)
+     */
+    default long stepBack(long instructions) throws UnsupportedOperationException, IllegalStateException {
+        throw new UnsupportedOperationException("Emulator::stepBack");
+    }
+
+    /**
+     * Go back to the last state in the history where the program counter pointed to one of the breakpoints, or to
+     * the oldest recorded state if there is none.
+     * @param breakpoints
+     *     the set of addresses at which to stop; must not be {@code null}
+     * @return
+     *     the number of instructions the {@code Emulator} went back
+     * @throws UnsupportedOperationException
+     *     if the {@code Emulator} cannot step backwards
+     * @throws IllegalStateException
+     *     if the history is not being recorded
+     * @see #stepBack(long)
+     */
+    default long runBackwards(BitSet breakpoints) throws UnsupportedOperationException, IllegalStateException {
+        throw new UnsupportedOperationException("Emulator::runBackwards");
+    }
+
     /**
      * @return the CPU's primary (usu. internal) {@code RAM} (This can potentially be the only {@code RAM} module the
      * CPU has access to.)
@@ -0,0 +1,219 @@
+package emulator;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Predicate;
+
+/**
+ * This class runs many independent {@code Emulator}s at the same time on a work-stealing thread pool.
+ * <br>
+ * Every {@link Job} creates its own {@code Emulator}, runs it until one of its stop conditions is met and then checks
+ * the resulting state. The outcomes of all jobs are collected in a {@link Report}. The {@code Emulator}s must not
+ * share any mutable objects (e.g. memory), because they run in different threads; the settings should be passed to
+ * each {@code Emulator} explicitly (e.g. {@code emulator.arc8051.Configuration8051}).
+ *
+ * @author 5hir0kur0
+ */
+public class EmulatorFarm implements AutoCloseable {
+
+    /**
+     * A program that is run on its own {@code Emulator}.
+     */
+    public static final class Job {
+        /** the name of the job (used in the report) */
+        public final String name;
+        private final Callable<? extends Emulator> factory;
+        private final long maxCycles;
+        private final BitSet breakpoints;
+        private final Predicate<? super Emulator> stopCondition;
+        private final Predicate<? super Emulator> check;
+
+        /**
+         * @param name
+         *     the name of the job; must not be {@code null}
+         * @param factory
+         *     creates the {@code Emulator} (in the thread that runs the job); must not be {@code null}
+         * @param maxCycles
+         *     the number of cycles after which the {@code Emulator} is stopped; must be &gt; 0
+         * @param breakpoints
+         *     addresses at which the {@code Emulator} is stopped; may be {@code null}; must not be modified while
+         *     the job is running
+         * @param stopCondition
+         *     a condition that stops the {@code Emulator}; it is checked after every instruction; may be {@code null}
+         * @param check
+         *     decides whether the job passed after the {@code Emulator} stopped; may be {@code null} (in which case
+         *     the job passes if no exception was thrown)
+         */
+        public Job(String name, Callable<? extends Emulator> factory, long maxCycles, BitSet breakpoints,
+                   Predicate<? super Emulator> stopCondition, Predicate<? super Emulator> check) {
+            this.name = Objects.requireNonNull(name, "name must not be null");
+            this.factory = Objects.requireNonNull(factory, "factory must not be null");
+            if (maxCycles <= 0) throw new IllegalArgumentException("the maximum number of cycles must be > 0");
+            this.maxCycles = maxCycles;
+            this.breakpoints = breakpoints;
+            this.stopCondition = stopCondition;
+            this.check = check;
+        }
+
+        /**
+         * Create a job that runs for a number of cycles.
+         * @see #Job(String, Callable, long, BitSet, Predicate, Predicate)
+         */
+        public Job(String name, Callable<? extends Emulator> factory, long maxCycles,
+                   Predicate<? super Emulator> check) {
+            this(name, factory, maxCycles, null, null, check);
+        }
+    }
+
+    /**
+     * The outcome of a single {@link Job}.
+     */
+    public static final class Outcome {
+        /** the name of the job */
+        public final String name;
+        /** the result of running the {@code Emulator}; {@code null} if there was an exception */
+        public final RunResult result;
+        /** {@code true} if the job's check succeeded */
+        public final boolean passed;
+        /** the exception that was thrown by the job; {@code null} if there was none */
+        public final Exception exception;
+        /** the time it took to run the job in nanoseconds */
+        public final long nanoseconds;
+
+        Outcome(String name, RunResult result, boolean passed, Exception exception, long nanoseconds) {
+            this.name = name;
+            this.result = result;
+            this.passed = passed;
+            this.exception = exception;
+            this.nanoseconds = nanoseconds;
+        }
+
+        @Override
+        public String toString() {
+            return (this.passed ? "PASSED " : this.exception != null ? "ERROR  " : "FAILED ") + this.name
+                    + (this.result != null ? " (" + this.result.cycles + " cycles, " + this.result.stopReason + ")"
+                                           : " (" + this.exception + ")");
+        }
+    }
+
+    /**
+     * The outcomes of all the jobs of one call of {@link #run(List)}.
+     */
+    public static final class Report {
+        private final List<Outcome> outcomes;
+        /** the time it took to run all jobs in nanoseconds */
+        public final long nanoseconds;
+
+        Report(List<Outcome> outcomes, long nanoseconds) {
+            this.outcomes = Collections.unmodifiableList(outcomes);
+            this.nanoseconds = nanoseconds;
+        }
+
+        /**
+         * @return the outcomes in the same order as the jobs
+         */
+        public List<Outcome> getOutcomes() {
+            return this.outcomes;
+        }
+
+        public int getPassedCount() {
+            return (int) this.outcomes.stream().filter(o -> o.passed).count();
+        }
+
+        /**
+         * @return the number of jobs that did not pass (including the ones that threw an exception)
+         */
+        public int getFailedCount() {
+            return this.outcomes.size() - this.getPassedCount();
+        }
+
+        public int getErrorCount() {
+            return (int) this.outcomes.stream().filter(o -> o.exception != null).count();
+        }
+
+        public boolean allPassed() {
+            return this.getFailedCount() == 0;
+        }
+
+        public long getTotalCycles() {
+            return this.outcomes.stream().filter(o -> o.result != null).mapToLong(o -> o.result.cycles).sum();
+        }
+
+        public long getTotalInstructions() {
+            return this.outcomes.stream().filter(o -> o.result != null).mapToLong(o -> o.result.instructions).sum();
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder result = new StringBuilder();
+            for (Outcome outcome : this.outcomes) result.append(outcome).append(System.lineSeparator());
+            result.append(this.outcomes.size()).append(" jobs: ").append(this.getPassedCount()).append(" passed, ")
+                    .append(this.getFailedCount()).append(" failed (").append(this.getErrorCount())
+                    .append(" errors); ").append(this.getTotalInstructions()).append(" instructions, ")
+                    .append(this.getTotalCycles()).append(" cycles in ")
+                    .append(this.nanoseconds / 1_000_000).append(" ms");
+            return result.toString();
+        }
+    }
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Create a farm that uses one thread per processor.
+     */
+    public EmulatorFarm() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param parallelism
+     *     the number of threads; must be &gt; 0
+     */
+    public EmulatorFarm(int parallelism) {
+        if (parallelism <= 0) throw new IllegalArgumentException("parallelism must be > 0");
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Run jobs concurrently and wait until all of them are finished.
+     * @param jobs
+     *     the jobs; must not be {@code null}
+     * @return
+     *     the report containing the outcome of every job
+     */
+    public Report run(List<Job> jobs) {
+        final long start = System.nanoTime();
+        final List<ForkJoinTask<Outcome>> tasks = new ArrayList<>(jobs.size());
+        for (Job job : jobs) tasks.add(this.pool.submit(() -> execute(job)));
+        final List<Outcome> outcomes = new ArrayList<>(tasks.size());
+        for (ForkJoinTask<Outcome> task : tasks) outcomes.add(task.join());
+        return new Report(outcomes, System.nanoTime() - start);
+    }
+
+    private static Outcome execute(Job job) {
+        final long start = System.nanoTime();
+        try {
+            final Emulator emulator = job.factory.call();
+            final RunResult result = emulator.run(job.maxCycles, job.breakpoints,
+                    job.stopCondition == null ? null : () -> job.stopCondition.test(emulator));
+            final boolean passed = job.check == null || job.check.test(emulator);
+            return new Outcome(job.name, result, passed, null, System.nanoTime() - start);
+        } catch (Exception e) {
+            return new Outcome(job.name, null, false, e, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Stop the threads of the farm. Jobs that are still running are finished first.
+     */
+    @Override
+    public void close() {
+        this.pool.shutdown();
+    }
+}
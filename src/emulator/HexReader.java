@@ -0,0 +1,185 @@
+package emulator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Loads Intel HEX files (the output of {@link assembler.util.HexWriter}) and Motorola S-record files into memory.
+ * <br>
+ * The file is read line by line and every data record is copied into the memory as soon as it has been decoded and
+ * its checksum has been validated, so large files are loaded in one pass without keeping the whole image in memory.
+ * Only the bytes contained in the records are written; if the memory is a {@link PagedRAM}, the pages that are not
+ * covered by any record stay shared.
+ * <br>
+ * Supported Intel HEX records: data (00), end of file (01), extended segment address (02), extended linear address
+ * (04) and the start addresses (03, 05), which are ignored. Supported S-records: header (S0), data (S1 to S3),
+ * record count (S5, S6) and start address (S7 to S9), of which only the data records are used.
+ *
+ * @author 5hir0kur0
+ */
+public final class HexReader {
+    /** The file extensions (lower case) of the files that {@link #load(Path, RAM)} reads as text. */
+    private static final String[] HEX_EXTENSIONS = {".hex", ".ihx", ".ihex", ".s19", ".s28", ".s37", ".srec", ".mot"};
+
+    /** The maximum length of the bytes of a record (count, address, type/data and checksum). */
+    private static final int MAX_RECORD_LENGTH = 1 + 255 + 1;
+
+    private HexReader() {
+        throw new UnsupportedOperationException("trying to instantiate utility class HexReader");
+    }
+
+    /**
+     * @param path
+     *     the path of the file; must not be {@code null}
+     * @return
+     *     {@code true} if the file extension is one of a HEX or S-record file
+     */
+    public static boolean isHexFile(Path path) {
+        final String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        for (String extension : HEX_EXTENSIONS) if (name.endsWith(extension)) return true;
+        return false;
+    }
+
+    /**
+     * Load a program into memory. HEX and S-record files (see {@link #isHexFile(Path)}) are decoded; every other file
+     * is copied into the memory starting at address 0.
+     * @param path
+     *     the file; must be a valid and accessible path
+     * @param memory
+     *     the memory; must not be {@code null}
+     * @return
+     *     the number of bytes loaded
+     * @throws IOException
+     *     if the file cannot be read, is invalid or does not fit into the memory
+     */
+    public static int load(Path path, RAM memory) throws IOException {
+        if (isHexFile(path))
+            try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.US_ASCII)) {
+                return read(in, memory);
+            }
+        final byte[] content = Files.readAllBytes(path);
+        if (content.length > memory.getSize())
+            throw new IOException("the program is larger than the memory (" + memory.getSize() + " bytes)");
+        if (content.length > 0) memory.set(0, content, 0, content.length);
+        return content.length;
+    }
+
+    /**
+     * Decode an Intel HEX or S-record file into memory. Empty lines are ignored; reading stops at the end of file
+     * record (Intel HEX) or at the end of the input.
+     * @param in
+     *     the input; must not be {@code null}; is not closed
+     * @param memory
+     *     the memory; must not be {@code null}
+     * @return
+     *     the number of bytes loaded
+     * @throws IOException
+     *     if there was an IO error, a record is invalid (including a wrong checksum) or a record does not fit into
+     *     the memory; the message contains the line number
+     */
+    public static int read(Reader in, RAM memory) throws IOException {
+        final BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        final byte[] record = new byte[MAX_RECORD_LENGTH];
+        long base = 0; // the upper bits of the addresses set by the extended address records
+        int loaded = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            ++lineNumber;
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            final char start = line.charAt(0);
+            if (start == ':') {
+                final int length = decode(line, 1, record, lineNumber);
+                if (length < 5 || (record[0] & 0xFF) != length - 5)
+                    throw error(lineNumber, "the byte count does not match the length of the record");
+                if (sum(record, length) != 0) throw error(lineNumber, "wrong checksum");
+                final int count = record[0] & 0xFF;
+                final int address = (record[1] & 0xFF) << 8 | record[2] & 0xFF;
+                switch (record[3]) {
+                    case 0x00:
+                        store(memory, base + address, record, 4, count, lineNumber);
+                        loaded += count;
+                        break;
+                    case 0x01:
+                        return loaded;
+                    case 0x02:
+                        if (count != 2) throw error(lineNumber, "an extended segment address must be 2 bytes long");
+                        base = ((record[4] & 0xFF) << 8 | record[5] & 0xFF) << 4;
+                        break;
+                    case 0x04:
+                        if (count != 2) throw error(lineNumber, "an extended linear address must be 2 bytes long");
+                        base = (long) ((record[4] & 0xFF) << 8 | record[5] & 0xFF) << 16;
+                        break;
+                    case 0x03:
+                    case 0x05:
+                        break; // start addresses do not matter for the 8051, which always starts at 0
+                    default:
+                        throw error(lineNumber, String.format("unknown record type %02X", record[3]));
+                }
+            } else if (start == 'S' || start == 's') {
+                if (line.length() < 2) throw error(lineNumber, "missing S-record type");
+                final char type = line.charAt(1);
+                final int length = decode(line, 2, record, lineNumber);
+                if (length < 2 || (record[0] & 0xFF) != length - 1)
+                    throw error(lineNumber, "the byte count does not match the length of the record");
+                if (sum(record, length) != 0xFF) throw error(lineNumber, "wrong checksum");
+                final int addressLength;
+                switch (type) {
+                    case '1': addressLength = 2; break;
+                    case '2': addressLength = 3; break;
+                    case '3': addressLength = 4; break;
+                    case '0': case '5': case '6': case '7': case '8': case '9': continue;
+                    default: throw error(lineNumber, "unknown S-record type " + type);
+                }
+                final int count = length - 2 - addressLength;
+                if (count < 0) throw error(lineNumber, "the record is too short for its address");
+                long address = 0;
+                for (int i = 1; i <= addressLength; ++i) address = address << 8 | record[i] & 0xFF;
+                store(memory, address, record, 1 + addressLength, count, lineNumber);
+                loaded += count;
+            } else {
+                throw error(lineNumber, "a record must start with ':' or 'S'");
+            }
+        }
+        return loaded;
+    }
+
+    /** Decode the hexadecimal digits of a line starting at {@code from} into {@code result}. */
+    private static int decode(String line, int from, byte[] result, int lineNumber) throws IOException {
+        final int digits = line.length() - from;
+        if (digits % 2 != 0) throw error(lineNumber, "odd number of hexadecimal digits");
+        if (digits / 2 > result.length) throw error(lineNumber, "the record is too long");
+        for (int i = 0; i < digits / 2; ++i) {
+            final int high = Character.digit(line.charAt(from + 2 * i), 16);
+            final int low = Character.digit(line.charAt(from + 2 * i + 1), 16);
+            if (high < 0 || low < 0) throw error(lineNumber, "invalid hexadecimal digit");
+            result[i] = (byte) (high << 4 | low);
+        }
+        return digits / 2;
+    }
+
+    private static int sum(byte[] record, int length) {
+        int result = 0;
+        for (int i = 0; i < length; ++i) result += record[i] & 0xFF;
+        return result & 0xFF;
+    }
+
+    private static void store(RAM memory, long address, byte[] record, int offset, int count, int lineNumber)
+            throws IOException {
+        if (count == 0) return;
+        if (address + count > memory.getSize())
+            throw error(lineNumber, String.format("the data at %X does not fit into the memory (%d bytes)", address,
+                    memory.getSize()));
+        memory.set((int) address, record, offset, count);
+    }
+
+    private static IOException error(int lineNumber, String message) {
+        return new IOException("line " + lineNumber + ": " + message);
+    }
+}
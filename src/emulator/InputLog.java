@@ -0,0 +1,185 @@
+package emulator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * This class records changes that are made to an {@code Emulator} from outside of the program (e.g. a user
+ * changing the value of a port in the GUI) and can feed them into an {@code Emulator} again.
+ * <br>
+ * Every change is stamped with the number of machine cycles the {@code Emulator} had executed when it was made (see
+ * {@link Emulator#getCycleCount()}). As the emulation is deterministic, replaying the log from the same state
+ * reproduces the original run exactly, and replaying it from a stored state (e.g. a snapshot taken in the middle
+ * of the run) reproduces the rest of the run.
+ * <br>
+ * The log is stored as text with one change per line: {@code <cycle> <register> <hexadecimal value>}.
+ *
+ * @author 5hir0kur0
+ */
+public class InputLog {
+
+    /**
+     * A single change of a {@code Register}.
+     */
+    public static final class Entry {
+        /** the number of cycles the {@code Emulator} had executed when the change was made */
+        public final long cycle;
+        /** the name of the {@code Register} */
+        public final String register;
+        /** the new value of the {@code Register} in hexadecimal */
+        public final String value;
+
+        public Entry(long cycle, String register, String value) {
+            if (cycle < 0) throw new IllegalArgumentException("cycle must not be negative");
+            this.cycle = cycle;
+            this.register = Objects.requireNonNull(register, "register must not be null");
+            this.value = Objects.requireNonNull(value, "value must not be null");
+            if (register.trim().isEmpty() || register.contains(" ") || value.trim().isEmpty() || value.contains(" "))
+                throw new IllegalArgumentException("register names and values must not be empty or contain spaces");
+        }
+
+        @Override
+        public String toString() {
+            return this.cycle + " " + this.register + " " + this.value;
+        }
+    }
+
+    private static final String HEADER = "# B8E input log: <cycle> <register> <hexadecimal value>";
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Record the current value of a {@code Register} after it was changed from outside of the program.<br>
+     * Entries that were recorded for later cycles are removed, because they belong to a different run (this happens
+     * e.g. when the {@code Emulator} went back in its execution history).
+     * @param cycle
+     *     the number of cycles the {@code Emulator} has executed; must be &gt;= 0
+     * @param register
+     *     the changed {@code Register}; must not be {@code null}
+     */
+    public void record(long cycle, Register register) {
+        this.add(new Entry(cycle, register.getName(), register.getHexadecimalDisplayValue()));
+    }
+
+    /**
+     * Add an entry to the log.
+     * @param entry
+     *     the entry; must not be {@code null}
+     * @see #record(long, Register)
+     */
+    public void add(Entry entry) {
+        Objects.requireNonNull(entry, "entry must not be null");
+        while (!this.entries.isEmpty() && this.entries.get(this.entries.size() - 1).cycle > entry.cycle)
+            this.entries.remove(this.entries.size() - 1);
+        this.entries.add(entry);
+    }
+
+    /**
+     * @return all entries ordered by their cycle
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(this.entries);
+    }
+
+    /**
+     * Run an {@code Emulator} and apply the changes from the log at the cycles they were recorded at.<br>
+     * The replay starts at the {@code Emulator}'s current cycle count; entries from earlier cycles are skipped because
+     * they are already contained in the current state.
+     * @param emulator
+     *     the {@code Emulator}; must not be {@code null}; it must support {@link Emulator#getCycleCount()}
+     * @param cycles
+     *     the number of cycles to run; must be &gt; 0
+     * @return
+     *     the number of cycles and instructions that were executed
+     * @throws EmulatorException
+     *     when an instruction fails
+     * @throws IllegalArgumentException
+     *     if the log contains a {@code Register} the {@code Emulator} does not have or an invalid value
+     */
+    public RunResult replay(Emulator emulator, long cycles) throws EmulatorException {
+        if (cycles <= 0) throw new IllegalArgumentException("the number of cycles must be > 0");
+        final Map<String, Register> registers = new HashMap<>();
+        for (Register register : emulator.getRegisters()) registers.put(register.getName(), register);
+        final long end = emulator.getCycleCount() + cycles;
+        int next = 0;
+        while (next < this.entries.size() && this.entries.get(next).cycle < emulator.getCycleCount()) ++next;
+        long executedCycles = 0;
+        long instructions = 0;
+        while (true) {
+            while (next < this.entries.size() && this.entries.get(next).cycle <= emulator.getCycleCount()) {
+                final Entry entry = this.entries.get(next++);
+                final Register register = registers.get(entry.register);
+                if (null == register) throw new IllegalArgumentException("unknown register: " + entry.register);
+                if (!register.setValueFromHexadecimalString(entry.value))
+                    throw new IllegalArgumentException("invalid value for " + entry.register + ": " + entry.value);
+            }
+            final long now = emulator.getCycleCount();
+            if (now >= end)
+                return new RunResult(executedCycles, instructions, RunResult.StopReason.CYCLE_LIMIT);
+            final long until = next < this.entries.size() ? Math.min(end, this.entries.get(next).cycle) : end;
+            final RunResult result = emulator.runFor(until - now);
+            executedCycles += result.cycles;
+            instructions += result.instructions;
+        }
+    }
+
+    /**
+     * Store the log.
+     * @param path
+     *     the file; it is created or overwritten
+     * @throws IOException
+     *     if there was an IO error
+     */
+    public void saveTo(Path path) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(path)) {
+            out.write(HEADER);
+            out.newLine();
+            for (Entry entry : this.entries) {
+                out.write(entry.toString());
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Load a log stored by {@link #saveTo(Path)}. Empty lines and lines starting with {@code #} are ignored.
+     * @param path
+     *     the file; must be a valid and accessible path
+     * @return
+     *     the log
+     * @throws IOException
+     *     if there was an IO error or the file is not a valid log
+     */
+    public static InputLog loadFrom(Path path) throws IOException {
+        final InputLog result = new InputLog();
+        try (BufferedReader in = Files.newBufferedReader(path)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                ++lineNumber;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                final String[] parts = line.split("\\s+");
+                try {
+                    if (parts.length != 3) throw new IllegalArgumentException("expected 3 fields");
+                    final Entry entry = new Entry(Long.parseLong(parts[0]), parts[1], parts[2]);
+                    if (!result.entries.isEmpty() && result.entries.get(result.entries.size() - 1).cycle > entry.cycle)
+                        throw new IllegalArgumentException("entries are not ordered by their cycle");
+                    result.entries.add(entry);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("invalid input log entry in line " + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,109 @@
+package emulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+/**
+ * This class represents {@code RAM} whose content is a file that is mapped into memory.
+ * <br>
+ * Every write goes directly to the mapping, so the content of the memory (e.g. of the external RAM) persists across
+ * runs without being serialized and can be inspected by other programs while the emulator is running. Changes that
+ * other programs make to the file are visible to the emulator, but they do not change the modification count.
+ *
+ * @author 5hir0kur0
+ */
+public class MappedRAM extends RAM {
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Map a file. If the file does not exist, it is created; if it is shorter than {@code size}, it is extended with
+     * zeros.
+     * @param path
+     *     the file; must be a valid and accessible path
+     * @param size
+     *     the number of bytes in the created object; must be &gt; 0
+     * @throws IOException
+     *     if the file cannot be opened or mapped
+     */
+    public MappedRAM(Path path, int size) throws IOException {
+        if (size <= 0)
+            throw new IllegalArgumentException("Cannot create RAM of size smaller than or equal to 0");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size); // the mapping outlives the channel
+        }
+    }
+
+    /**
+     * Write the changes to the storage device. This is not necessary for other programs to see them, only to make
+     * sure that they are not lost if the system crashes.
+     */
+    public void force() {
+        this.buffer.force();
+    }
+
+    @Override
+    public byte get(int index) {
+        return this.buffer.get(index);
+    }
+
+    @Override
+    @Deprecated
+    public byte[] get(int index, int length) throws IndexOutOfBoundsException {
+        if (length <= 0)
+            throw new IllegalArgumentException("length cannot be smaller than or equal to 0");
+        if (index < 0)
+            throw new IndexOutOfBoundsException("index must not be smaller than 0");
+        if (index + length >= this.getSize())
+            throw new IndexOutOfBoundsException("index + length must be smaller than the number of bytes stored");
+        final byte[] result = new byte[length];
+        this.copyTo(index, result, 0, length);
+        return result;
+    }
+
+    @Override
+    public void copyTo(int index, byte[] destination, int offset, int length) throws IndexOutOfBoundsException {
+        if (index < 0 || length < 0 || index + length > this.getSize() || offset < 0
+                || offset + length > destination.length)
+            throw new IndexOutOfBoundsException("cannot copy " + length + " bytes from index " + index);
+        final ByteBuffer view = this.buffer.duplicate(); // the position is not shared
+        view.position(index);
+        view.get(destination, offset, length);
+    }
+
+    @Override
+    public void set(int index, byte value) {
+        this.buffer.put(index, value);
+        ++this.modificationCount;
+    }
+
+    @Override
+    public void set(int index, byte[] values, int offset, int length) {
+        if (index < 0 || length < 0 || index + length > this.getSize() || offset < 0
+                || offset + length > values.length)
+            throw new IndexOutOfBoundsException("cannot copy " + length + " bytes to index " + index);
+        final ByteBuffer view = this.buffer.duplicate();
+        view.position(index);
+        view.put(values, offset, length);
+        ++this.modificationCount;
+    }
+
+    @Override
+    public int getSize() {
+        return this.buffer.capacity();
+    }
+
+    @Override
+    public Iterator<Byte> iterator() {
+        return new Iterator<Byte>() {
+            int index = 0;
+            @Override public boolean hasNext() { return index < MappedRAM.this.getSize(); }
+            @Override public Byte    next()    { return MappedRAM.this.buffer.get(index++); }
+        };
+    }
+}
@@ -0,0 +1,108 @@
+package emulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * This class represents {@code ROM} whose content is a file (e.g. a binary program) that is mapped into memory, so
+ * the file does not have to be copied to be used as code memory.
+ * <br>
+ * The object may be larger than the file (the code memory of the 8051 always has 64 KiB); the bytes after the end of
+ * the file are 0. The file is never written to. As the content is expected not to change, the modification count
+ * does not reflect changes that other programs make to the file.
+ *
+ * @author 5hir0kur0
+ */
+public class MappedROM implements ROM {
+    private final MappedByteBuffer buffer;
+    private final int size;
+
+    /**
+     * @param path
+     *     the file; must be a valid and accessible path; must not be larger than {@code size}
+     * @param size
+     *     the number of bytes in the created object; must be &gt; 0
+     * @throws IOException
+     *     if the file cannot be opened or mapped or is larger than {@code size}
+     */
+    public MappedROM(Path path, int size) throws IOException {
+        if (size <= 0)
+            throw new IllegalArgumentException("Cannot create ROM of size smaller than or equal to 0");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > size)
+                throw new IOException("the file is larger than the memory (" + size + " bytes)");
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        this.size = size;
+    }
+
+    @Override
+    public byte get(int index) throws IndexOutOfBoundsException {
+        if (index < this.buffer.capacity()) return this.buffer.get(index);
+        if (index >= this.size) throw new IndexOutOfBoundsException("index must be smaller than " + this.size);
+        return 0;
+    }
+
+    @Override
+    @Deprecated
+    public byte[] get(int index, int length) throws IndexOutOfBoundsException {
+        if (length <= 0)
+            throw new IllegalArgumentException("length cannot be smaller than or equal to 0");
+        final byte[] result = new byte[length];
+        this.copyTo(index, result, 0, length);
+        return result;
+    }
+
+    @Override
+    public void copyTo(int index, byte[] destination, int offset, int length) throws IndexOutOfBoundsException {
+        if (index < 0 || length < 0 || index + length > this.size || offset < 0
+                || offset + length > destination.length)
+            throw new IndexOutOfBoundsException("cannot copy " + length + " bytes from index " + index);
+        final int mapped = Math.max(0, Math.min(length, this.buffer.capacity() - index));
+        if (mapped > 0) {
+            final ByteBuffer view = this.buffer.duplicate(); // the position is not shared
+            view.position(index);
+            view.get(destination, offset, mapped);
+        }
+        Arrays.fill(destination, offset + mapped, offset + length, (byte) 0);
+    }
+
+    @Override
+    public int getSize() {
+        return this.size;
+    }
+
+    @Override
+    public Iterator<Byte> iterator() {
+        return new Iterator<Byte>() {
+            int index = 0;
+            @Override public boolean hasNext() { return index < MappedROM.this.size; }
+            @Override public Byte    next()    { return MappedROM.this.get(index++); }
+        };
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof ROM) || ((ROM) other).getSize() != this.size) return false;
+        final ROM tmp = (ROM) other;
+        for (int i = 0; i < this.size; ++i) if (this.get(i) != tmp.get(i)) return false;
+        return true;
+    }
+
+    /**
+     * @return the same hash code as {@link Arrays#hashCode(byte[])} for the content
+     */
+    @Override
+    public int hashCode() {
+        int result = 1;
+        for (int i = 0; i < this.size; ++i) result = 31 * result + this.get(i);
+        return result;
+    }
+}
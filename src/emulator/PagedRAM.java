@@ -0,0 +1,186 @@
+package emulator;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * This class represents {@code RAM} that is divided into pages which are copied on write.
+ * <br>
+ * Forks of a {@code PagedRAM} object (see {@link #fork()}) share all of their pages at first. A shared page is only
+ * copied when it is written to, so a fork costs one pointer per page and only the pages that are modified later on
+ * take up memory of their own. Pages that have never been written to are not allocated at all.
+ *
+ * @author 5hir0kur0
+ */
+public class PagedRAM extends RAM {
+    /** The number of bytes in a page. */
+    public static final int PAGE_SIZE = 256;
+    private static final int PAGE_SHIFT = 8;
+
+    /** Page that is used for every page that has not been written to yet. It is never modified. */
+    private static final byte[] EMPTY_PAGE = new byte[PAGE_SIZE];
+
+    private final byte[][] pages;
+    private final boolean[] ownedPages; // pages that are not shared with any other object and can be written to
+
+    /**
+     * Create a new {@code PagedRAM} object that only contains zeros.
+     * @param size
+     *     the number of bytes in the created object; must be &gt; 0 and a multiple of {@link #PAGE_SIZE}
+     */
+    public PagedRAM(int size) {
+        if (size <= 0 || size % PAGE_SIZE != 0)
+            throw new IllegalArgumentException("the size of paged RAM must be a positive multiple of " + PAGE_SIZE);
+        this.pages = new byte[size / PAGE_SIZE][];
+        Arrays.fill(this.pages, EMPTY_PAGE);
+        this.ownedPages = new boolean[this.pages.length];
+    }
+
+    /**
+     * Create a new {@code PagedRAM} object with the content of a {@code ROM}.
+     * @param content
+     *     the content of the new object; must not be {@code null}; the size must be &gt; 0 and a multiple of
+     *     {@link #PAGE_SIZE}
+     */
+    public PagedRAM(ROM content) {
+        this(content.getSize());
+        final byte[] page = new byte[PAGE_SIZE];
+        for (int i = 0; i < this.pages.length; ++i) {
+            content.copyTo(i * PAGE_SIZE, page, 0, PAGE_SIZE);
+            if (!Arrays.equals(page, EMPTY_PAGE)) { // pages that only contain zeros stay shared
+                this.pages[i] = page.clone();
+                this.ownedPages[i] = true;
+            }
+        }
+    }
+
+    private PagedRAM(PagedRAM other) {
+        this.pages = other.pages.clone();
+        this.ownedPages = new boolean[this.pages.length];
+        Arrays.fill(other.ownedPages, false);
+    }
+
+    /**
+     * Create a copy of this object. The copy and this object share all pages until they are written to, so this
+     * only takes time proportional to the number of pages.
+     * @return
+     *     an independent copy of this object
+     */
+    public PagedRAM fork() {
+        return new PagedRAM(this);
+    }
+
+    /**
+     * Replace the content of this object with the content of another one, e.g. a fork that was taken as a
+     * checkpoint. The pages are shared as in {@link #fork()}.
+     * @param other
+     *     the object whose content is copied; must not be {@code null}; must have the same size
+     */
+    public void restore(PagedRAM other) {
+        if (other.pages.length != this.pages.length)
+            throw new IllegalArgumentException("cannot restore paged RAM of a different size");
+        if (other == this) return;
+        boolean changed = false;
+        for (int page = 0; page < this.pages.length; ++page)
+            if (this.pages[page] != other.pages[page]) {
+                this.pages[page] = other.pages[page];
+                changed = true;
+            }
+        Arrays.fill(this.ownedPages, false);
+        Arrays.fill(other.ownedPages, false);
+        if (changed) ++this.modificationCount;
+    }
+
+    /**
+     * @return the number of pages that were written to since this object was created, forked or restored
+     */
+    public int getDirtyPageCount() {
+        int result = 0;
+        for (boolean owned : this.ownedPages) if (owned) ++result;
+        return result;
+    }
+
+    @Override
+    public byte get(int index) {
+        return this.pages[index >>> PAGE_SHIFT][index & PAGE_SIZE - 1];
+    }
+
+    @Override
+    @Deprecated
+    public byte[] get(int index, int length) throws IndexOutOfBoundsException {
+        if (length <= 0)
+            throw new IllegalArgumentException("length cannot be smaller than or equal to 0");
+        if (index < 0)
+            throw new IndexOutOfBoundsException("index must not be smaller than 0");
+        if (index + length >= this.getSize())
+            throw new IndexOutOfBoundsException("index + length must be smaller than the number of bytes stored");
+        final byte[] result = new byte[length];
+        for (int i = 0; i < length; ++i) result[i] = this.get(index + i);
+        return result;
+    }
+
+    @Override
+    public void copyTo(int index, byte[] destination, int offset, int length) throws IndexOutOfBoundsException {
+        if (index < 0 || length < 0 || index + length > this.getSize() || offset < 0
+                || offset + length > destination.length)
+            throw new IndexOutOfBoundsException("cannot copy " + length + " bytes from index " + index);
+        while (length > 0) {
+            final int pageOffset = index & PAGE_SIZE - 1;
+            final int count = Math.min(length, PAGE_SIZE - pageOffset);
+            System.arraycopy(this.pages[index >>> PAGE_SHIFT], pageOffset, destination, offset, count);
+            index += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void set(int index, byte value) {
+        final int page = index >>> PAGE_SHIFT;
+        if (!this.ownedPages[page]) {
+            this.pages[page] = this.pages[page].clone();
+            this.ownedPages[page] = true;
+        }
+        this.pages[page][index & PAGE_SIZE - 1] = value;
+        ++this.modificationCount;
+    }
+
+    /**
+     * Copy a number of bytes into this object. Only the pages in the range are copied on write, so the rest of a
+     * sparse image stays shared.
+     * @see RAM#set(int, byte[], int, int)
+     */
+    @Override
+    public void set(int index, byte[] values, int offset, int length) {
+        if (index < 0 || length < 0 || index + length > this.getSize() || offset < 0 || offset + length > values.length)
+            throw new IndexOutOfBoundsException("cannot copy " + length + " bytes to index " + index);
+        while (length > 0) {
+            final int page = index >>> PAGE_SHIFT;
+            final int pageOffset = index & PAGE_SIZE - 1;
+            final int count = Math.min(length, PAGE_SIZE - pageOffset);
+            if (!this.ownedPages[page]) {
+                this.pages[page] = this.pages[page].clone();
+                this.ownedPages[page] = true;
+            }
+            System.arraycopy(values, offset, this.pages[page], pageOffset, count);
+            index += count;
+            offset += count;
+            length -= count;
+        }
+        ++this.modificationCount;
+    }
+
+    @Override
+    public int getSize() {
+        return this.pages.length * PAGE_SIZE;
+    }
+
+    @Override
+    public Iterator<Byte> iterator() {
+        return new Iterator<Byte>() {
+            int index = 0;
+            @Override public boolean hasNext() { return index < PagedRAM.this.getSize(); }
+            @Override public Byte    next()    { return PagedRAM.this.get(index++); }
+        };
+    }
+}
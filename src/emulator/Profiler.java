@@ -0,0 +1,283 @@
+package emulator;
+
+import assembler.util.Listing;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class counts the instructions executed and the cycles spent at every address of the code memory (see
+ * {@link Emulator#setProfiler(Profiler)}).
+ * <br>
+ * Recording an instruction only increments two array elements, so profiling can stay enabled during long runs. After
+ * a run, the counters can be turned into a sorted list of {@link Hotspot}s (by address or by label) and written as
+ * CSV or as a listing annotated with the counters.
+ *
+ * @author 5hir0kur0
+ */
+public class Profiler {
+
+    /**
+     * The counters of an address or of the code following a label.
+     */
+    public static final class Hotspot {
+        /** the label (or the source line if there is no listing entry) */
+        public final String name;
+        /** the (first) address */
+        public final int address;
+        /** the path of the source file; empty if unknown */
+        public final String path;
+        /** the line in the source file; 0 if unknown */
+        public final int line;
+        public final long instructions;
+        public final long cycles;
+
+        Hotspot(String name, int address, String path, int line, long instructions, long cycles) {
+            this.name = name;
+            this.address = address;
+            this.path = path;
+            this.line = line;
+            this.instructions = instructions;
+            this.cycles = cycles;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%04X %s: %d instructions, %d cycles", this.address, this.name, this.instructions,
+                    this.cycles);
+        }
+    }
+
+    private static final String NO_LABEL = "(no label)";
+    private static final Comparator<Hotspot> BY_CYCLES = (a, b) -> a.cycles != b.cycles
+            ? Long.compare(b.cycles, a.cycles) : Integer.compare(a.address, b.address);
+
+    private final long[] instructions;
+    private final long[] cycles;
+
+    /**
+     * Create a profiler for 64 KiB of code memory.
+     */
+    public Profiler() {
+        this(0x10000);
+    }
+
+    /**
+     * @param size
+     *     the size of the code memory; must be &gt; 0
+     */
+    public Profiler(int size) {
+        if (size <= 0) throw new IllegalArgumentException("the size of the code memory must be > 0");
+        this.instructions = new long[size];
+        this.cycles = new long[size];
+    }
+
+    /**
+     * Record an executed instruction.
+     * @param address
+     *     the address of the instruction; must be &gt;= 0 and smaller than the size of the code memory
+     * @param cycles
+     *     the number of cycles the instruction took
+     */
+    public void record(int address, int cycles) {
+        ++this.instructions[address];
+        this.cycles[address] += cycles;
+    }
+
+    /**
+     * Record the same instruction being executed several times (e.g. an idle loop that was skipped).
+     * @param address
+     *     the address of the instruction; must be &gt;= 0 and smaller than the size of the code memory
+     * @param instructions
+     *     the number of executions
+     * @param cycles
+     *     the number of cycles all executions took together
+     */
+    public void record(int address, long instructions, long cycles) {
+        this.instructions[address] += instructions;
+        this.cycles[address] += cycles;
+    }
+
+    public long getInstructions(int address) {
+        return this.instructions[address];
+    }
+
+    public long getCycles(int address) {
+        return this.cycles[address];
+    }
+
+    public long getTotalInstructions() {
+        long result = 0;
+        for (long i : this.instructions) result += i;
+        return result;
+    }
+
+    public long getTotalCycles() {
+        long result = 0;
+        for (long c : this.cycles) result += c;
+        return result;
+    }
+
+    /**
+     * Reset all counters.
+     */
+    public void clear() {
+        java.util.Arrays.fill(this.instructions, 0);
+        java.util.Arrays.fill(this.cycles, 0);
+    }
+
+    /**
+     * Add the counters of another profiler (e.g. of another run of the same program) to this one.
+     * @param other
+     *     the other profiler; must not be {@code null}; must have the same size
+     */
+    public void merge(Profiler other) {
+        if (other.instructions.length != this.instructions.length)
+            throw new IllegalArgumentException("cannot merge profilers of different sizes");
+        for (int address = 0; address < this.instructions.length; ++address) {
+            this.instructions[address] += other.instructions[address];
+            this.cycles[address] += other.cycles[address];
+        }
+    }
+
+    /**
+     * @param listing
+     *     the listing of the program; may be {@code null}
+     * @return
+     *     the counters of every executed address, sorted by the number of cycles (most cycles first)
+     */
+    public List<Hotspot> getHotspots(Listing listing) {
+        final Listing.ListingElement[] elements = listing == null ? null : this.byAddress(listing);
+        final List<Hotspot> result = new ArrayList<>();
+        for (int address = 0; address < this.instructions.length; ++address) {
+            if (this.instructions[address] == 0) continue;
+            final Listing.ListingElement element = elements == null ? null : elements[address];
+            result.add(element == null
+                    ? new Hotspot(String.format("%04X", address), address, "", 0, this.instructions[address],
+                            this.cycles[address])
+                    : new Hotspot(element.getLineString().trim(), address, element.getPath(), element.getLine(),
+                            this.instructions[address], this.cycles[address]));
+        }
+        result.sort(BY_CYCLES);
+        return result;
+    }
+
+    /**
+     * Add up the counters of the code following each label (until the next label), e.g. to find out how many cycles
+     * an interrupt service routine takes.
+     * @param listing
+     *     the listing of the program; must not be {@code null}
+     * @return
+     *     the counters of every label with executed code, sorted by the number of cycles (most cycles first)
+     */
+    public List<Hotspot> getHotspotsByLabel(Listing listing) {
+        final List<Listing.ListingElement> elements = new ArrayList<>(listing.getElements());
+        elements.sort(null);
+        final Map<String, long[]> counters = new LinkedHashMap<>(); // label -> {instructions, cycles}
+        final Map<String, Listing.ListingElement> labelElements = new LinkedHashMap<>();
+        String label = NO_LABEL;
+        int next = 0; // the addresses before next have already been counted
+        for (Listing.ListingElement element : elements) {
+            if (!element.getLabels().isEmpty()) {
+                label = element.getLabels().split(":")[0].trim();
+                labelElements.putIfAbsent(label, element);
+            }
+            final int start = Math.max(next, (int) element.getAddressAsLong());
+            final int end = Math.min(this.instructions.length, (int) element.getAddressAsLong() + element.getLength());
+            for (int address = start; address < end; ++address) {
+                if (this.instructions[address] == 0) continue;
+                final long[] sums = counters.computeIfAbsent(label, l -> new long[2]);
+                sums[0] += this.instructions[address];
+                sums[1] += this.cycles[address];
+            }
+            next = Math.max(next, end);
+        }
+        final List<Hotspot> result = new ArrayList<>(counters.size());
+        for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+            final Listing.ListingElement element = labelElements.get(entry.getKey());
+            result.add(element == null
+                    ? new Hotspot(entry.getKey(), 0, "", 0, entry.getValue()[0], entry.getValue()[1])
+                    : new Hotspot(entry.getKey(), (int) element.getAddressAsLong(), element.getPath(),
+                            element.getLine(), entry.getValue()[0], entry.getValue()[1]));
+        }
+        result.sort(BY_CYCLES);
+        return result;
+    }
+
+    /**
+     * Write hotspots as CSV with the columns name, address, path, line, instructions, cycles and the percentage of
+     * all cycles.
+     * @param out
+     *     the output; must not be {@code null}
+     * @param hotspots
+     *     the hotspots (see {@link #getHotspots(Listing)} and {@link #getHotspotsByLabel(Listing)})
+     * @throws IOException
+     *     if there was an IO error
+     */
+    public void writeCsv(Writer out, List<Hotspot> hotspots) throws IOException {
+        final long total = Math.max(1, this.getTotalCycles());
+        out.write("name,address,path,line,instructions,cycles,percent");
+        out.write(System.lineSeparator());
+        for (Hotspot h : hotspots) {
+            out.write(csvField(h.name) + "," + String.format("%04X", h.address) + "," + csvField(h.path) + ","
+                    + h.line + "," + h.instructions + "," + h.cycles + ","
+                    + String.format(java.util.Locale.ROOT, "%.2f", 100.0 * h.cycles / total));
+            out.write(System.lineSeparator());
+        }
+    }
+
+    /**
+     * Write the listing of the program with the number of executions and cycles in front of every line.
+     * @param out
+     *     the output; must not be {@code null}
+     * @param listing
+     *     the listing of the program; must not be {@code null}
+     * @throws IOException
+     *     if there was an IO error
+     */
+    public void writeAnnotatedListing(Writer out, Listing listing) throws IOException {
+        final long total = Math.max(1, this.getTotalCycles());
+        String path = null;
+        out.write(String.format("%12s %12s %7s  %s%n", "EXECUTIONS", "CYCLES", "%", "LINE"));
+        for (Listing.ListingElement element : listing.getElements()) {
+            if (!element.getPath().equals(path)) {
+                path = element.getPath();
+                out.write(String.format("%nFile: %s%n", path));
+            }
+            long executions = 0;
+            long cycles = 0;
+            final int address = (int) element.getAddressAsLong();
+            if (element.getLength() > 0 && address >= 0 && address < this.instructions.length) {
+                executions = this.instructions[address];
+                for (int a = address; a < Math.min(this.instructions.length, address + element.getLength()); ++a)
+                    cycles += this.cycles[a];
+            }
+            final String counters = cycles == 0 ? String.format("%12s %12s %7s", "", "", "")
+                    : String.format(java.util.Locale.ROOT, "%12d %12d %6.2f%%", executions, cycles,
+                            100.0 * cycles / total);
+            out.write(String.format("%s  %5d: %s  %s %s%n", counters, element.getLine(), element.getAddress(),
+                    element.getLabels(), element.getLineString()));
+        }
+    }
+
+    // Listing.getFromAddress() searches all elements, which is too slow to be called for every address
+    private Listing.ListingElement[] byAddress(Listing listing) {
+        final Listing.ListingElement[] result = new Listing.ListingElement[this.instructions.length];
+        for (Listing.ListingElement element : listing.getElements()) {
+            final long start = element.getAddressAsLong();
+            for (long address = start; address < start + element.getLength() && address < result.length; ++address)
+                if (address >= 0 && result[(int) address] == null) result[(int) address] = element;
+        }
+        return result;
+    }
+
+    private static String csvField(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0) return field;
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+}
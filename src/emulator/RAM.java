@@ -2,6 +2,7 @@ package emulator;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlTransient;
 import javax.xml.bind.annotation.adapters.XmlAdapter;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -14,9 +15,10 @@ import java.util.Iterator;
 @XmlAccessorType(XmlAccessType.FIELD)
 public class RAM implements ROM {
     protected byte[] memory;
+    @XmlTransient
+    protected int modificationCount;
 
-    @SuppressWarnings("unused")
-    private RAM() {} // no-arg constructor for JAXB
+    protected RAM() {} // no-arg constructor for JAXB and subclasses
 
     /**
      * Create a new {@code RAM} object.
@@ -72,6 +74,11 @@ public class RAM implements ROM {
         return Arrays.copyOfRange(this.memory, index, index + length);
     }
 
+    @Override
+    public void copyTo(int index, byte[] destination, int offset, int length) throws IndexOutOfBoundsException {
+        System.arraycopy(this.memory, index, destination, offset, length);
+    }
+
     /**
      * @return an {@code Iterator<Byte>} to be used in enhanced for loops; <b>{@code remove()} is not supported</b>
      */
@@ -93,6 +100,28 @@ public class RAM implements ROM {
      */
     public void set(int index, byte value) {
         this.memory[index] = value;
+        ++this.modificationCount;
+    }
+
+    /**
+     * Copy a number of bytes into this object, e.g. a whole program or a data record of a HEX file.
+     * @param index
+     *     the index of the first byte to be set; must be &gt;= 0
+     * @param values
+     *     the array containing the new values; must not be {@code null}
+     * @param offset
+     *     the index of the first new value in {@code values}
+     * @param length
+     *     the number of bytes to be copied; {@code index + length} must be &lt;= {@code getSize()}
+     */
+    public void set(int index, byte[] values, int offset, int length) {
+        System.arraycopy(values, offset, this.memory, index, length);
+        ++this.modificationCount;
+    }
+
+    @Override
+    public int getModificationCount() {
+        return this.modificationCount;
     }
 
     @Override
@@ -106,11 +135,33 @@ public class RAM implements ROM {
         if (this == other) return true;
         if (!(other instanceof RAM)) return false;
         RAM tmp = (RAM)other;
-        return Arrays.equals(this.memory, tmp.memory);
+        if (this.memory != null && tmp.memory != null) return Arrays.equals(this.memory, tmp.memory);
+        // subclasses may store their content differently
+        if (this.getSize() != tmp.getSize()) return false;
+        for (int i = 0; i < this.getSize(); ++i) if (this.get(i) != tmp.get(i)) return false;
+        return true;
+    }
+
+    /**
+     * Copy the content of a {@code ROM} into a plain {@code RAM} object (e.g. for XML serialization).
+     * @param content
+     *     the {@code ROM}; must not be {@code null}
+     * @return
+     *     a new {@code RAM} object with the same content
+     */
+    public static RAM copyOf(ROM content) {
+        final byte[] memory = new byte[content.getSize()];
+        content.copyTo(0, memory, 0, memory.length);
+        return new RAM(memory);
     }
 
     public static class RomAdapter extends XmlAdapter<RAM, ROM> {
         @Override public ROM unmarshal(RAM r) { return r; }
-        @Override public RAM marshal(ROM r) { return (RAM)r; }
+        @Override public RAM marshal(ROM r) { return r.getClass() == RAM.class ? (RAM)r : RAM.copyOf(r); }
+    }
+
+    public static class RamAdapter extends XmlAdapter<RAM, RAM> {
+        @Override public RAM unmarshal(RAM r) { return r; }
+        @Override public RAM marshal(RAM r) { return r.getClass() == RAM.class ? r : RAM.copyOf(r); }
     }
 }
@@ -32,11 +32,43 @@ public interface ROM extends Iterable<Byte> {
      */
     @Deprecated byte[] get(int index, int length) throws IndexOutOfBoundsException;
 
+    /**
+     * Copy a number of bytes into an array. Unlike {@link #get(int, int)} and the {@code Iterator<Byte>}, this
+     * neither allocates nor boxes, so it should be used to read large parts of the memory (e.g. for serialization).
+     * @param index
+     *     the index of the first byte; must be &gt;= 0
+     * @param destination
+     *     the array the bytes are copied to; must not be {@code null}
+     * @param offset
+     *     the index in {@code destination} of the first copied byte
+     * @param length
+     *     the number of bytes to be copied; {@code index} + {@code length} must be &lt;= {@code getSize()}
+     * @throws IndexOutOfBoundsException
+     *     if one of the ranges is not within the memory or {@code destination}
+     */
+    default void copyTo(int index, byte[] destination, int offset, int length) throws IndexOutOfBoundsException {
+        if (index < 0 || length < 0 || index + length > this.getSize() || offset < 0
+                || offset + length > destination.length)
+            throw new IndexOutOfBoundsException("cannot copy " + length + " bytes from index " + index);
+        for (int i = 0; i < length; ++i) destination[offset + i] = this.get(index + i);
+    }
+
     /**
      * @return the number of bytes held by the {@code ROM} object
      */
     int getSize();
 
+    /**
+     * Get a counter that changes every time the content of the memory is modified.<br>
+     * It can be used to find out whether cached data derived from the memory is still valid.
+     * Implementations whose content never changes may always return the same value.
+     * @return
+     *     the current modification count
+     */
+    default int getModificationCount() {
+        return 0;
+    }
+
     /**
      * @see java.lang.Object#equals(java.lang.Object)
      * @param other
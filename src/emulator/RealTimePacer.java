@@ -0,0 +1,198 @@
+package emulator;
+
+import java.util.Objects;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class slows down an {@code Emulator} to the speed of the real hardware.
+ * <br>
+ * The {@code Emulator} executes a batch of cycles (see {@link #getBatchCycles()}) and then calls
+ * {@link #pace(long)}, which waits until the time the batch takes on the real hardware has passed. The time is
+ * measured from the start of the run, so small errors of single batches do not add up.
+ * <br>
+ * If the {@code Emulator} falls behind by more than {@link #MAX_LAG_NANOSECONDS} (e.g. because the host was busy),
+ * the missing time is dropped instead of being caught up by running at full speed, because a long burst of fast
+ * execution would be more disturbing than a short pause (e.g. for a blinking LED).
+ * <br>
+ * In turbo mode the {@code Emulator} runs as fast as possible and only the achieved speed is measured.
+ *
+ * @author 5hir0kur0
+ */
+public class RealTimePacer {
+    /** The maximum time the emulation may fall behind the real time before the missing time is dropped. */
+    public static final long MAX_LAG_NANOSECONDS = 20_000_000;
+    /** Waiting times shorter than this are spent spinning instead of parking the thread, which is less precise. */
+    private static final long SPIN_NANOSECONDS = 200_000;
+    /** The time over which the speed is measured. */
+    private static final long MEASUREMENT_NANOSECONDS = 500_000_000;
+
+    /**
+     * The source of the time and the way to wait for it. The pacer uses {@link #SYSTEM}; tests can use a simulated
+     * clock instead, so they do not depend on the speed and the load of the host.
+     */
+    public interface Clock {
+        /**
+         * @return the current time in nanoseconds (like {@link System#nanoTime()})
+         */
+        long nanoTime();
+
+        /**
+         * Wait until a point in time.
+         * @param deadline
+         *     the time in nanoseconds
+         * @return
+         *     the current time after waiting
+         */
+        long waitUntil(long deadline);
+
+        /** The clock of the JVM ({@link System#nanoTime()}). */
+        Clock SYSTEM = new Clock() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+
+            @Override
+            public long waitUntil(long deadline) {
+                long now = System.nanoTime();
+                while (deadline - now > SPIN_NANOSECONDS) {
+                    LockSupport.parkNanos(deadline - now - SPIN_NANOSECONDS);
+                    now = System.nanoTime();
+                }
+                while (deadline - now > 0) {
+                    Thread.yield();
+                    now = System.nanoTime();
+                }
+                return now;
+            }
+        };
+    }
+
+    private final Clock clock;
+    private final long cyclesPerSecond;
+    private final double nanosecondsPerCycle;
+    private final long batchCycles;
+    private volatile boolean turbo;
+
+    private long startTime;
+    private long cyclesSinceStart;
+    private long measurementStartTime;
+    private long measurementCycles;
+    private volatile double speedRatio;
+
+    /**
+     * @param crystalFrequency
+     *     the frequency of the emulated crystal in Hz; must be &gt; 0
+     * @param clocksPerCycle
+     *     the number of clock periods in a machine cycle (12 for the 8051); must be &gt; 0
+     * @param batchNanoseconds
+     *     the (real) time that is executed in one batch; must be &gt; 0; shorter batches mean less jitter, but more
+     *     overhead
+     */
+    public RealTimePacer(long crystalFrequency, int clocksPerCycle, long batchNanoseconds) {
+        this(crystalFrequency, clocksPerCycle, batchNanoseconds, Clock.SYSTEM);
+    }
+
+    /**
+     * @param crystalFrequency
+     *     the frequency of the emulated crystal in Hz; must be &gt; 0
+     * @param clocksPerCycle
+     *     the number of clock periods in a machine cycle (12 for the 8051); must be &gt; 0
+     * @param batchNanoseconds
+     *     the (real) time that is executed in one batch; must be &gt; 0
+     * @param clock
+     *     the clock that measures the time and waits; must not be {@code null}
+     */
+    public RealTimePacer(long crystalFrequency, int clocksPerCycle, long batchNanoseconds, Clock clock) {
+        this.clock = Objects.requireNonNull(clock, "clock must not be null");
+        if (crystalFrequency <= 0) throw new IllegalArgumentException("the crystal frequency must be > 0");
+        if (clocksPerCycle <= 0) throw new IllegalArgumentException("the number of clocks per cycle must be > 0");
+        if (batchNanoseconds <= 0) throw new IllegalArgumentException("the batch time must be > 0");
+        this.cyclesPerSecond = Math.max(1, crystalFrequency / clocksPerCycle);
+        this.nanosecondsPerCycle = 1_000_000_000.0 * clocksPerCycle / crystalFrequency;
+        this.batchCycles = Math.max(1, (long) (batchNanoseconds / this.nanosecondsPerCycle));
+        this.turbo = false;
+        this.start();
+    }
+
+    /**
+     * @return the number of machine cycles the emulated hardware executes in one second
+     */
+    public long getCyclesPerSecond() {
+        return this.cyclesPerSecond;
+    }
+
+    /**
+     * @return the number of cycles that should be executed before {@link #pace(long)} is called
+     */
+    public long getBatchCycles() {
+        return this.batchCycles;
+    }
+
+    public boolean isTurbo() {
+        return this.turbo;
+    }
+
+    /**
+     * @param turbo
+     *     {@code true} if the {@code Emulator} should run as fast as possible
+     */
+    public void setTurbo(boolean turbo) {
+        this.turbo = turbo;
+    }
+
+    /**
+     * Start measuring the time. This has to be called when the {@code Emulator} is started (again).
+     */
+    public void start() {
+        this.startTime = this.clock.nanoTime();
+        this.cyclesSinceStart = 0;
+        this.measurementStartTime = this.startTime;
+        this.measurementCycles = 0;
+    }
+
+    /**
+     * Wait until the executed cycles would have been executed by the real hardware. In turbo mode this method
+     * returns immediately.
+     * @param cycles
+     *     the number of cycles that were executed since the last call; must be &gt;= 0
+     * @return
+     *     {@code true} if a new value of {@link #getSpeedRatio()} is available
+     */
+    public boolean pace(long cycles) {
+        if (cycles < 0) throw new IllegalArgumentException("the number of cycles must not be negative");
+        this.cyclesSinceStart += cycles;
+        this.measurementCycles += cycles;
+        long now = this.clock.nanoTime();
+        if (this.turbo) {
+            // the reference is moved along, so that switching turbo mode off does not cause a pause
+            this.startTime = now - (long) (this.cyclesSinceStart * this.nanosecondsPerCycle);
+        } else {
+            final long due = this.startTime + (long) (this.cyclesSinceStart * this.nanosecondsPerCycle);
+            if (now - due > MAX_LAG_NANOSECONDS) {
+                this.startTime += now - due;
+            } else if (due - now > 0) {
+                now = this.clock.waitUntil(due);
+            }
+        }
+        return this.measure(now);
+    }
+
+    /**
+     * @return
+     *     the achieved speed divided by the speed of the real hardware during the last measurement period; 0 if the
+     *     speed has not been measured yet
+     */
+    public double getSpeedRatio() {
+        return this.speedRatio;
+    }
+
+    private boolean measure(long now) {
+        final long elapsed = now - this.measurementStartTime;
+        if (elapsed < MEASUREMENT_NANOSECONDS) return false;
+        this.speedRatio = this.measurementCycles * this.nanosecondsPerCycle / elapsed;
+        this.measurementStartTime = now;
+        this.measurementCycles = 0;
+        return true;
+    }
+}
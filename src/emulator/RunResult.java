@@ -0,0 +1,44 @@
+package emulator;
+
+import java.util.Objects;
+
+/**
+ * The result of running an {@code Emulator} for more than one instruction.
+ *
+ * @see Emulator#run(long, java.util.BitSet, java.util.function.BooleanSupplier)
+ * @author 5hir0kur0
+ */
+public class RunResult {
+    /**
+     * The reason why an {@code Emulator} stopped running.
+     */
+    public enum StopReason {
+        /** the requested number of cycles has been executed */
+        CYCLE_LIMIT,
+        /** the program counter reached an address that was marked as a breakpoint */
+        BREAKPOINT,
+        /** the stop condition supplied by the caller became {@code true} */
+        CONDITION,
+        /** the program accessed an address that is watched (see {@link Watchpoints}) */
+        WATCHPOINT
+    }
+
+    /** the number of machine cycles that were executed */
+    public final long cycles;
+    /** the number of instructions that were executed */
+    public final long instructions;
+    /** the reason why the {@code Emulator} stopped */
+    public final StopReason stopReason;
+
+    public RunResult(long cycles, long instructions, StopReason stopReason) {
+        this.cycles = cycles;
+        this.instructions = instructions;
+        this.stopReason = Objects.requireNonNull(stopReason, "stop reason must not be null");
+    }
+
+    @Override
+    public String toString() {
+        return "RunResult{cycles=" + this.cycles + ", instructions=" + this.instructions
+                + ", stopReason=" + this.stopReason + "}";
+    }
+}
@@ -0,0 +1,267 @@
+package emulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * This class holds watchpoints, which stop an {@code Emulator} when the program reads or writes certain memory
+ * addresses (see {@link Emulator#setWatchpoints(Watchpoints)}).
+ * <br>
+ * The watched addresses are stored in bitmaps of {@link #PAGE_SIZE} addresses per memory space and access type. Pages
+ * without watchpoints are not allocated, so checking an address in an unwatched page costs a single comparison with
+ * {@code null}.
+ *
+ * @author 5hir0kur0
+ */
+public class Watchpoints {
+    /** The number of addresses in a page of the bitmaps. */
+    public static final int PAGE_SIZE = 256;
+    private static final int PAGE_SHIFT = 8;
+
+    /**
+     * The memory spaces that can be watched.
+     */
+    public enum Space {
+        /** the internal RAM (including the R registers and the stack) */
+        INTERNAL_RAM("RAM", 0, 0x100),
+        /** the special function registers (addressed by their direct address) */
+        SFR("SFR", 0x80, 0x100),
+        /** the external RAM */
+        EXTERNAL_RAM("XRAM", 0, 0x10000);
+
+        /** the short name used in {@link Watchpoint#toString()} */
+        public final String shortName;
+        /** the lowest address in the memory space */
+        public final int start;
+        /** the highest address in the memory space + 1 */
+        public final int size;
+
+        Space(String shortName, int start, int size) {
+            this.shortName = shortName;
+            this.start = start;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A range of watched addresses.
+     */
+    public static final class Watchpoint {
+        public final Space space;
+        /** the first watched address */
+        public final int from;
+        /** the last watched address (inclusive) */
+        public final int to;
+        /** {@code true} if reading the addresses stops the {@code Emulator} */
+        public final boolean read;
+        /** {@code true} if writing the addresses stops the {@code Emulator} */
+        public final boolean write;
+
+        /**
+         * @param space
+         *     the memory space; must not be {@code null}
+         * @param from
+         *     the first address; must be &gt;= the start of the memory space and &lt;= {@code to}
+         * @param to
+         *     the last address (inclusive); must be smaller than the size of the memory space
+         * @param read
+         *     watch reads
+         * @param write
+         *     watch writes; at least one of {@code read} and {@code write} must be {@code true}
+         */
+        public Watchpoint(Space space, int from, int to, boolean read, boolean write) {
+            this.space = Objects.requireNonNull(space, "space must not be null");
+            if (from < space.start || from > to || to >= space.size)
+                throw new IllegalArgumentException("invalid " + space.shortName + " address range: " + from + "-" + to);
+            if (!read && !write) throw new IllegalArgumentException("a watchpoint must watch reads or writes");
+            this.from = from;
+            this.to = to;
+            this.read = read;
+            this.write = write;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (!(other instanceof Watchpoint)) return false;
+            final Watchpoint tmp = (Watchpoint) other;
+            return this.space == tmp.space && this.from == tmp.from && this.to == tmp.to && this.read == tmp.read
+                    && this.write == tmp.write;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.space, this.from, this.to, this.read, this.write);
+        }
+
+        /**
+         * @return e.g. {@code XRAM 0x1000-0x10FF rw}
+         */
+        @Override
+        public String toString() {
+            return this.space.shortName + String.format(" 0x%02X", this.from)
+                    + (this.to != this.from ? String.format("-0x%02X", this.to) : "")
+                    + " " + (this.read ? "r" : "") + (this.write ? "w" : "");
+        }
+    }
+
+    /**
+     * An access that matched a watchpoint.
+     */
+    public static final class Hit {
+        public final Space space;
+        public final int address;
+        /** {@code true} for a write; {@code false} for a read */
+        public final boolean write;
+
+        Hit(Space space, int address, boolean write) {
+            this.space = space;
+            this.address = address;
+            this.write = write;
+        }
+
+        @Override
+        public String toString() {
+            return (this.write ? "write to " : "read from ") + this.space.shortName
+                    + String.format(" 0x%02X", this.address);
+        }
+    }
+
+    private final List<Watchpoint> watchpoints = new ArrayList<>();
+    // bitmaps indexed by [space][page]; null if there are no watchpoints in the space or the page
+    private final long[][][] readPages = new long[Space.values().length][][];
+    private final long[][][] writePages = new long[Space.values().length][][];
+    private Hit hit;
+    private int modificationCount; // incremented whenever watchpoints are added or removed
+
+    /**
+     * Add a watchpoint. Adding a watchpoint that already exists has no effect.
+     * @param watchpoint
+     *     the watchpoint; must not be {@code null}
+     */
+    public void add(Watchpoint watchpoint) {
+        Objects.requireNonNull(watchpoint, "watchpoint must not be null");
+        if (this.watchpoints.contains(watchpoint)) return;
+        this.watchpoints.add(watchpoint);
+        ++this.modificationCount;
+        if (watchpoint.read) mark(this.readPages, watchpoint);
+        if (watchpoint.write) mark(this.writePages, watchpoint);
+    }
+
+    /**
+     * Remove a watchpoint.
+     * @param watchpoint
+     *     the watchpoint
+     * @return
+     *     {@code true} if the watchpoint existed
+     */
+    public boolean remove(Watchpoint watchpoint) {
+        if (!this.watchpoints.remove(watchpoint)) return false;
+        ++this.modificationCount;
+        // other watchpoints may overlap with the removed one, so the bitmaps are rebuilt
+        Arrays.fill(this.readPages, null);
+        Arrays.fill(this.writePages, null);
+        for (Watchpoint w : this.watchpoints) {
+            if (w.read) mark(this.readPages, w);
+            if (w.write) mark(this.writePages, w);
+        }
+        return true;
+    }
+
+    public void clear() {
+        this.watchpoints.clear();
+        ++this.modificationCount;
+        Arrays.fill(this.readPages, null);
+        Arrays.fill(this.writePages, null);
+        this.hit = null;
+    }
+
+    public boolean isEmpty() {
+        return this.watchpoints.isEmpty();
+    }
+
+    /**
+     * @return
+     *     a number that changes whenever watchpoints are added or removed, so that information derived from the
+     *     watchpoints (e.g. the list of watched registers) only has to be computed again when it changed
+     */
+    public int getModificationCount() {
+        return this.modificationCount;
+    }
+
+    /**
+     * @return all watchpoints in the order they were added
+     */
+    public List<Watchpoint> getWatchpoints() {
+        return Collections.unmodifiableList(this.watchpoints);
+    }
+
+    /**
+     * @param space
+     *     the memory space
+     * @param write
+     *     {@code true} for writes; {@code false} for reads
+     * @return
+     *     {@code true} if there is at least one watchpoint for the memory space and the access type
+     */
+    public boolean isWatching(Space space, boolean write) {
+        return (write ? this.writePages : this.readPages)[space.ordinal()] != null;
+    }
+
+    /**
+     * @param space
+     *     the memory space
+     * @param address
+     *     the address; must be &gt;= 0 and smaller than the size of the memory space
+     * @param write
+     *     {@code true} for writes; {@code false} for reads
+     * @return
+     *     {@code true} if the address is watched
+     */
+    public boolean isWatched(Space space, int address, boolean write) {
+        final long[][] pages = (write ? this.writePages : this.readPages)[space.ordinal()];
+        if (pages == null) return false;
+        final long[] page = pages[address >>> PAGE_SHIFT];
+        return page != null && (page[(address & PAGE_SIZE - 1) >>> 6] & 1L << address) != 0;
+    }
+
+    /**
+     * Check an access of the program and record it as the hit if the address is watched and there was no hit since
+     * the last call of {@link #clearHit()}.
+     * @param space
+     *     the memory space
+     * @param address
+     *     the address; must be &gt;= 0 and smaller than the size of the memory space
+     * @param write
+     *     {@code true} for writes; {@code false} for reads
+     */
+    public void check(Space space, int address, boolean write) {
+        if (this.hit == null && this.isWatched(space, address, write)) this.hit = new Hit(space, address, write);
+    }
+
+    /**
+     * @return the first access that matched a watchpoint since the last call of {@link #clearHit()} or {@code null}
+     */
+    public Hit getHit() {
+        return this.hit;
+    }
+
+    public void clearHit() {
+        this.hit = null;
+    }
+
+    private static void mark(long[][][] pagesBySpace, Watchpoint watchpoint) {
+        final int space = watchpoint.space.ordinal();
+        if (pagesBySpace[space] == null)
+            pagesBySpace[space] = new long[(watchpoint.space.size + PAGE_SIZE - 1) / PAGE_SIZE][];
+        final long[][] pages = pagesBySpace[space];
+        for (int address = watchpoint.from; address <= watchpoint.to; ++address) {
+            final int page = address >>> PAGE_SHIFT;
+            if (pages[page] == null) pages[page] = new long[PAGE_SIZE / 64];
+            pages[page][(address & PAGE_SIZE - 1) >>> 6] |= 1L << address;
+        }
+    }
+}
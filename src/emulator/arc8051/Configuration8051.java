@@ -0,0 +1,77 @@
+package emulator.arc8051;
+
+import misc.Settings;
+
+import java.util.function.Predicate;
+
+/**
+ * This class holds the settings of a single 8051 emulator.
+ * <br>
+ * Emulators that are created without a {@code Configuration8051} read their settings from the global
+ * {@link Settings} object (see {@link #fromSettings()}). Passing a configuration explicitly makes it possible to run
+ * many emulators with different settings at the same time.
+ *
+ * @author 5hir0kur0
+ */
+public final class Configuration8051 {
+    /** do not throw an exception on stack overflow or stack underflow */
+    public final boolean ignoreStackOverflowAndUnderflow;
+    /** do not throw an exception when executing the undefined instruction (0xA5) */
+    public final boolean ignoreUndefinedMnemonics;
+    /** do not throw any exceptions (implies all the other settings) */
+    public final boolean ignoreAllExceptions;
+    /** do not throw an exception when accessing an SFR address that does not hold a register */
+    public final boolean ignoreUndefinedSfrs;
+
+    /** the configuration in which no exceptions are ignored */
+    public static final Configuration8051 DEFAULT = new Configuration8051(false, false, false, false);
+
+    public Configuration8051(boolean ignoreStackOverflowAndUnderflow, boolean ignoreUndefinedMnemonics,
+                             boolean ignoreAllExceptions, boolean ignoreUndefinedSfrs) {
+        this.ignoreAllExceptions = ignoreAllExceptions;
+        this.ignoreStackOverflowAndUnderflow = ignoreStackOverflowAndUnderflow || ignoreAllExceptions;
+        this.ignoreUndefinedMnemonics = ignoreUndefinedMnemonics || ignoreAllExceptions;
+        this.ignoreUndefinedSfrs = ignoreUndefinedSfrs || ignoreAllExceptions;
+    }
+
+    /**
+     * @return a configuration with the values of the global {@link Settings}
+     */
+    public static Configuration8051 fromSettings() {
+        return new Configuration8051(
+                getBooleanSetting(State8051.IGNORE_SO_SU, State8051.IGNORE_SO_SU_DEFAULT),
+                getBooleanSetting(State8051.IGNORE_UNDEFINED_MNEMONIC, State8051.IGNORE_UNDEFINED_MNEMONIC_DEFAULT),
+                getBooleanSetting(State8051.IGNORE_ALL_EXCEPTIONS, State8051.IGNORE_ALL_EXCEPTIONS_DEFAULT),
+                getBooleanSetting(State8051.IGNORE_UNDEFINED_SFRS, State8051.IGNORE_UNDEFINED_SFRS_DEFAULT));
+    }
+
+    private static boolean getBooleanSetting(String key, String defaultValue) {
+        final Predicate<String> isValidBoolean = s -> "true".equals(s) || "false".equals(s);
+        return Boolean.parseBoolean(Settings.INSTANCE.getProperty(key, defaultValue, isValidBoolean));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof Configuration8051)) return false;
+        final Configuration8051 tmp = (Configuration8051) other;
+        return this.ignoreStackOverflowAndUnderflow == tmp.ignoreStackOverflowAndUnderflow
+                && this.ignoreUndefinedMnemonics == tmp.ignoreUndefinedMnemonics
+                && this.ignoreAllExceptions == tmp.ignoreAllExceptions
+                && this.ignoreUndefinedSfrs == tmp.ignoreUndefinedSfrs;
+    }
+
+    @Override
+    public int hashCode() {
+        return (this.ignoreStackOverflowAndUnderflow ? 1 : 0) | (this.ignoreUndefinedMnemonics ? 2 : 0)
+                | (this.ignoreAllExceptions ? 4 : 0) | (this.ignoreUndefinedSfrs ? 8 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "Configuration8051{ignoreStackOverflowAndUnderflow=" + this.ignoreStackOverflowAndUnderflow
+                + ", ignoreUndefinedMnemonics=" + this.ignoreUndefinedMnemonics
+                + ", ignoreAllExceptions=" + this.ignoreAllExceptions
+                + ", ignoreUndefinedSfrs=" + this.ignoreUndefinedSfrs + "}";
+    }
+}
@@ -0,0 +1,154 @@
+package emulator.arc8051;
+
+import emulator.ROM;
+
+/**
+ * This class turns 8051 machine code back into assembly language (e.g. for the text form of a {@link Trace8051}).
+ * <br>
+ * Every opcode has a template in which the operands are marked with {@code $} and a letter:
+ * {@code $d} (direct address), {@code $i} (8 bit immediate), {@code $b} (bit address), {@code $r} (relative jump
+ * target), {@code $p} (11 bit jump target), {@code $l} (16 bit address) and {@code $w} (16 bit immediate). The
+ * operands are taken from the bytes following the opcode in order, except for {@code MOV direct, direct}, which
+ * stores the source before the destination. Numbers are written in hexadecimal with an {@code h} suffix and SFRs by
+ * their names.
+ *
+ * @author 5hir0kur0
+ */
+public final class Disassembler8051 {
+
+    /**
+     * The templates of the columns 0x0 and 0x2 to 0x5 of every row of the opcode table and the template of the
+     * columns 0x6 to 0xF, in which {@code %s} stands for {@code @R0}, {@code @R1} and {@code R0} to {@code R7}.
+     * Column 0x1 is always {@code AJMP} or {@code ACALL}.
+     */
+    private static final String[][] ROWS = {
+            {"NOP",           "LJMP $l",     "RR A",        "INC A",           "INC $d",          "INC %s"},
+            {"JBC $b, $r",    "LCALL $l",    "RRC A",       "DEC A",           "DEC $d",          "DEC %s"},
+            {"JB $b, $r",     "RET",         "RL A",        "ADD A, #$i",      "ADD A, $d",       "ADD A, %s"},
+            {"JNB $b, $r",    "RETI",        "RLC A",       "ADDC A, #$i",     "ADDC A, $d",      "ADDC A, %s"},
+            {"JC $r",         "ORL $d, A",   "ORL $d, #$i", "ORL A, #$i",      "ORL A, $d",       "ORL A, %s"},
+            {"JNC $r",        "ANL $d, A",   "ANL $d, #$i", "ANL A, #$i",      "ANL A, $d",       "ANL A, %s"},
+            {"JZ $r",         "XRL $d, A",   "XRL $d, #$i", "XRL A, #$i",      "XRL A, $d",       "XRL A, %s"},
+            {"JNZ $r",        "ORL C, $b",   "JMP @A+DPTR", "MOV A, #$i",      "MOV $d, #$i",     "MOV %s, #$i"},
+            {"SJMP $r",       "ANL C, $b",   "MOVC A, @A+PC", "DIV AB",        "MOV $d, $d",      "MOV $d, %s"},
+            {"MOV DPTR, #$w", "MOV $b, C",   "MOVC A, @A+DPTR", "SUBB A, #$i", "SUBB A, $d",      "SUBB A, %s"},
+            {"ORL C, /$b",    "MOV C, $b",   "INC DPTR",    "MUL AB",          null,              "MOV %s, $d"},
+            {"ANL C, /$b",    "CPL $b",      "CPL C",       "CJNE A, #$i, $r", "CJNE A, $d, $r",  "CJNE %s, #$i, $r"},
+            {"PUSH $d",       "CLR $b",      "CLR C",       "SWAP A",          "XCH A, $d",       "XCH A, %s"},
+            {"POP $d",        "SETB $b",     "SETB C",      "DA A",            "DJNZ $d, $r",     "DJNZ %s, $r"},
+            {"MOVX A, @DPTR", "MOVX A, @R0", "MOVX A, @R1", "CLR A",           "MOV A, $d",       "MOV A, %s"},
+            {"MOVX @DPTR, A", "MOVX @R0, A", "MOVX @R1, A", "CPL A",           "MOV $d, A",       "MOV %s, A"},
+    };
+    private static final String[] REGISTERS = {"@R0", "@R1", "R0", "R1", "R2", "R3", "R4", "R5", "R6", "R7"};
+
+    /** The templates of all opcodes; {@code null} for 0xA5, which is not an instruction. */
+    private static final String[] TEMPLATES = new String[256];
+    static {
+        for (int row = 0; row < 16; ++row) {
+            TEMPLATES[row << 4] = ROWS[row][0];
+            TEMPLATES[row << 4 | 0x1] = (row & 1) == 0 ? "AJMP $p" : "ACALL $p";
+            for (int column = 0x2; column <= 0x5; ++column) TEMPLATES[row << 4 | column] = ROWS[row][column - 1];
+            for (int column = 0x6; column <= 0xF; ++column)
+                TEMPLATES[row << 4 | column] = String.format(ROWS[row][5], REGISTERS[column - 0x6]);
+        }
+        TEMPLATES[0xD6] = "XCHD A, @R0"; // DJNZ has no indirect variant
+        TEMPLATES[0xD7] = "XCHD A, @R1";
+    }
+
+    /** The names of the SFRs, indexed by their direct address - 0x80. */
+    private static final String[] SFR_NAMES = new String[0x80];
+    static {
+        final Object[] sfrs = {0x80, "P0", 0x81, "SP", 0x82, "DPL", 0x83, "DPH", 0x87, "PCON", 0x88, "TCON",
+                0x89, "TMOD", 0x8A, "TL0", 0x8B, "TL1", 0x8C, "TH0", 0x8D, "TH1", 0x90, "P1", 0x98, "SCON",
+                0x99, "SBUF", 0xA0, "P2", 0xA8, "IE", 0xB0, "P3", 0xB8, "IP", 0xD0, "PSW", 0xE0, "ACC", 0xF0, "B"};
+        for (int i = 0; i < sfrs.length; i += 2) SFR_NAMES[(Integer) sfrs[i] - 0x80] = (String) sfrs[i + 1];
+    }
+
+    private Disassembler8051() {
+        throw new UnsupportedOperationException("trying to instantiate utility class Disassembler8051");
+    }
+
+    /**
+     * @param opcode
+     *     the opcode
+     * @return
+     *     the length of the instruction in bytes (1 to 3)
+     */
+    public static int getLength(byte opcode) {
+        return MC8051.INSTRUCTION_LENGTHS[opcode & 0xFF];
+    }
+
+    /**
+     * Disassemble the instruction at an address of the code memory.
+     * @param code
+     *     the code memory; must not be {@code null}
+     * @param address
+     *     the address of the opcode; must be &gt;= 0 and smaller than the size of the code memory
+     * @return
+     *     the instruction in assembly language, e.g. {@code MOV A, #12h}
+     */
+    public static String disassemble(ROM code, int address) {
+        final int length = getLength(code.get(address));
+        return disassemble(address, code.get(address),
+                length > 1 ? code.get((address + 1) % code.getSize()) : 0,
+                length > 2 ? code.get((address + 2) % code.getSize()) : 0);
+    }
+
+    /**
+     * Disassemble an instruction.
+     * @param address
+     *     the address of the instruction (needed for the targets of jumps)
+     * @param opcode
+     *     the opcode
+     * @param operand1
+     *     the byte following the opcode (ignored if the instruction has no operand bytes)
+     * @param operand2
+     *     the second byte following the opcode (ignored if the instruction is shorter than 3 bytes)
+     * @return
+     *     the instruction in assembly language, e.g. {@code MOV A, #12h}
+     */
+    public static String disassemble(int address, byte opcode, byte operand1, byte operand2) {
+        final String template = TEMPLATES[opcode & 0xFF];
+        if (template == null) return "DB " + hex(opcode & 0xFF, 2); // 0xA5 is not an instruction
+        final int next = address + getLength(opcode) & 0xFFFF;
+        final byte[] operands = (opcode & 0xFF) == 0x85 // MOV direct, direct
+                ? new byte[] {operand2, operand1} : new byte[] {operand1, operand2};
+        int operand = 0;
+        final StringBuilder result = new StringBuilder(template.length() + 8);
+        for (int i = 0; i < template.length(); ++i) {
+            final char c = template.charAt(i);
+            if (c != '$') {
+                result.append(c);
+                continue;
+            }
+            switch (template.charAt(++i)) {
+                case 'd': result.append(direct(operands[operand++] & 0xFF)); break;
+                case 'i': result.append(hex(operands[operand++] & 0xFF, 2)); break;
+                case 'b': result.append(bit(operands[operand++] & 0xFF)); break;
+                case 'r': result.append(hex(next + operands[operand++] & 0xFFFF, 4)); break;
+                case 'p': result.append(hex(next & 0xF800 | (opcode & 0xE0) << 3 | operands[operand++] & 0xFF, 4));
+                          break;
+                case 'l':
+                case 'w': result.append(hex((operands[0] & 0xFF) << 8 | operands[1] & 0xFF, 4)); operand = 2; break;
+                default: throw new IllegalStateException("invalid template: " + template);
+            }
+        }
+        return result.toString();
+    }
+
+    private static String direct(int address) {
+        if (address >= 0x80 && SFR_NAMES[address - 0x80] != null) return SFR_NAMES[address - 0x80];
+        return hex(address, 2);
+    }
+
+    private static String bit(int address) {
+        if (address < 0x80) return hex(0x20 + (address >>> 3), 2) + "." + (address & 7);
+        final int register = address & 0xF8;
+        return direct(register) + "." + (address & 7);
+    }
+
+    private static String hex(int value, int digits) {
+        final String result = String.format("%0" + digits + "Xh", value);
+        return Character.isDigit(result.charAt(0)) ? result : "0" + result;
+    }
+}
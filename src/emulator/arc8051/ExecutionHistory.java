@@ -0,0 +1,118 @@
+package emulator.arc8051;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * This class keeps a bounded number of checkpoints of an {@code MC8051}, which are used to step backwards.
+ * <br>
+ * A checkpoint is taken every {@code interval} instructions. The state after any instruction since the oldest
+ * checkpoint can be recreated by restoring the latest checkpoint before it and executing the instructions in between
+ * again, which never takes longer than executing {@code interval} instructions. When there are more than
+ * {@code capacity} checkpoints, the oldest one is dropped.
+ *
+ * @author 5hir0kur0
+ */
+final class ExecutionHistory {
+
+    /**
+     * A checkpoint and the number of instructions that had been executed when it was taken.
+     */
+    static final class Entry {
+        final long instruction;
+        final State8051 state;
+        Entry(long instruction, State8051 state) {
+            this.instruction = instruction;
+            this.state = state;
+        }
+    }
+
+    private final ArrayDeque<Entry> checkpoints = new ArrayDeque<>();
+    private final int interval;
+    private final int capacity;
+
+    /**
+     * @param interval
+     *     the number of instructions between two checkpoints; must be &gt; 0
+     * @param capacity
+     *     the maximum number of checkpoints; must be &gt; 0
+     */
+    ExecutionHistory(int interval, int capacity) {
+        if (interval <= 0 || capacity <= 0)
+            throw new IllegalArgumentException("the interval and the capacity of the history must be > 0");
+        this.interval = interval;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param instruction
+     *     the number of instructions that have been executed
+     * @return
+     *     {@code true} if a checkpoint should be taken now
+     */
+    boolean isCheckpointDue(long instruction) {
+        return this.checkpoints.isEmpty() || instruction - this.checkpoints.getLast().instruction >= this.interval;
+    }
+
+    /**
+     * @param instruction
+     *     the number of instructions that have been executed
+     * @return
+     *     the number of instructions that may be executed before the next checkpoint is due (0 if it is due now)
+     */
+    long getInstructionsUntilCheckpoint(long instruction) {
+        if (this.checkpoints.isEmpty()) return 0;
+        return Math.max(0, this.checkpoints.getLast().instruction + this.interval - instruction);
+    }
+
+    /**
+     * Add a checkpoint. If the latest checkpoint was taken at the same instruction (e.g. before the state was changed
+     * from outside of the program), it is replaced.
+     * @param instruction
+     *     the number of instructions that have been executed
+     * @param state
+     *     the checkpoint
+     */
+    void add(long instruction, State8051 state) {
+        if (!this.checkpoints.isEmpty() && this.checkpoints.getLast().instruction == instruction)
+            this.checkpoints.removeLast();
+        this.checkpoints.addLast(new Entry(instruction, state));
+        if (this.checkpoints.size() > this.capacity) this.checkpoints.removeFirst();
+    }
+
+    /**
+     * @return the number of executed instructions at the oldest checkpoint or -1 if there is none
+     */
+    long getOldestInstruction() {
+        return this.checkpoints.isEmpty() ? -1 : this.checkpoints.getFirst().instruction;
+    }
+
+    /**
+     * @param instruction
+     *     the number of executed instructions
+     * @return
+     *     the latest checkpoint that was taken at or before {@code instruction} or {@code null} if there is none
+     */
+    Entry getLatestAtOrBefore(long instruction) {
+        for (Iterator<Entry> it = this.checkpoints.descendingIterator(); it.hasNext();) {
+            final Entry entry = it.next();
+            if (entry.instruction <= instruction) return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Drop all the checkpoints that were taken after {@code instruction}, because the execution from there on may
+     * differ from the recorded one.
+     * @param instruction
+     *     the number of executed instructions
+     */
+    void discardAfter(long instruction) {
+        while (!this.checkpoints.isEmpty() && this.checkpoints.getLast().instruction > instruction)
+            this.checkpoints.removeLast();
+    }
+
+    void clear() {
+        this.checkpoints.clear();
+    }
+}
@@ -8,8 +8,11 @@ import java.io.Reader;
 import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.BooleanSupplier;
 
 /**
  * This class represents the 8051 micro controller.
@@ -25,17 +28,136 @@ import java.util.Objects;
  */
 public class MC8051 implements Emulator {
 
-    private static class BitAddress {
-        public final byte DIRECT_ADDRESS;
-        public final byte BIT_MASK;
-        public BitAddress(byte directAddress, byte bitMask) {
-            this.BIT_MASK = bitMask;
-            this.DIRECT_ADDRESS = directAddress;
+    /**
+     * An instruction with its operands, as read from code memory.
+     */
+    private static class DecodedInstruction {
+        public final byte opcode;
+        public final byte operand1;
+        public final byte operand2;
+        public final int length;
+        public final boolean idleLoop; // the instruction jumps to itself (see isIdleLoop())
+        public DecodedInstruction(int address, byte opcode, byte operand1, byte operand2, int length) {
+            this.opcode = opcode;
+            this.operand1 = operand1;
+            this.operand2 = operand2;
+            this.length = length;
+            this.idleLoop = isIdleLoop(address, this);
+        }
+    }
+
+    /** Whether an instruction is a conditional jump, indexed by opcode (for {@link Coverage#recordBranch}). */
+    private static final boolean[] CONDITIONAL_JUMP = new boolean[256];
+    static {
+        for (int opcode : new int[] {0x10, 0x20, 0x30, 0x40, 0x50, 0x60, 0x70, 0xD5}) CONDITIONAL_JUMP[opcode] = true;
+        for (int opcode = 0xB4; opcode <= 0xBF; ++opcode) CONDITIONAL_JUMP[opcode] = true; // CJNE
+        for (int opcode = 0xD8; opcode <= 0xDF; ++opcode) CONDITIONAL_JUMP[opcode] = true; // DJNZ Rn
+    }
+
+    /**
+     * Check whether an instruction jumps to itself without changing anything, e.g. {@code SJMP $} or
+     * {@code JNB TF0, $}.<br>
+     * Once such a loop was entered, only timers and interrupts (and changes from outside of the program) can end it.
+     * @param address
+     *     the address of the instruction
+     * @param instruction
+     *     the instruction
+     * @return
+     *     {@code true} if the instruction is an idle loop (as long as its jump is taken)
+     */
+    private static boolean isIdleLoop(int address, DecodedInstruction instruction) {
+        final int next = (address + instruction.length) & 0xFFFF;
+        switch (instruction.opcode & 0xFF) {
+            case 0x80: // SJMP rel
+                return ((next + instruction.operand1) & 0xFFFF) == address;
+            case 0x20: // JB bit, rel
+            case 0x30: // JNB bit, rel
+                return ((next + instruction.operand2) & 0xFFFF) == address;
+            case 0x02: // LJMP addr16
+                return (instruction.operand1 << 8 & 0xFF00 | instruction.operand2 & 0xFF) == address;
+            default:
+                if ((instruction.opcode & 0x1F) == 0x01) // AJMP addr11
+                    return (next & 0xF800 | (instruction.opcode & 0xE0) << 3 | instruction.operand1 & 0xFF) == address;
+                return false;
         }
     }
 
+    /** The length in bytes of every instruction, indexed by opcode. */
+    static final int[] INSTRUCTION_LENGTHS = {
+            1, 2, 3, 1, 1, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, // 0x0_
+            3, 2, 3, 1, 1, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, // 0x1_
+            3, 2, 1, 1, 2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, // 0x2_
+            3, 2, 1, 1, 2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, // 0x3_
+            2, 2, 2, 3, 2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, // 0x4_
+            2, 2, 2, 3, 2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, // 0x5_
+            2, 2, 2, 3, 2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, // 0x6_
+            2, 2, 2, 1, 2, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, // 0x7_
+            2, 2, 2, 1, 1, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, // 0x8_
+            3, 2, 2, 1, 2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, // 0x9_
+            2, 2, 2, 1, 1, 1, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, // 0xA_
+            2, 2, 2, 1, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, // 0xB_
+            2, 2, 2, 1, 1, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, // 0xC_
+            2, 2, 2, 1, 1, 3, 1, 1, 2, 2, 2, 2, 2, 2, 2, 2, // 0xD_
+            1, 2, 1, 1, 1, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, // 0xE_
+            1, 2, 1, 1, 1, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, // 0xF_
+    };
+
+    /** The bits of TCON that request the interrupts 0 (IE0), 1 (TF0), 2 (IE1) and 3 (TF1). */
+    private static final int[] INTERRUPT_REQUEST_FLAGS = {1, 5, 3, 7};
+    /** The number of the serial interrupt, which is requested by TI or RI in SCON instead of a bit of TCON. */
+    private static final int SERIAL_INTERRUPT = 4;
+
+    /** The requested interrupts (bit i is set if interrupt i is requested) for every value of TCON. */
+    private static final int[] INTERRUPT_REQUESTS = new int[256];
+    static {
+        for (int tcon = 0; tcon < INTERRUPT_REQUESTS.length; ++tcon)
+            for (int i = 0; i < INTERRUPT_REQUEST_FLAGS.length; ++i)
+                if ((tcon & 1 << INTERRUPT_REQUEST_FLAGS[i]) != 0) INTERRUPT_REQUESTS[tcon] |= 1 << i;
+    }
+
+    /** The direct address of the byte containing the bit for every bit address. */
+    private static final byte[] BIT_ADDRESS_BYTES = new byte[256];
+    static {
+        final int START_OF_BIT_MEMORY = 0x20;
+        for (int address = 0; address < BIT_ADDRESS_BYTES.length; ++address)
+            BIT_ADDRESS_BYTES[address] = (byte)(address < 0x80 //the address is in the lower part of the internal RAM
+                    ? START_OF_BIT_MEMORY + address / 8
+                    : address - address % 8);
+    }
+
+    /** The number of instructions between two checkpoints of the execution history. */
+    private static final int HISTORY_INTERVAL = 10_000;
+    /** The maximum number of checkpoints in the execution history. */
+    private static final int HISTORY_CAPACITY = 256;
+
     State8051 state;
 
+    private DecodedInstruction[] decodeCache;
+    private ROM decodedCodeMemory;
+    private int decodedModificationCount;
+    private boolean deferChanges;
+    private long instructionCount; // the number of instructions executed so far
+    private ExecutionHistory history; // null if the history is not recorded
+    private boolean skipIdleLoops = true;
+    private Watchpoints watchpointSet; // the watchpoints set by the user
+    private Watchpoints watchpoints; // the watchpoints while running; null if there are none (see startWatching())
+    private int[] watchedSfrs = new int[0]; // the SFRs with write watchpoints while running (see startWatching())
+    private byte[] watchedSfrValues = new byte[0]; // the values of watchedSfrs before the current instruction
+    private boolean watchedSfrsValid; // false if watchedSfrs has to be computed again (e.g. for another state)
+    private Watchpoints watchedSfrsSource; // the watchpoints watchedSfrs was computed from; null if there are none
+    private int watchedSfrsModificationCount; // the modification count of watchedSfrsSource at that time
+    private Profiler profiler;
+    private Coverage coverage;
+    private Trace8051 trace;
+    private DeviceBus devices;
+
+    // timers that count cycles are updated lazily (see updateTimers())
+    private int timerConfiguration = -1; // the value of getTimerConfiguration() the schedule was computed for
+    private boolean timersEager; // true if updateTimersEagerly() has to be used
+    private final int[] timerMode = {-1, -1}; // the mode of lazily updated timers; -1 if the timer is not counting
+    private final int[] timerPendingCycles = new int[2];
+    private final int[] timerCyclesUntilOverflow = new int[2];
+
     /**
      * Create a new 8051 micro controller object.<br>
      * @param externalRAM
@@ -49,6 +171,19 @@ public class MC8051 implements Emulator {
         this(new State8051(codeMemory, externalRAM));
     }
 
+    /**
+     * Create a new 8051 micro controller object with its own settings instead of the global ones.<br>
+     * @param codeMemory
+     *     the 8051's "code memory" (see {@link #MC8051(ROM, RAM)})
+     * @param externalRAM
+     *     the external RAM (see {@link #MC8051(ROM, RAM)})
+     * @param configuration
+     *     the settings; must not be {@code null}
+     */
+    public MC8051(ROM codeMemory, RAM externalRAM, Configuration8051 configuration) {
+        this(new State8051(codeMemory, externalRAM, configuration));
+    }
+
     /**
      * Start with a specific state.
      * @param state
@@ -106,283 +241,584 @@ public class MC8051 implements Emulator {
      */
     @Override
     public int next() throws EmulatorException {
-        byte currentInstruction = getCodeByte();
-        int retValue = -1;
+        startWatching();
         try {
-            switch (currentInstruction) {
-                case       0x00: retValue = nop(); break;
-                case       0x01: retValue = ajmp(currentInstruction, getCodeByte()); break;
-                case       0x02: retValue = ljmp(getCodeByte(), getCodeByte()); break;
-                case       0x03: retValue = rr_a(); break;
-                case       0x04: retValue = inc(this.state.sfrs.A); break;
-                case       0x05: retValue = inc(getCodeByte()); break;
-                case       0x06: retValue = inc_indirect(getR(0)); break;
-                case       0x07: retValue = inc_indirect(getR(1)); break;
-                case       0x08: retValue = inc(this.state.R0); break;
-                case       0x09: retValue = inc(this.state.R1); break;
-                case       0x0A: retValue = inc(this.state.R2); break;
-                case       0x0B: retValue = inc(this.state.R3); break;
-                case       0x0C: retValue = inc(this.state.R4); break;
-                case       0x0D: retValue = inc(this.state.R5); break;
-                case       0x0E: retValue = inc(this.state.R6); break;
-                case       0x0F: retValue = inc(this.state.R7); break;
-                case       0x10: retValue = jbc(getCodeByte(), getCodeByte()); break;
-                case       0x11: retValue = acall(currentInstruction, getCodeByte()); break;
-                case       0x12: retValue = lcall(getCodeByte(), getCodeByte()); break;
-                case       0x13: retValue = rrc_a(); break;
-                case       0x14: retValue = dec(this.state.sfrs.A); break;
-                case       0x15: retValue = dec(getCodeByte()); break;
-                case       0x16: retValue = dec_indirect(getR(0)); break;
-                case       0x17: retValue = dec_indirect(getR(1)); break;
-                case       0x18: retValue = dec(this.state.R0); break;
-                case       0x19: retValue = dec(this.state.R1); break;
-                case       0x1A: retValue = dec(this.state.R2); break;
-                case       0x1B: retValue = dec(this.state.R3); break;
-                case       0x1C: retValue = dec(this.state.R4); break;
-                case       0x1D: retValue = dec(this.state.R5); break;
-                case       0x1E: retValue = dec(this.state.R6); break;
-                case       0x1F: retValue = dec(this.state.R7); break;
-                case       0x20: retValue = jb(getCodeByte(), getCodeByte()); break;
-                case       0x21: retValue = ajmp(currentInstruction, getCodeByte()); break;
-                case       0x22: retValue = ret(); break;
-                case       0x23: retValue = rl_a(); break;
-                case       0x24: retValue = add_immediate(getCodeByte()); break;
-                case       0x25: retValue = add_direct(getCodeByte()); break;
-                case       0x26: retValue = add_indirect(getR(0)); break;
-                case       0x27: retValue = add_indirect(getR(1)); break;
-                case       0x28: retValue = add_r(0); break;
-                case       0x29: retValue = add_r(1); break;
-                case       0x2A: retValue = add_r(2); break;
-                case       0x2B: retValue = add_r(3); break;
-                case       0x2C: retValue = add_r(4); break;
-                case       0x2D: retValue = add_r(5); break;
-                case       0x2E: retValue = add_r(6); break;
-                case       0x2F: retValue = add_r(7); break;
-                case       0x30: retValue = jnb(getCodeByte(), getCodeByte()); break;
-                case       0x31: retValue = acall(currentInstruction, getCodeByte()); break;
-                case       0x32: retValue = reti(); break;
-                case       0x33: retValue = rlc_a(); break;
-                case       0x34: retValue = addc_immediate(getCodeByte()); break;
-                case       0x35: retValue = addc_direct(getCodeByte()); break;
-                case       0x36: retValue = addc_indirect(getR(0)); break;
-                case       0x37: retValue = addc_indirect(getR(1)); break;
-                case       0x38: retValue = addc_r(0); break;
-                case       0x39: retValue = addc_r(1); break;
-                case       0x3A: retValue = addc_r(2); break;
-                case       0x3B: retValue = addc_r(3); break;
-                case       0x3C: retValue = addc_r(4); break;
-                case       0x3D: retValue = addc_r(5); break;
-                case       0x3E: retValue = addc_r(6); break;
-                case       0x3F: retValue = addc_r(7); break;
-                case       0x40: retValue = jc(getCodeByte()); break;
-                case       0x41: retValue = ajmp(currentInstruction, getCodeByte()); break;
-                case       0x42: retValue = orl_direct_a(getCodeByte()); break;
-                case       0x43: retValue = orl(getCodeByte(), getCodeByte()); break;
-                case       0x44: retValue = orl_a_immediate(getCodeByte()); break;
-                case       0x45: retValue = orl_a(getCodeByte()); break;
-                case       0x46: retValue = orl_a_indirect(getR(0)); break;
-                case       0x47: retValue = orl_a_indirect(getR(1)); break;
-                case       0x48: retValue = orl_a_immediate(getR(0)); break;
-                case       0x49: retValue = orl_a_immediate(getR(1)); break;
-                case       0x4A: retValue = orl_a_immediate(getR(2)); break;
-                case       0x4B: retValue = orl_a_immediate(getR(3)); break;
-                case       0x4C: retValue = orl_a_immediate(getR(4)); break;
-                case       0x4D: retValue = orl_a_immediate(getR(5)); break;
-                case       0x4E: retValue = orl_a_immediate(getR(6)); break;
-                case       0x4F: retValue = orl_a_immediate(getR(7)); break;
-                case       0x50: retValue = jnc(getCodeByte()); break;
-                case       0x51: retValue = acall(currentInstruction, getCodeByte()); break;
-                case       0x52: retValue = anl_direct_a(getCodeByte()); break;
-                case       0x53: retValue = anl(getCodeByte(), getCodeByte()); break;
-                case       0x54: retValue = anl_a_immediate(getCodeByte()); break;
-                case       0x55: retValue = anl_a(getCodeByte()); break;
-                case       0x56: retValue = anl_a_indirect(getR(0)); break;
-                case       0x57: retValue = anl_a_indirect(getR(1)); break;
-                case       0x58: retValue = anl_a_immediate(getR(0)); break;
-                case       0x59: retValue = anl_a_immediate(getR(1)); break;
-                case       0x5A: retValue = anl_a_immediate(getR(2)); break;
-                case       0x5B: retValue = anl_a_immediate(getR(3)); break;
-                case       0x5C: retValue = anl_a_immediate(getR(4)); break;
-                case       0x5D: retValue = anl_a_immediate(getR(5)); break;
-                case       0x5E: retValue = anl_a_immediate(getR(6)); break;
-                case       0x5F: retValue = anl_a_immediate(getR(7)); break;
-                case       0x60: retValue = jz(getCodeByte()); break;
-                case       0x61: retValue = ajmp(currentInstruction, getCodeByte()); break;
-                case       0x62: retValue = xrl_direct_a(getCodeByte()); break;
-                case       0x63: retValue = xrl(getCodeByte(), getCodeByte()); break;
-                case       0x64: retValue = xrl_a_immediate(getCodeByte()); break;
-                case       0x65: retValue = xrl_a(getCodeByte()); break;
-                case       0x66: retValue = xrl_a_indirect(getR(0)); break;
-                case       0x67: retValue = xrl_a_indirect(getR(1)); break;
-                case       0x68: retValue = xrl_a_immediate(getR(0)); break;
-                case       0x69: retValue = xrl_a_immediate(getR(1)); break;
-                case       0x6A: retValue = xrl_a_immediate(getR(2)); break;
-                case       0x6B: retValue = xrl_a_immediate(getR(3)); break;
-                case       0x6C: retValue = xrl_a_immediate(getR(4)); break;
-                case       0x6D: retValue = xrl_a_immediate(getR(5)); break;
-                case       0x6E: retValue = xrl_a_immediate(getR(6)); break;
-                case       0x6F: retValue = xrl_a_immediate(getR(7)); break;
-                case       0x70: retValue = jnz(getCodeByte()); break;
-                case       0x71: retValue = acall(currentInstruction, getCodeByte()); break;
-                case       0x72: retValue = orl_c(getCodeByte(), false); break;
-                case       0x73: retValue = jmp_a_dptr(); break;
-                case       0x74: retValue = mov_a_immediate(getCodeByte()); break;
-                case       0x75: retValue = mov_direct_immediate(getCodeByte(), getCodeByte()); break;
-                case       0x76: retValue = mov_indirect_immediate(getR(0), getCodeByte()); break;
-                case       0x77: retValue = mov_indirect_immediate(getR(1), getCodeByte()); break;
-                case       0x78: retValue = mov_r_immediate(0, getCodeByte()); break;
-                case       0x79: retValue = mov_r_immediate(1, getCodeByte()); break;
-                case       0x7A: retValue = mov_r_immediate(2, getCodeByte()); break;
-                case       0x7B: retValue = mov_r_immediate(3, getCodeByte()); break;
-                case       0x7C: retValue = mov_r_immediate(4, getCodeByte()); break;
-                case       0x7D: retValue = mov_r_immediate(5, getCodeByte()); break;
-                case       0x7E: retValue = mov_r_immediate(6, getCodeByte()); break;
-                case       0x7F: retValue = mov_r_immediate(7, getCodeByte()); break;
-                case (byte)0x80: retValue = sjmp(getCodeByte()); break;
-                case (byte)0x81: retValue = ajmp(currentInstruction, getCodeByte()); break;
-                case (byte)0x82: retValue = anl_c(getCodeByte(), false); break;
-                case (byte)0x83: retValue = movc_a(this.state.PCH, this.state.PCL); break;
-                case (byte)0x84: retValue = div_ab(); break;
-                case (byte)0x85: retValue = mov_direct_direct(getCodeByte(), getCodeByte()); break;
-                case (byte)0x86: retValue = mov_direct_indirect(getCodeByte(), getR(0)); break;
-                case (byte)0x87: retValue = mov_direct_indirect(getCodeByte(), getR(1)); break;
-                case (byte)0x88: retValue = mov_direct_immediate(getCodeByte(), getR(0)); break;
-                case (byte)0x89: retValue = mov_direct_immediate(getCodeByte(), getR(1)); break;
-                case (byte)0x8A: retValue = mov_direct_immediate(getCodeByte(), getR(2)); break;
-                case (byte)0x8B: retValue = mov_direct_immediate(getCodeByte(), getR(3)); break;
-                case (byte)0x8C: retValue = mov_direct_immediate(getCodeByte(), getR(4)); break;
-                case (byte)0x8D: retValue = mov_direct_immediate(getCodeByte(), getR(5)); break;
-                case (byte)0x8E: retValue = mov_direct_immediate(getCodeByte(), getR(6)); break;
-                case (byte)0x8F: retValue = mov_direct_immediate(getCodeByte(), getR(7)); break;
-                case (byte)0x90: retValue = mov_dptr(getCodeByte(), getCodeByte()); break;
-                case (byte)0x91: retValue = acall(currentInstruction, getCodeByte()); break;
-                case (byte)0x92: retValue = mov_bit_c(getCodeByte()); break;
-                case (byte)0x93: retValue = movc_a(this.state.sfrs.DPH, this.state.sfrs.DPL); break;
-                case (byte)0x94: retValue = subb_immediate(getCodeByte()); break;
-                case (byte)0x95: retValue = subb_direct(getCodeByte()); break;
-                case (byte)0x96: retValue = subb_indirect(getR(0)); break;
-                case (byte)0x97: retValue = subb_indirect(getR(1)); break;
-                case (byte)0x98: retValue = subb_r(0); break;
-                case (byte)0x99: retValue = subb_r(1); break;
-                case (byte)0x9A: retValue = subb_r(2); break;
-                case (byte)0x9B: retValue = subb_r(3); break;
-                case (byte)0x9C: retValue = subb_r(4); break;
-                case (byte)0x9D: retValue = subb_r(5); break;
-                case (byte)0x9E: retValue = subb_r(6); break;
-                case (byte)0x9F: retValue = subb_r(7); break;
-                case (byte)0xA0: retValue = orl_c(getCodeByte(), true); break;
-                case (byte)0xA1: retValue = ajmp(currentInstruction, getCodeByte()); break;
-                case (byte)0xA2: retValue = mov_c_bit(getCodeByte()); break;
-                case (byte)0xA3: retValue = inc_dptr(); break;
-                case (byte)0xA4: retValue = mul_ab(); break;
-                case (byte)0xA5: retValue = reserved();
-                case (byte)0xA6: retValue = mov_indirect_direct(getR(0), getCodeByte()); break;
-                case (byte)0xA7: retValue = mov_indirect_direct(getR(1), getCodeByte()); break;
-                case (byte)0xA8: retValue = mov_r_direct(0, getCodeByte()); break;
-                case (byte)0xA9: retValue = mov_r_direct(1, getCodeByte()); break;
-                case (byte)0xAA: retValue = mov_r_direct(2, getCodeByte()); break;
-                case (byte)0xAB: retValue = mov_r_direct(3, getCodeByte()); break;
-                case (byte)0xAC: retValue = mov_r_direct(4, getCodeByte()); break;
-                case (byte)0xAD: retValue = mov_r_direct(5, getCodeByte()); break;
-                case (byte)0xAE: retValue = mov_r_direct(6, getCodeByte()); break;
-                case (byte)0xAF: retValue = mov_r_direct(7, getCodeByte()); break;
-                case (byte)0xB0: retValue = anl_c(getCodeByte(), true); break;
-                case (byte)0xB1: retValue = acall(currentInstruction, getCodeByte()); break;
-                case (byte)0xB2: retValue = cpl(getCodeByte()); break;
-                case (byte)0xB3: retValue = cpl_c(); break;
-                case (byte)0xB4: retValue = cjne_a_immediate(getCodeByte(), getCodeByte()); break;
-                case (byte)0xB5: retValue = cjne_a_direct(getCodeByte(), getCodeByte()); break;
-                case (byte)0xB6: retValue = cjne_indirect_immediate(getR(0), getCodeByte(), getCodeByte()); break;
-                case (byte)0xB7: retValue = cjne_indirect_immediate(getR(1), getCodeByte(), getCodeByte()); break;
-                case (byte)0xB8: retValue = cjne_r_immediate(0, getCodeByte(), getCodeByte()); break;
-                case (byte)0xB9: retValue = cjne_r_immediate(1, getCodeByte(), getCodeByte()); break;
-                case (byte)0xBA: retValue = cjne_r_immediate(2, getCodeByte(), getCodeByte()); break;
-                case (byte)0xBB: retValue = cjne_r_immediate(3, getCodeByte(), getCodeByte()); break;
-                case (byte)0xBC: retValue = cjne_r_immediate(4, getCodeByte(), getCodeByte()); break;
-                case (byte)0xBD: retValue = cjne_r_immediate(5, getCodeByte(), getCodeByte()); break;
-                case (byte)0xBE: retValue = cjne_r_immediate(6, getCodeByte(), getCodeByte()); break;
-                case (byte)0xBF: retValue = cjne_r_immediate(7, getCodeByte(), getCodeByte()); break;
-                case (byte)0xC0: retValue = pop(getCodeByte()); break;
-                case (byte)0xC1: retValue = ajmp(currentInstruction, getCodeByte()); break;
-                case (byte)0xC2: retValue = clr(getCodeByte()); break;
-                case (byte)0xC3: retValue = clr_c(); break;
-                case (byte)0xC4: retValue = swap_a(); break;
-                case (byte)0xC5: retValue = xch_a_direct(getCodeByte()); break;
-                case (byte)0xC6: retValue = xch_a_indirect(getR(0)); break;
-                case (byte)0xC7: retValue = xch_a_indirect(getR(1)); break;
-                case (byte)0xC8: retValue = xch_a_r(0); break;
-                case (byte)0xC9: retValue = xch_a_r(1); break;
-                case (byte)0xCA: retValue = xch_a_r(2); break;
-                case (byte)0xCB: retValue = xch_a_r(3); break;
-                case (byte)0xCC: retValue = xch_a_r(4); break;
-                case (byte)0xCD: retValue = xch_a_r(5); break;
-                case (byte)0xCE: retValue = xch_a_r(6); break;
-                case (byte)0xCF: retValue = xch_a_r(7); break;
-                case (byte)0xD0: retValue = push(getCodeByte()); break;
-                case (byte)0xD1: retValue = acall(currentInstruction, getCodeByte()); break;
-                case (byte)0xD2: retValue = setb(getCodeByte()); break;
-                case (byte)0xD3: retValue = setb_c(); break;
-                case (byte)0xD4: retValue = da_a(); break;
-                case (byte)0xD5: retValue = djnz(getCodeByte(), getCodeByte()); break;
-                case (byte)0xD6: retValue = xchd_a(getR(0)); break;
-                case (byte)0xD7: retValue = xchd_a(getR(1)); break;
-                case (byte)0xD8: retValue = djnz_r(0, getCodeByte()); break;
-                case (byte)0xD9: retValue = djnz_r(1, getCodeByte()); break;
-                case (byte)0xDA: retValue = djnz_r(2, getCodeByte()); break;
-                case (byte)0xDB: retValue = djnz_r(3, getCodeByte()); break;
-                case (byte)0xDC: retValue = djnz_r(4, getCodeByte()); break;
-                case (byte)0xDD: retValue = djnz_r(5, getCodeByte()); break;
-                case (byte)0xDE: retValue = djnz_r(6, getCodeByte()); break;
-                case (byte)0xDF: retValue = djnz_r(7, getCodeByte()); break;
-                case (byte)0xE0: retValue = movx_a_dptr(); break;
-                case (byte)0xE1: retValue = ajmp(currentInstruction, getCodeByte()); break;
-                case (byte)0xE2: retValue = movx_a_indirect(getR(0)); break;
-                case (byte)0xE3: retValue = movx_a_indirect(getR(1)); break;
-                case (byte)0xE4: retValue = clr_a(); break;
-                case (byte)0xE5: retValue = mov_a_direct(getCodeByte()); break;
-                case (byte)0xE6: retValue = mov_a_indirect(getR(0)); break;
-                case (byte)0xE7: retValue = mov_a_indirect(getR(1)); break;
-                case (byte)0xE8: retValue = mov_a_immediate(getR(0)); break;
-                case (byte)0xE9: retValue = mov_a_immediate(getR(1)); break;
-                case (byte)0xEA: retValue = mov_a_immediate(getR(2)); break;
-                case (byte)0xEB: retValue = mov_a_immediate(getR(3)); break;
-                case (byte)0xEC: retValue = mov_a_immediate(getR(4)); break;
-                case (byte)0xED: retValue = mov_a_immediate(getR(5)); break;
-                case (byte)0xEE: retValue = mov_a_immediate(getR(6)); break;
-                case (byte)0xEF: retValue = mov_a_immediate(getR(7)); break;
-                case (byte)0xF0: retValue = movx_dptr_a(); break;
-                case (byte)0xF1: retValue = acall(currentInstruction, getCodeByte()); break;
-                case (byte)0xF2: retValue = movx_indirect_a(getR(0)); break;
-                case (byte)0xF3: retValue = movx_indirect_a(getR(1)); break;
-                case (byte)0xF4: retValue = cpl_a(); break;
-                case (byte)0xF5: retValue = mov_direct_a(getCodeByte()); break;
-                case (byte)0xF6: retValue = mov_indirect_immediate(getR(0), this.state.sfrs.A.getValue()); break;
-                case (byte)0xF7: retValue = mov_indirect_immediate(getR(1), this.state.sfrs.A.getValue()); break;
-                case (byte)0xF8: retValue = mov_r_immediate(0, this.state.sfrs.A.getValue()); break;
-                case (byte)0xF9: retValue = mov_r_immediate(1, this.state.sfrs.A.getValue()); break;
-                case (byte)0xFA: retValue = mov_r_immediate(2, this.state.sfrs.A.getValue()); break;
-                case (byte)0xFB: retValue = mov_r_immediate(3, this.state.sfrs.A.getValue()); break;
-                case (byte)0xFC: retValue = mov_r_immediate(4, this.state.sfrs.A.getValue()); break;
-                case (byte)0xFD: retValue = mov_r_immediate(5, this.state.sfrs.A.getValue()); break;
-                case (byte)0xFE: retValue = mov_r_immediate(6, this.state.sfrs.A.getValue()); break;
-                case (byte)0xFF: retValue = mov_r_immediate(7, this.state.sfrs.A.getValue()); break;
+            return step();
+        } finally {
+            updateDerivedRegisters();
+        }
+    }
+
+    /**
+     * Run until one of the stop conditions is met.<br>
+     * Unlike repeated calls to {@link #next()}, this method updates the R registers and the parity flag
+     * only once at the end.
+     * <br>
+     * Idle loops (see {@link #setSkipIdleLoops(boolean)}) are skipped up to the cycle at which the next timer
+     * overflows or the maximum number of cycles is reached. The stop condition is only checked before and after
+     * skipping, which is not a problem as long as it does not depend on the number of executed cycles, because
+     * nothing else changes while the loop is running.
+     * @see Emulator#run(long, BitSet, BooleanSupplier)
+     */
+    @Override
+    public RunResult run(long maxCycles, BitSet breakpoints, BooleanSupplier stopCondition)
+            throws EmulatorException {
+        if (maxCycles <= 0) throw new IllegalArgumentException("the maximum number of cycles must be > 0");
+        long cycles = 0;
+        long instructions = 0;
+        startWatching();
+        try {
+            while (true) {
+                final int address = (int) getProgramCounter();
+                final DecodedInstruction instruction = decode(address);
+                // the flags in TCON are the only thing a timer overflow can change that an idle loop can read
+                final byte tcon = instruction.idleLoop ? this.state.sfrs.TCON.getValue() : 0;
+                final int instructionCycles = step(instruction, (address + instruction.length) & 0xFFFF);
+                cycles += instructionCycles;
+                ++instructions;
+                final int pc = (int) getProgramCounter();
+                if (this.watchpoints != null && this.watchpoints.getHit() != null)
+                    return new RunResult(cycles, instructions, RunResult.StopReason.WATCHPOINT);
+                if (breakpoints != null && breakpoints.get(pc))
+                    return new RunResult(cycles, instructions, RunResult.StopReason.BREAKPOINT);
+                if (stopCondition != null && stopCondition.getAsBoolean())
+                    return new RunResult(cycles, instructions, RunResult.StopReason.CONDITION);
+                if (cycles >= maxCycles)
+                    return new RunResult(cycles, instructions, RunResult.StopReason.CYCLE_LIMIT);
+                if (instruction.idleLoop && pc == address && this.skipIdleLoops
+                        && this.state.sfrs.TCON.getValue() == tcon && !this.pollsDevice(instruction)) {
+                    final long skipped = skipIdleLoop(instructionCycles, maxCycles - cycles);
+                    if (skipped > 0) {
+                        cycles += skipped * instructionCycles;
+                        instructions += skipped;
+                        if (stopCondition != null && stopCondition.getAsBoolean())
+                            return new RunResult(cycles, instructions, RunResult.StopReason.CONDITION);
+                    }
+                }
             }
+        } finally {
+            updateDerivedRegisters();
+        }
+    }
+
+    /**
+     * Enable or disable skipping idle loops in {@link #run(long, BitSet, BooleanSupplier)}.<br>
+     * An idle loop is an instruction that jumps to itself and does not change anything else, like {@code SJMP $} or
+     * {@code JNB TF0, $}. Only a timer overflow, an interrupt or a change from outside of the program can end it, so
+     * instead of executing it again and again, the cycles are added to the cycle count and the timers at once. The
+     * resulting state (including the cycle count and the timer registers) is exactly the same. Idle loops are not
+     * skipped while a timer counts external events or is in split mode, or if they wait for a bit of a
+     * {@link Device}.
+     * <br>
+     * Skipping is enabled by default.
+     * @param skipIdleLoops
+     *     {@code true} to skip idle loops; {@code false} to execute every iteration
+     */
+    public void setSkipIdleLoops(boolean skipIdleLoops) {
+        this.skipIdleLoops = skipIdleLoops;
+    }
+
+    /**
+     * Check whether an idle loop waits for a bit of an SFR slot with a {@link Device}, which may change the bit at any
+     * time, so the loop must not be skipped.
+     */
+    private boolean pollsDevice(DecodedInstruction instruction) {
+        if (this.devices == null) return false;
+        final int opcode = instruction.opcode & 0xFF;
+        if (opcode != 0x20 && opcode != 0x30 || (instruction.operand1 & 0x80) == 0) return false; // JB, JNB on SFRs
+        return this.devices.getSfrMapping(BIT_ADDRESS_BYTES[instruction.operand1 & 0xFF] & 0xFF) != null;
+    }
+
+    /**
+     * Skip iterations of an idle loop that has just been executed (see {@link #setSkipIdleLoops(boolean)}).<br>
+     * The last iterations before a timer overflow or before reaching the cycle limit are not skipped, so they are
+     * executed normally. If the execution history is recorded, no more iterations than the remaining ones until the
+     * next checkpoint are skipped at once.
+     * @param cyclesPerIteration
+     *     the number of cycles one iteration of the loop takes
+     * @param remainingCycles
+     *     the number of cycles that may still be executed; must be &gt; 0
+     * @return
+     *     the number of skipped iterations
+     */
+    private long skipIdleLoop(int cyclesPerIteration, long remainingCycles) {
+        if (cyclesPerIteration <= 0 || this.timersEager || this.timerConfiguration != getTimerConfiguration())
+            return 0;
+        long cycles = remainingCycles - 1;
+        for (int timer = 0; timer < 2; ++timer)
+            if (this.timerMode[timer] >= 0) cycles = Math.min(cycles,
+                    this.timerCyclesUntilOverflow[timer] - this.timerPendingCycles[timer] - 1);
+        long iterations = cycles / cyclesPerIteration;
+        // going back replays the instructions since the last checkpoint one by one, so at most one interval of the
+        // history may be skipped at once
+        if (this.history != null)
+            iterations = Math.min(iterations, this.history.getInstructionsUntilCheckpoint(this.instructionCount));
+        if (iterations <= 0) return 0;
+        final long skippedCycles = iterations * cyclesPerIteration;
+        for (int timer = 0; timer < 2; ++timer)
+            if (this.timerMode[timer] >= 0) this.timerPendingCycles[timer] += skippedCycles;
+        this.state.cycleCount += skippedCycles;
+        this.instructionCount += iterations;
+        if (this.profiler != null) this.profiler.record((int) getProgramCounter(), iterations, skippedCycles);
+        if (this.history != null && this.history.isCheckpointDue(this.instructionCount))
+            this.history.add(this.instructionCount, this.checkpoint());
+        return iterations;
+    }
+
+    /**
+     * Set the watchpoints.<br>
+     * The internal RAM (including the R registers and the stack) and the external RAM are watched for every access
+     * of the program. SFRs are watched when they are accessed through their direct address; writes to watched SFRs
+     * are also noticed when an instruction changes their value implicitly (e.g. {@code INC A}).
+     * @see Emulator#setWatchpoints(Watchpoints)
+     */
+    @Override
+    public void setWatchpoints(Watchpoints watchpoints) {
+        this.watchpointSet = watchpoints;
+        this.watchpoints = null;
+    }
+
+    /**
+     * Set the profiler.<br>
+     * Skipped idle loops (see {@link #setSkipIdleLoops(boolean)}) are recorded as if every iteration had been
+     * executed.
+     * @see Emulator#setProfiler(Profiler)
+     */
+    @Override
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Set the coverage.<br>
+     * A conditional jump to the following instruction counts as not taken.
+     * @see Emulator#setCoverage(Coverage)
+     */
+    @Override
+    public void setCoverage(Coverage coverage) {
+        this.coverage = coverage;
+    }
+
+    /**
+     * Set the device bus.<br>
+     * Devices in the SFR area are accessed through the direct addresses and bit addresses of their SFR slots. The
+     * external address space is accessed with {@code MOVX}; {@code MOVX @Ri} uses the addresses 0 to 255. Devices
+     * also work if there is no external RAM.
+     * @see Emulator#setDeviceBus(DeviceBus)
+     */
+    @Override
+    public void setDeviceBus(DeviceBus bus) {
+        this.devices = bus;
+    }
+
+    /**
+     * Record every executed instruction in a trace file.<br>
+     * The iterations of skipped idle loops (see {@link #setSkipIdleLoops(boolean)}) are not recorded; the time they
+     * took can be seen in the cycle count of the following record.
+     * @param trace
+     *     the trace; {@code null} to stop tracing
+     */
+    public void setTrace(Trace8051 trace) {
+        this.trace = trace;
+    }
+
+    private void recordTrace(DecodedInstruction instruction, int next) {
+        this.trace.record((next - instruction.length) & 0xFFFF, instruction.opcode, instruction.operand1,
+                instruction.operand2, this.state.sfrs.A.getValue(), this.state.sfrs.PSW.getValue(),
+                this.state.sfrs.SP.getValue(), this.state.cycleCount);
+    }
+
+    private void recordCoverage(DecodedInstruction instruction, int next) {
+        final int address = (next - instruction.length) & 0xFFFF;
+        this.coverage.record(address);
+        if (CONDITIONAL_JUMP[instruction.opcode & 0xFF])
+            this.coverage.recordBranch(address, getProgramCounter() != next);
+    }
+
+    @Override
+    public void setDeferChanges(boolean deferChanges) {
+        this.deferChanges = deferChanges;
+        if (!deferChanges) updateDerivedRegisters();
+        for (Register r : this.state.getRegisters()) ((ByteRegister) r).setDeferChanges(deferChanges);
+    }
+
+    @Override
+    public void flushChanges() {
+        updateDerivedRegisters();
+        for (Register r : this.state.getRegisters()) ((ByteRegister) r).flushChanges();
+    }
+
+    /**
+     * Execute the next instruction without updating the R registers and the parity flag.
+     * @return
+     *     the number of cycles this instruction takes
+     * @throws EmulatorException
+     */
+    private int step() throws EmulatorException {
+        final int pc = (int) getProgramCounter();
+        final DecodedInstruction instruction = decode(pc);
+        return step(instruction, (pc + instruction.length) & 0xFFFF);
+    }
+
+    /**
+     * Execute a decoded instruction without updating the R registers and the parity flag.
+     * @param instruction
+     *     the instruction at the current program counter
+     * @param next
+     *     the address of the following instruction
+     * @return
+     *     the number of cycles this instruction takes
+     * @throws EmulatorException
+     */
+    private int step(DecodedInstruction instruction, int next) throws EmulatorException {
+        final boolean watchSfrs = this.watchpoints != null && this.storeWatchedSfrValues();
+        if (this.trace != null) this.recordTrace(instruction, next);
+        this.state.PCH.setValue((byte) (next >>> 8));
+        this.state.PCL.setValue((byte) next);
+        int retValue = -1;
+        try {
+            retValue = execute(instruction);
+            if (watchSfrs) this.checkWatchedSfrValues();
+            if (this.coverage != null) this.recordCoverage(instruction, next);
         } catch (IllegalArgumentException|IllegalStateException|IndexOutOfBoundsException
                 |UnsupportedOperationException e) { // "expected" exceptions
              //TODO: Log exception
              throw new EmulatorException(e);
         } finally {
-            updateParityFlag();
             updateTimers(retValue);
             handleInterrupts();
-            //The value of the R registers can be changed through memory.
-            //In order to ensure that the GUI displays the correct values, the setter in each R register is called every
-            //time, so that it fires property-change-events
-            for (int i = 0; i < 8; ++i) this.state.getR(i).firePropertyChangeIfUpdated();
+            this.state.cycleCount += retValue < 0 ? 1 : retValue;
+            ++this.instructionCount;
+            if (this.profiler != null)
+                this.profiler.record((next - instruction.length) & 0xFFFF, retValue < 0 ? 1 : retValue);
+            if (this.history != null && this.history.isCheckpointDue(this.instructionCount))
+                this.history.add(this.instructionCount, this.checkpoint());
         }
         return retValue;
     }
 
+    /**
+     * The value of the R registers can be changed through memory, the parity flag is derived from the accumulator and
+     * the timer registers are updated lazily.
+     * In order to ensure that the GUI displays the correct values, the setter in each of those registers is called,
+     * so that it fires property-change-events.
+     */
+    private void updateDerivedRegisters() {
+        synchronizeTimers();
+        for (int i = 0; i < 8; ++i) this.state.getR(i).firePropertyChangeIfUpdated();
+        this.state.sfrs.PSW.updateParityFlag();
+    }
+
+    /**
+     * Get the decoded instruction at an address in code memory.<br>
+     * Instructions are decoded lazily and cached. The cache is dropped when the code memory object is replaced or
+     * modified (see {@link ROM#getModificationCount()}), except for writes of the program to the code memory through
+     * {@code MOVX}, which only drop the instructions containing the written byte.
+     * @param address
+     *     the address of the instruction's opcode; must be &gt;= 0 and &lt;= 0xFFFF
+     * @return
+     *     the decoded instruction
+     */
+    private DecodedInstruction decode(int address) {
+        validateDecodeCache();
+        DecodedInstruction result = this.decodeCache[address];
+        if (null == result) {
+            final ROM code = this.state.codeMemory;
+            final byte opcode = code.get(address);
+            final int length = INSTRUCTION_LENGTHS[opcode & 0xFF];
+            result = new DecodedInstruction(address, opcode,
+                    length > 1 ? code.get((address + 1) & 0xFFFF) : 0,
+                    length > 2 ? code.get((address + 2) & 0xFFFF) : 0,
+                    length);
+            this.decodeCache[address] = result;
+        }
+        return result;
+    }
+
+    /**
+     * Drop the decoded instructions if the code memory object was replaced or modified.
+     */
+    private void validateDecodeCache() {
+        final ROM code = this.state.codeMemory;
+        if (null == this.decodeCache) this.decodeCache = new DecodedInstruction[0x10000];
+        if (code != this.decodedCodeMemory || code.getModificationCount() != this.decodedModificationCount) {
+            Arrays.fill(this.decodeCache, null);
+            this.decodedCodeMemory = code;
+            this.decodedModificationCount = code.getModificationCount();
+        }
+    }
+
+    /**
+     * Execute a decoded instruction.<br>
+     * The PC must already point to the following instruction.
+     * @param instruction
+     *     the instruction to be executed
+     * @return
+     *     the number of cycles the instruction takes
+     * @throws EmulatorException
+     */
+    private int execute(DecodedInstruction instruction) throws EmulatorException {
+        switch (instruction.opcode) {
+            case       0x00: return nop();
+            case       0x01: return ajmp(instruction.opcode, instruction.operand1);
+            case       0x02: return ljmp(instruction.operand1, instruction.operand2);
+            case       0x03: return rr_a();
+            case       0x04: return inc(this.state.sfrs.A);
+            case       0x05: return inc(instruction.operand1);
+            case       0x06: return inc_indirect(getR(0));
+            case       0x07: return inc_indirect(getR(1));
+            case       0x08: return inc_r(0);
+            case       0x09: return inc_r(1);
+            case       0x0A: return inc_r(2);
+            case       0x0B: return inc_r(3);
+            case       0x0C: return inc_r(4);
+            case       0x0D: return inc_r(5);
+            case       0x0E: return inc_r(6);
+            case       0x0F: return inc_r(7);
+            case       0x10: return jbc(instruction.operand1, instruction.operand2);
+            case       0x11: return acall(instruction.opcode, instruction.operand1);
+            case       0x12: return lcall(instruction.operand1, instruction.operand2);
+            case       0x13: return rrc_a();
+            case       0x14: return dec(this.state.sfrs.A);
+            case       0x15: return dec(instruction.operand1);
+            case       0x16: return dec_indirect(getR(0));
+            case       0x17: return dec_indirect(getR(1));
+            case       0x18: return dec_r(0);
+            case       0x19: return dec_r(1);
+            case       0x1A: return dec_r(2);
+            case       0x1B: return dec_r(3);
+            case       0x1C: return dec_r(4);
+            case       0x1D: return dec_r(5);
+            case       0x1E: return dec_r(6);
+            case       0x1F: return dec_r(7);
+            case       0x20: return jb(instruction.operand1, instruction.operand2);
+            case       0x21: return ajmp(instruction.opcode, instruction.operand1);
+            case       0x22: return ret();
+            case       0x23: return rl_a();
+            case       0x24: return add_immediate(instruction.operand1);
+            case       0x25: return add_direct(instruction.operand1);
+            case       0x26: return add_indirect(getR(0));
+            case       0x27: return add_indirect(getR(1));
+            case       0x28: return add_r(0);
+            case       0x29: return add_r(1);
+            case       0x2A: return add_r(2);
+            case       0x2B: return add_r(3);
+            case       0x2C: return add_r(4);
+            case       0x2D: return add_r(5);
+            case       0x2E: return add_r(6);
+            case       0x2F: return add_r(7);
+            case       0x30: return jnb(instruction.operand1, instruction.operand2);
+            case       0x31: return acall(instruction.opcode, instruction.operand1);
+            case       0x32: return reti();
+            case       0x33: return rlc_a();
+            case       0x34: return addc_immediate(instruction.operand1);
+            case       0x35: return addc_direct(instruction.operand1);
+            case       0x36: return addc_indirect(getR(0));
+            case       0x37: return addc_indirect(getR(1));
+            case       0x38: return addc_r(0);
+            case       0x39: return addc_r(1);
+            case       0x3A: return addc_r(2);
+            case       0x3B: return addc_r(3);
+            case       0x3C: return addc_r(4);
+            case       0x3D: return addc_r(5);
+            case       0x3E: return addc_r(6);
+            case       0x3F: return addc_r(7);
+            case       0x40: return jc(instruction.operand1);
+            case       0x41: return ajmp(instruction.opcode, instruction.operand1);
+            case       0x42: return orl_direct_a(instruction.operand1);
+            case       0x43: return orl(instruction.operand1, instruction.operand2);
+            case       0x44: return orl_a_immediate(instruction.operand1);
+            case       0x45: return orl_a(instruction.operand1);
+            case       0x46: return orl_a_indirect(getR(0));
+            case       0x47: return orl_a_indirect(getR(1));
+            case       0x48: return orl_a_immediate(getR(0));
+            case       0x49: return orl_a_immediate(getR(1));
+            case       0x4A: return orl_a_immediate(getR(2));
+            case       0x4B: return orl_a_immediate(getR(3));
+            case       0x4C: return orl_a_immediate(getR(4));
+            case       0x4D: return orl_a_immediate(getR(5));
+            case       0x4E: return orl_a_immediate(getR(6));
+            case       0x4F: return orl_a_immediate(getR(7));
+            case       0x50: return jnc(instruction.operand1);
+            case       0x51: return acall(instruction.opcode, instruction.operand1);
+            case       0x52: return anl_direct_a(instruction.operand1);
+            case       0x53: return anl(instruction.operand1, instruction.operand2);
+            case       0x54: return anl_a_immediate(instruction.operand1);
+            case       0x55: return anl_a(instruction.operand1);
+            case       0x56: return anl_a_indirect(getR(0));
+            case       0x57: return anl_a_indirect(getR(1));
+            case       0x58: return anl_a_immediate(getR(0));
+            case       0x59: return anl_a_immediate(getR(1));
+            case       0x5A: return anl_a_immediate(getR(2));
+            case       0x5B: return anl_a_immediate(getR(3));
+            case       0x5C: return anl_a_immediate(getR(4));
+            case       0x5D: return anl_a_immediate(getR(5));
+            case       0x5E: return anl_a_immediate(getR(6));
+            case       0x5F: return anl_a_immediate(getR(7));
+            case       0x60: return jz(instruction.operand1);
+            case       0x61: return ajmp(instruction.opcode, instruction.operand1);
+            case       0x62: return xrl_direct_a(instruction.operand1);
+            case       0x63: return xrl(instruction.operand1, instruction.operand2);
+            case       0x64: return xrl_a_immediate(instruction.operand1);
+            case       0x65: return xrl_a(instruction.operand1);
+            case       0x66: return xrl_a_indirect(getR(0));
+            case       0x67: return xrl_a_indirect(getR(1));
+            case       0x68: return xrl_a_immediate(getR(0));
+            case       0x69: return xrl_a_immediate(getR(1));
+            case       0x6A: return xrl_a_immediate(getR(2));
+            case       0x6B: return xrl_a_immediate(getR(3));
+            case       0x6C: return xrl_a_immediate(getR(4));
+            case       0x6D: return xrl_a_immediate(getR(5));
+            case       0x6E: return xrl_a_immediate(getR(6));
+            case       0x6F: return xrl_a_immediate(getR(7));
+            case       0x70: return jnz(instruction.operand1);
+            case       0x71: return acall(instruction.opcode, instruction.operand1);
+            case       0x72: return orl_c(instruction.operand1, false);
+            case       0x73: return jmp_a_dptr();
+            case       0x74: return mov_a_immediate(instruction.operand1);
+            case       0x75: return mov_direct_immediate(instruction.operand1, instruction.operand2);
+            case       0x76: return mov_indirect_immediate(getR(0), instruction.operand1);
+            case       0x77: return mov_indirect_immediate(getR(1), instruction.operand1);
+            case       0x78: return mov_r_immediate(0, instruction.operand1);
+            case       0x79: return mov_r_immediate(1, instruction.operand1);
+            case       0x7A: return mov_r_immediate(2, instruction.operand1);
+            case       0x7B: return mov_r_immediate(3, instruction.operand1);
+            case       0x7C: return mov_r_immediate(4, instruction.operand1);
+            case       0x7D: return mov_r_immediate(5, instruction.operand1);
+            case       0x7E: return mov_r_immediate(6, instruction.operand1);
+            case       0x7F: return mov_r_immediate(7, instruction.operand1);
+            case (byte)0x80: return sjmp(instruction.operand1);
+            case (byte)0x81: return ajmp(instruction.opcode, instruction.operand1);
+            case (byte)0x82: return anl_c(instruction.operand1, false);
+            case (byte)0x83: return movc_a(this.state.PCH, this.state.PCL);
+            case (byte)0x84: return div_ab();
+            case (byte)0x85: return mov_direct_direct(instruction.operand1, instruction.operand2);
+            case (byte)0x86: return mov_direct_indirect(instruction.operand1, getR(0));
+            case (byte)0x87: return mov_direct_indirect(instruction.operand1, getR(1));
+            case (byte)0x88: return mov_direct_immediate(instruction.operand1, getR(0));
+            case (byte)0x89: return mov_direct_immediate(instruction.operand1, getR(1));
+            case (byte)0x8A: return mov_direct_immediate(instruction.operand1, getR(2));
+            case (byte)0x8B: return mov_direct_immediate(instruction.operand1, getR(3));
+            case (byte)0x8C: return mov_direct_immediate(instruction.operand1, getR(4));
+            case (byte)0x8D: return mov_direct_immediate(instruction.operand1, getR(5));
+            case (byte)0x8E: return mov_direct_immediate(instruction.operand1, getR(6));
+            case (byte)0x8F: return mov_direct_immediate(instruction.operand1, getR(7));
+            case (byte)0x90: return mov_dptr(instruction.operand1, instruction.operand2);
+            case (byte)0x91: return acall(instruction.opcode, instruction.operand1);
+            case (byte)0x92: return mov_bit_c(instruction.operand1);
+            case (byte)0x93: return movc_a(this.state.sfrs.DPH, this.state.sfrs.DPL);
+            case (byte)0x94: return subb_immediate(instruction.operand1);
+            case (byte)0x95: return subb_direct(instruction.operand1);
+            case (byte)0x96: return subb_indirect(getR(0));
+            case (byte)0x97: return subb_indirect(getR(1));
+            case (byte)0x98: return subb_r(0);
+            case (byte)0x99: return subb_r(1);
+            case (byte)0x9A: return subb_r(2);
+            case (byte)0x9B: return subb_r(3);
+            case (byte)0x9C: return subb_r(4);
+            case (byte)0x9D: return subb_r(5);
+            case (byte)0x9E: return subb_r(6);
+            case (byte)0x9F: return subb_r(7);
+            case (byte)0xA0: return orl_c(instruction.operand1, true);
+            case (byte)0xA1: return ajmp(instruction.opcode, instruction.operand1);
+            case (byte)0xA2: return mov_c_bit(instruction.operand1);
+            case (byte)0xA3: return inc_dptr();
+            case (byte)0xA4: return mul_ab();
+            case (byte)0xA5: return reserved();
+            case (byte)0xA6: return mov_indirect_direct(getR(0), instruction.operand1);
+            case (byte)0xA7: return mov_indirect_direct(getR(1), instruction.operand1);
+            case (byte)0xA8: return mov_r_direct(0, instruction.operand1);
+            case (byte)0xA9: return mov_r_direct(1, instruction.operand1);
+            case (byte)0xAA: return mov_r_direct(2, instruction.operand1);
+            case (byte)0xAB: return mov_r_direct(3, instruction.operand1);
+            case (byte)0xAC: return mov_r_direct(4, instruction.operand1);
+            case (byte)0xAD: return mov_r_direct(5, instruction.operand1);
+            case (byte)0xAE: return mov_r_direct(6, instruction.operand1);
+            case (byte)0xAF: return mov_r_direct(7, instruction.operand1);
+            case (byte)0xB0: return anl_c(instruction.operand1, true);
+            case (byte)0xB1: return acall(instruction.opcode, instruction.operand1);
+            case (byte)0xB2: return cpl(instruction.operand1);
+            case (byte)0xB3: return cpl_c();
+            case (byte)0xB4: return cjne_a_immediate(instruction.operand1, instruction.operand2);
+            case (byte)0xB5: return cjne_a_direct(instruction.operand1, instruction.operand2);
+            case (byte)0xB6: return cjne_indirect_immediate(getR(0), instruction.operand1, instruction.operand2);
+            case (byte)0xB7: return cjne_indirect_immediate(getR(1), instruction.operand1, instruction.operand2);
+            case (byte)0xB8: return cjne_r_immediate(0, instruction.operand1, instruction.operand2);
+            case (byte)0xB9: return cjne_r_immediate(1, instruction.operand1, instruction.operand2);
+            case (byte)0xBA: return cjne_r_immediate(2, instruction.operand1, instruction.operand2);
+            case (byte)0xBB: return cjne_r_immediate(3, instruction.operand1, instruction.operand2);
+            case (byte)0xBC: return cjne_r_immediate(4, instruction.operand1, instruction.operand2);
+            case (byte)0xBD: return cjne_r_immediate(5, instruction.operand1, instruction.operand2);
+            case (byte)0xBE: return cjne_r_immediate(6, instruction.operand1, instruction.operand2);
+            case (byte)0xBF: return cjne_r_immediate(7, instruction.operand1, instruction.operand2);
+            case (byte)0xC0: return pop(instruction.operand1);
+            case (byte)0xC1: return ajmp(instruction.opcode, instruction.operand1);
+            case (byte)0xC2: return clr(instruction.operand1);
+            case (byte)0xC3: return clr_c();
+            case (byte)0xC4: return swap_a();
+            case (byte)0xC5: return xch_a_direct(instruction.operand1);
+            case (byte)0xC6: return xch_a_indirect(getR(0));
+            case (byte)0xC7: return xch_a_indirect(getR(1));
+            case (byte)0xC8: return xch_a_r(0);
+            case (byte)0xC9: return xch_a_r(1);
+            case (byte)0xCA: return xch_a_r(2);
+            case (byte)0xCB: return xch_a_r(3);
+            case (byte)0xCC: return xch_a_r(4);
+            case (byte)0xCD: return xch_a_r(5);
+            case (byte)0xCE: return xch_a_r(6);
+            case (byte)0xCF: return xch_a_r(7);
+            case (byte)0xD0: return push(instruction.operand1);
+            case (byte)0xD1: return acall(instruction.opcode, instruction.operand1);
+            case (byte)0xD2: return setb(instruction.operand1);
+            case (byte)0xD3: return setb_c();
+            case (byte)0xD4: return da_a();
+            case (byte)0xD5: return djnz(instruction.operand1, instruction.operand2);
+            case (byte)0xD6: return xchd_a(getR(0));
+            case (byte)0xD7: return xchd_a(getR(1));
+            case (byte)0xD8: return djnz_r(0, instruction.operand1);
+            case (byte)0xD9: return djnz_r(1, instruction.operand1);
+            case (byte)0xDA: return djnz_r(2, instruction.operand1);
+            case (byte)0xDB: return djnz_r(3, instruction.operand1);
+            case (byte)0xDC: return djnz_r(4, instruction.operand1);
+            case (byte)0xDD: return djnz_r(5, instruction.operand1);
+            case (byte)0xDE: return djnz_r(6, instruction.operand1);
+            case (byte)0xDF: return djnz_r(7, instruction.operand1);
+            case (byte)0xE0: return movx_a_dptr();
+            case (byte)0xE1: return ajmp(instruction.opcode, instruction.operand1);
+            case (byte)0xE2: return movx_a_indirect(getR(0));
+            case (byte)0xE3: return movx_a_indirect(getR(1));
+            case (byte)0xE4: return clr_a();
+            case (byte)0xE5: return mov_a_direct(instruction.operand1);
+            case (byte)0xE6: return mov_a_indirect(getR(0));
+            case (byte)0xE7: return mov_a_indirect(getR(1));
+            case (byte)0xE8: return mov_a_immediate(getR(0));
+            case (byte)0xE9: return mov_a_immediate(getR(1));
+            case (byte)0xEA: return mov_a_immediate(getR(2));
+            case (byte)0xEB: return mov_a_immediate(getR(3));
+            case (byte)0xEC: return mov_a_immediate(getR(4));
+            case (byte)0xED: return mov_a_immediate(getR(5));
+            case (byte)0xEE: return mov_a_immediate(getR(6));
+            case (byte)0xEF: return mov_a_immediate(getR(7));
+            case (byte)0xF0: return movx_dptr_a();
+            case (byte)0xF1: return acall(instruction.opcode, instruction.operand1);
+            case (byte)0xF2: return movx_indirect_a(getR(0));
+            case (byte)0xF3: return movx_indirect_a(getR(1));
+            case (byte)0xF4: return cpl_a();
+            case (byte)0xF5: return mov_direct_a(instruction.operand1);
+            case (byte)0xF6: return mov_indirect_immediate(getR(0), this.state.sfrs.A.getValue());
+            case (byte)0xF7: return mov_indirect_immediate(getR(1), this.state.sfrs.A.getValue());
+            case (byte)0xF8: return mov_r_immediate(0, this.state.sfrs.A.getValue());
+            case (byte)0xF9: return mov_r_immediate(1, this.state.sfrs.A.getValue());
+            case (byte)0xFA: return mov_r_immediate(2, this.state.sfrs.A.getValue());
+            case (byte)0xFB: return mov_r_immediate(3, this.state.sfrs.A.getValue());
+            case (byte)0xFC: return mov_r_immediate(4, this.state.sfrs.A.getValue());
+            case (byte)0xFD: return mov_r_immediate(5, this.state.sfrs.A.getValue());
+            case (byte)0xFE: return mov_r_immediate(6, this.state.sfrs.A.getValue());
+            case (byte)0xFF: return mov_r_immediate(7, this.state.sfrs.A.getValue());
+        }
+        throw new IllegalStateException("unreachable");
+    }
+
     @Override
     public RAM getMainMemory() {
         return this.state.internalRAM;
@@ -409,40 +845,238 @@ public class MC8051 implements Emulator {
         return true;
     }
 
+    /**
+     * Save the state to a file.<br>
+     * If the file name ends with {@code .xml}, the state is stored as XML; otherwise the compressed binary snapshot
+     * format is used (see {@link #saveStateTo(Path, boolean)}).
+     * @see Emulator#saveStateTo(Path)
+     */
     @Override
     public void saveStateTo(Path path) throws IOException {
-        try (Writer out = Files.newBufferedWriter(path)) {
-            JAXB.marshal(this.state, out);
-        }
+        final Path fileName = path.getFileName();
+        if (fileName != null && fileName.toString().toLowerCase().endsWith(".xml")) {
+            this.state.sfrs.PSW.updateParityFlag();
+            try (Writer out = Files.newBufferedWriter(path)) {
+                JAXB.marshal(this.state, out);
+            }
+        } else this.saveStateTo(path, true);
     }
 
+    /**
+     * Save the state to a file in the binary snapshot format.<br>
+     * Snapshots store the memory in pages and leave out pages that only contain zeros. They are much smaller and
+     * faster to write and read than XML.
+     * @param path
+     *     the path the state is stored to; must be a valid and accessible path
+     * @param compress
+     *     {@code true} if the snapshot should be deflate-compressed (smaller, but slower)
+     * @throws IOException
+     *     if there was an IO error
+     */
+    public void saveStateTo(Path path, boolean compress) throws IOException {
+        this.state.sfrs.PSW.updateParityFlag();
+        Snapshot8051.write(this.state, path, compress);
+    }
+
+    /**
+     * Load the state from a file.<br>
+     * Both binary snapshots and XML files are supported; the format is determined from the content of the file.
+     * @see Emulator#loadStateFrom(Path)
+     */
     @Override
     public final void loadStateFrom(Path path) throws IOException {
-        try (Reader in = Files.newBufferedReader(path)) {
+        if (Snapshot8051.isSnapshot(path))
+            this.state = Snapshot8051.read(path);
+        else try (Reader in = Files.newBufferedReader(path)) {
             this.state = JAXB.unmarshal(in, State8051.class);
             this.state.sfrs.updateSfrMap();
-            // fire property changes for all registers; this is especially important for R registers where
-            // getValue() reads from RAM and setValue() updates RAM and the internal attribute
-            for (Register r : this.state.getRegisters()) {
-                final ByteRegister br = (ByteRegister)r;
-                br.setValue(br.getValue());
+        }
+        this.watchedSfrsValid = false;
+        // fire property changes for all registers; this is especially important for R registers where
+        // getValue() reads from RAM and setValue() updates RAM and the internal attribute
+        for (Register r : this.state.getRegisters()) {
+            final ByteRegister br = (ByteRegister)r;
+            br.setValue(br.getValue());
+        }
+        if (this.deferChanges) this.setDeferChanges(true);
+        this.discardTimerSchedule();
+        if (this.history != null) {
+            this.history.clear();
+            this.history.add(this.instructionCount, this.checkpoint());
+        }
+    }
+
+    @Override
+    public long getCycleCount() {
+        return this.state.cycleCount;
+    }
+
+    @Override
+    public int getClocksPerCycle() {
+        return 12;
+    }
+
+    /**
+     * @return the number of instructions this {@code MC8051} has executed
+     */
+    public long getInstructionCount() {
+        return this.instructionCount;
+    }
+
+    /**
+     * Enable or disable recording the execution history.<br>
+     * The history consists of periodic checkpoints (see {@link #checkpoint()}). Going back restores the latest
+     * checkpoint before the target and executes the instructions in between again, which takes at most as long as
+     * executing the number of instructions between two checkpoints. Taking a checkpoint only copies the memories in
+     * full if they are not {@link PagedRAM} (see {@link State8051#fork()}).
+     * @see Emulator#setRecordHistory(boolean)
+     */
+    @Override
+    public void setRecordHistory(boolean recordHistory) {
+        if (!recordHistory) this.history = null;
+        else if (null == this.history) {
+            this.history = new ExecutionHistory(HISTORY_INTERVAL, HISTORY_CAPACITY);
+            this.history.add(this.instructionCount, this.checkpoint());
+        }
+    }
+
+    @Override
+    public void recordExternalChange() {
+        if (this.history != null) this.history.add(this.instructionCount, this.checkpoint());
+    }
+
+    @Override
+    public boolean canStepBack() {
+        return this.history != null && this.history.getOldestInstruction() < this.instructionCount;
+    }
+
+    @Override
+    public long stepBack(long instructions) {
+        if (instructions < 0) throw new IllegalArgumentException("cannot step back a negative number of instructions");
+        if (null == this.history) throw new IllegalStateException("the execution history is not recorded");
+        final long start = this.instructionCount;
+        final boolean deferChanges = this.deferChanges;
+        if (!deferChanges) this.setDeferChanges(true);
+        try {
+            this.goBackTo(Math.max(start - instructions, this.history.getOldestInstruction()));
+        } finally {
+            if (!deferChanges) this.setDeferChanges(false);
+        }
+        return start - this.instructionCount;
+    }
+
+    @Override
+    public long runBackwards(BitSet breakpoints) {
+        Objects.requireNonNull(breakpoints, "breakpoints must not be null");
+        if (null == this.history) throw new IllegalStateException("the execution history is not recorded");
+        final long start = this.instructionCount;
+        final boolean deferChanges = this.deferChanges;
+        if (!deferChanges) this.setDeferChanges(true);
+        try {
+            // search the intervals between the checkpoints from the latest to the oldest one
+            long end = start;
+            ExecutionHistory.Entry entry = this.history.getLatestAtOrBefore(end - 1);
+            while (entry != null) {
+                this.restore(entry.state);
+                this.instructionCount = entry.instruction;
+                long found = -1;
+                while (true) {
+                    if (breakpoints.get((int) getProgramCounter())) found = this.instructionCount;
+                    if (this.instructionCount >= end - 1) break;
+                    this.replayStep();
+                }
+                if (found >= 0) {
+                    this.goBackTo(found);
+                    return start - found;
+                }
+                end = entry.instruction;
+                entry = this.history.getLatestAtOrBefore(end - 1);
             }
+            this.goBackTo(Math.min(start, this.history.getOldestInstruction()));
+            return start - this.instructionCount;
+        } finally {
+            if (!deferChanges) this.setDeferChanges(false);
+        }
+    }
+
+    /**
+     * Recreate the state after a number of instructions from the execution history.
+     * @param instruction
+     *     the number of executed instructions; must not be older than the oldest checkpoint
+     */
+    private void goBackTo(long instruction) {
+        this.watchpoints = null; // the accesses of the replayed instructions are not reported again
+        final ExecutionHistory.Entry entry = this.history.getLatestAtOrBefore(instruction);
+        // the execution from the target on may differ from the recorded one, so the later checkpoints are dropped
+        this.history.discardAfter(entry.instruction);
+        this.restore(entry.state);
+        this.instructionCount = entry.instruction;
+        while (this.instructionCount < instruction) this.replayStep();
+    }
+
+    /**
+     * Execute an instruction again while going back in the execution history. Exceptions were already reported
+     * when the instruction was executed the first time, so they are ignored. The profiler and the trace have
+     * already recorded the instruction as well.
+     */
+    private void replayStep() {
+        final Profiler profiler = this.profiler;
+        final Trace8051 trace = this.trace;
+        this.profiler = null;
+        this.trace = null;
+        try {
+            this.step();
+        } catch (EmulatorException|RuntimeException ignored) {
+            // the state is the same as after the first execution of the instruction
+        } finally {
+            this.profiler = profiler;
+            this.trace = trace;
         }
     }
 
+    /**
+     * Create a checkpoint of the current state that can be restored later on with {@link #restore(State8051)}.<br>
+     * If the code memory and the external RAM are {@link PagedRAM} objects, this only takes time proportional to the
+     * number of pages; the pages are shared until they are written to.
+     * @return
+     *     the checkpoint
+     * @see State8051#checkpoint()
+     */
+    public State8051 checkpoint() {
+        this.synchronizeTimers();
+        this.state.sfrs.PSW.updateParityFlag();
+        return this.state.checkpoint();
+    }
+
+    /**
+     * Restore a checkpoint created by {@link #checkpoint()}.<br>
+     * The {@code Register} objects stay the same, so their listeners are notified of the changes.
+     * @param checkpoint
+     *     the checkpoint; must not be {@code null}; it can be restored any number of times
+     */
+    public void restore(State8051 checkpoint) {
+        Objects.requireNonNull(checkpoint, "trying to restore null checkpoint");
+        this.discardTimerSchedule();
+        this.state.restore(checkpoint);
+        this.watchedSfrsValid = false; // the checkpoint may not have the same temporary SFRs
+        this.updateDerivedRegisters();
+    }
 
     /**
-     * Get a byte from code memory and increment the PC.<br>
+     * Create an independent copy of this {@code MC8051} that continues from the current state.
      * @return
-     *     the retrieved byte
+     *     the copy
+     * @see State8051#fork()
      */
-    private byte getCodeByte() {
-        char tmp = (char)((this.state.PCH.getValue() << 8) & 0xFF00 | this.state.PCL.getValue() & 0xFF);
-        byte ret = this.state.codeMemory.get(tmp);
-        ++tmp;
-        this.state.PCH.setValue((byte) (tmp >>> 8));
-        this.state.PCL.setValue((byte) tmp);
-        return ret;
+    public MC8051 fork() {
+        final State8051 state = this.checkpoint();
+        final MC8051 result = new MC8051(state);
+        // the constructor resets the state of the interrupts
+        result.state.prevP3_2 = this.state.prevP3_2;
+        result.state.prevP3_3 = this.state.prevP3_3;
+        result.state.runningInterruptPriority = this.state.runningInterruptPriority;
+        result.skipIdleLoops = this.skipIdleLoops;
+        return result;
     }
 
     /**
@@ -455,34 +1089,266 @@ public class MC8051 implements Emulator {
      *     when given an illegal ordinal
      */
     private byte getR(int ordinal) {
-        return this.state.internalRAM.get(this.state.getRAddress(ordinal));
+        return getInternalByte(this.state.getRAddress(ordinal));
+    }
+
+    /**
+     * Read a byte of the internal RAM on behalf of the program.
+     * All accesses of the program to the internal RAM go through this method and {@link #setInternalByte(int, byte)},
+     * so that they can be watched.
+     * @param address
+     *     the address; must be &gt;= 0 and &lt;= 0xFF
+     * @return
+     *     the byte at the address
+     */
+    private byte getInternalByte(int address) {
+        if (this.watchpoints != null) this.watchpoints.check(Watchpoints.Space.INTERNAL_RAM, address, false);
+        return this.state.internalRAM.get(address);
+    }
+
+    /**
+     * Write a byte of the internal RAM on behalf of the program.
+     * @param address
+     *     the address; must be &gt;= 0 and &lt;= 0xFF
+     * @param value
+     *     the new value
+     * @see #getInternalByte(int)
+     */
+    private void setInternalByte(int address, byte value) {
+        if (this.watchpoints != null) this.watchpoints.check(Watchpoints.Space.INTERNAL_RAM, address, true);
+        this.state.internalRAM.set(address, value);
+    }
+
+    /**
+     * Read a byte of the external RAM (or of a device) on behalf of the program ({@code MOVX}).
+     * @param address
+     *     the address; must be &gt;= 0 and smaller than the size of the external RAM
+     * @return
+     *     the byte at the address
+     */
+    private byte getExternalByte(int address) {
+        if (this.watchpoints != null) this.watchpoints.check(Watchpoints.Space.EXTERNAL_RAM, address, false);
+        if (this.devices != null) {
+            final int value = this.devices.readExternal(address);
+            if (value != DeviceBus.UNMAPPED) return (byte) value;
+        }
+        if (null != this.state.externalRAM) return this.state.externalRAM.get(address);
+        if (!this.state.ignoreExceptions) throw new IllegalStateException("no external RAM, but MOVX was used");
+        return 0;
+    }
+
+    /**
+     * Write a byte of the external RAM (or of a device) on behalf of the program ({@code MOVX}).
+     * @param address
+     *     the address; must be &gt;= 0 and smaller than the size of the external RAM
+     * @param value
+     *     the new value
+     */
+    private void setExternalByte(int address, byte value) {
+        if (this.watchpoints != null) this.watchpoints.check(Watchpoints.Space.EXTERNAL_RAM, address, true);
+        if (this.devices != null && this.devices.writeExternal(address, value)) return;
+        final RAM ram = this.state.externalRAM;
+        if (null == ram) {
+            if (!this.state.ignoreExceptions) throw new IllegalStateException("no external RAM, but MOVX was used");
+        } else if (ram == this.state.codeMemory && ram == this.decodedCodeMemory
+                && ram.getModificationCount() == this.decodedModificationCount) {
+            // the external RAM is the code memory: only the instructions containing the byte have to be decoded again
+            ram.set(address, value);
+            for (int i = 0; i < 3; ++i) this.decodeCache[(address - i) & 0xFFFF] = null;
+            this.decodedModificationCount = ram.getModificationCount();
+        } else {
+            ram.set(address, value);
+        }
+    }
+
+    /**
+     * Prepare the watchpoints for running or stepping: forget the last hit and decide whether the accesses have to
+     * be checked at all. Without watchpoints, every access only costs a comparison with {@code null}. The SFRs with
+     * write watchpoints are compared after every instruction, so they are looked up here, and only again when the
+     * watchpoints have changed since the last call.
+     */
+    private void startWatching() {
+        if (this.watchpointSet != null) this.watchpointSet.clearHit();
+        this.watchpoints = this.watchpointSet == null || this.watchpointSet.isEmpty() ? null : this.watchpointSet;
+        if (this.watchedSfrsValid && this.watchpoints == this.watchedSfrsSource && (this.watchpoints == null
+                || this.watchpoints.getModificationCount() == this.watchedSfrsModificationCount))
+            return;
+        this.watchedSfrsValid = true;
+        this.watchedSfrsSource = this.watchpoints;
+        int count = 0;
+        final int[] addresses = new int[0x80];
+        if (this.watchpoints != null) {
+            this.watchedSfrsModificationCount = this.watchpoints.getModificationCount();
+            if (this.watchpoints.isWatching(Watchpoints.Space.SFR, true))
+                for (int address = 0x80; address <= 0xFF; ++address)
+                    if (this.watchpoints.isWatched(Watchpoints.Space.SFR, address, true)
+                            && this.state.sfrs.hasAddress((byte) address))
+                        addresses[count++] = address;
+        }
+        this.watchedSfrValues = new byte[count];
+        this.watchedSfrs = Arrays.copyOf(addresses, count);
     }
 
     /**
-     * Update the parity flag in the PSW.
-     * It is set so that the number of bits set to one plus the parity flag is even.
-     * NOTE: This algorithm was inspired by
-     * <a href="http://www.geeksforgeeks.org/write-a-c-program-to-find-the-parity-of-an-unsigned-integer/">
-     *     http://www.geeksforgeeks.org/write-a-c-program-to-find-the-parity-of-an-unsigned-integer/
-     * </a>
+     * Most instructions access SFRs like A, B or PSW implicitly instead of through their direct address. In order to
+     * notice when they write to a watched SFR, the values of the watched SFRs are compared before and after every
+     * instruction.
+     * @return
+     *     {@code false} if no SFR writes are watched
      */
-    private void updateParityFlag() {
-        boolean parity = false;
-        for (byte b = this.state.sfrs.A.getValue(); b != 0; b = (byte)(b & (b - 1))) parity = !parity;
-        this.state.sfrs.PSW.setBit(parity, 0);
+    private boolean storeWatchedSfrValues() {
+        if (this.watchedSfrs.length == 0) return false;
+        synchronizeTimers(); // the timer registers must not change just because they are updated lazily
+        for (int i = 0; i < this.watchedSfrs.length; ++i)
+            this.watchedSfrValues[i] = this.state.sfrs.get(this.watchedSfrs[i]);
+        return true;
+    }
+
+    private void checkWatchedSfrValues() {
+        for (int i = 0; i < this.watchedSfrs.length; ++i)
+            if (this.state.sfrs.get(this.watchedSfrs[i]) != this.watchedSfrValues[i])
+                this.watchpoints.check(Watchpoints.Space.SFR, this.watchedSfrs[i], true);
     }
 
 
     /**
      * Update the values of the SFR TH0, TL0, TH1, TL1.
+     * Timers that count cycles in mode 0, 1 or 2 are updated lazily: The cycles are only added up and written to the
+     * timer registers when the timer overflows, when the timer registers are accessed through a direct address, when
+     * the timer configuration (TMOD, TR0, TR1, INT0, INT1) changes and at the end of {@link #next()} and
+     * {@link #run(long, BitSet, BooleanSupplier)}.
+     * Counters and split mode are updated after every instruction by {@link #updateTimersEagerly(int)}.
+     * @param cycles
+     *     the number of cycles (used when the timers are used as "timers" [as opposed to "counters"])
+     */
+    private void updateTimers(int cycles) {
+        if (cycles < 0) cycles = 1;
+        final int configuration = getTimerConfiguration();
+        if (configuration != this.timerConfiguration) {
+            flushTimers();
+            scheduleTimers(configuration);
+        }
+        if (this.timersEager) {
+            updateTimersEagerly(cycles);
+            return;
+        }
+        for (int timer = 0; timer < 2; ++timer) {
+            if (this.timerMode[timer] < 0) continue;
+            this.timerPendingCycles[timer] += cycles;
+            if (this.timerPendingCycles[timer] >= this.timerCyclesUntilOverflow[timer]) flushTimer(timer);
+        }
+    }
+
+    /**
+     * @return
+     *     the bits that decide how the timers count: TMOD (bits 0-7), TR0 (bit 8), TR1 (bit 10), INT0 (bit 14) and
+     *     INT1 (bit 15)
+     */
+    private int getTimerConfiguration() {
+        return this.state.sfrs.TMOD.getValue() & 0xFF
+                | (this.state.sfrs.TCON.getValue() & 0x50) << 4
+                | (this.state.sfrs.P3.getValue() & 0x0C) << 12;
+    }
+
+    /**
+     * Decide how the timers are updated for a timer configuration.
+     * All pending cycles must have been written to the timer registers before this method is called.
+     * @param configuration
+     *     the timer configuration (see {@link #getTimerConfiguration()})
+     */
+    private void scheduleTimers(int configuration) {
+        this.timerConfiguration = configuration;
+        this.timerMode[0] = this.timerMode[1] = -1;
+        final int tmod = configuration & 0xFF;
+        this.timersEager = (tmod & 0x03) == 3 || (tmod & 0x30) == 0x30;
+        if (this.timersEager) return;
+        //updateTimersEagerly() does the same for modes other than split mode
+        this.state.TMOD_OLD = (byte) tmod;
+        this.state.TR1_OLD = (configuration & 0x400) != 0;
+        for (int timer = 0; timer < 2; ++timer) {
+            final int bits  = tmod >> 4 * timer; // GATE | C/T | M1 | M0
+            final boolean TR   = (configuration & (timer == 0 ? 0x100 : 0x400)) != 0;
+            final boolean INTx = (configuration & (timer == 0 ? 0x4000 : 0x8000)) != 0;
+            if (!TR || (bits & 0x08) != 0 && !INTx) continue; //the timer is stopped
+            if ((bits & 0x04) != 0) { //the timer counts events
+                this.timersEager = true;
+                this.timerMode[0] = this.timerMode[1] = -1;
+                return;
+            }
+            this.timerMode[timer] = bits & 0x03;
+            this.timerCyclesUntilOverflow[timer] = getCyclesUntilOverflow(timer);
+        }
+    }
+
+    /**
+     * Calculate how many cycles a lazily updated timer needs until it overflows.
+     * @param timer
+     *     the timer (0 or 1)
+     * @return
+     *     the number of cycles
+     */
+    private int getCyclesUntilOverflow(int timer) {
+        final byte high = (timer == 0 ? this.state.sfrs.TH0 : this.state.sfrs.TH1).getValue();
+        final byte low  = (timer == 0 ? this.state.sfrs.TL0 : this.state.sfrs.TL1).getValue();
+        switch (this.timerMode[timer]) {
+            case 0: return getIncrementsUntilLowOverflow(low) + (0xFF - (high & 0xFF)) * 0x20;
+            case 1: return 0x10000 - (high << 8 & 0xFF00 | low & 0xFF);
+            case 2: return 0x100 - (low & 0xFF);
+            default: throw new IllegalStateException("Invalid timer mode: "+this.timerMode[timer]);
+        }
+    }
+
+    /**
+     * Write the pending cycles of a lazily updated timer to the timer registers.
+     * @param timer
+     *     the timer (0 or 1)
+     */
+    private void flushTimer(int timer) {
+        final int cycles = this.timerPendingCycles[timer];
+        if (cycles == 0) return;
+        this.timerPendingCycles[timer] = 0;
+        if (timer == 0) //bit 5 in TCON is TF0
+            incrementTimer(this.state.sfrs.TH0, this.state.sfrs.TL0, 5, this.timerMode[timer], cycles);
+        else //bit 7 in TCON is TF1
+            incrementTimer(this.state.sfrs.TH1, this.state.sfrs.TL1, 7, this.timerMode[timer], cycles);
+        this.timerCyclesUntilOverflow[timer] = getCyclesUntilOverflow(timer);
+    }
+
+    /**
+     * Write the pending cycles of all lazily updated timers to the timer registers.
+     */
+    private void flushTimers() {
+        for (int timer = 0; timer < 2; ++timer) if (this.timerMode[timer] >= 0) flushTimer(timer);
+    }
+
+    /**
+     * Forget the schedule and the pending cycles of the timers without writing them to the timer registers (e.g.
+     * because the registers were replaced).
+     */
+    private void discardTimerSchedule() {
+        this.timerConfiguration = -1;
+        this.timerMode[0] = this.timerMode[1] = -1;
+        this.timerPendingCycles[0] = this.timerPendingCycles[1] = 0;
+    }
+
+    /**
+     * Write the pending cycles to the timer registers and forget the schedule, so that the timer registers can be
+     * read and modified.
+     */
+    private void synchronizeTimers() {
+        flushTimers();
+        this.timerConfiguration = -1;
+    }
+
+    /**
+     * Update the values of the SFR TH0, TL0, TH1, TL1 for a single instruction.
      * NOTE: The implementation of split mode is a bit ugly and untested, so I'm not sure if it works...
      * 13-bit mode is also untested.
      * Those modes are basically deprecated and not used most of the time.
      * @param cycles
      *     the number of cycles (used when the timers are used as "timers" [as opposed to "counters"])
      */
-    private void updateTimers(int cycles) {
-        if (cycles < 0) cycles = 1;
+    private void updateTimersEagerly(int cycles) {
         //TMOD bits
         final byte tmod     = this.state.sfrs.TMOD.getValue();
         final boolean GATE1 = (tmod & 0x80) != 0;
@@ -568,13 +1434,16 @@ public class MC8051 implements Emulator {
         switch (mode) {
             case 0: //13-bit mode
                 final byte oldHigh = high.getValue();
-                byte h = oldHigh;
-                byte l = low.getValue();
-                for (int i = 0; i < howMuch; ++i) {
-                    if (++l > 0x1F) { //only the last 5 bits of the timer are used
-                        l = 0;
-                        ++h;
-                    }
+                final byte oldLow = low.getValue();
+                final int first = getIncrementsUntilLowOverflow(oldLow);
+                final byte h;
+                final byte l;
+                if (howMuch < first) {
+                    h = oldHigh;
+                    l = (byte)(oldLow + howMuch);
+                } else { //only the last 5 bits of the timer are used
+                    h = (byte)(oldHigh + 1 + (howMuch - first) / 0x20);
+                    l = (byte)((howMuch - first) % 0x20);
                 }
                 if ((oldHigh & 0xFF) > (h & 0xFF) && ovflag > -1) this.state.sfrs.TCON.setBit(true, ovflag);
                 high.setValue(h);
@@ -609,6 +1478,19 @@ public class MC8051 implements Emulator {
         }
     }
 
+    /**
+     * Calculate how many increments it takes until the low byte of a timer in 13-bit mode overflows into the high
+     * byte. It overflows when it is incremented to a value &gt; 0x1F (as a signed byte).
+     * @param low
+     *     the value of the low byte
+     * @return
+     *     the number of increments
+     */
+    private static int getIncrementsUntilLowOverflow(byte low) {
+        if (low == Byte.MAX_VALUE) return 1 + 0x20 - Byte.MIN_VALUE; //the byte wraps around to -128 first
+        return low >= 0x1F ? 1 : 0x20 - low;
+    }
+
     /**
      * This method is called after every instruction and evaluates whether an interrupt should occur.
      * The order in which interrupts are evaluated is the following:<br>
@@ -628,53 +1510,32 @@ public class MC8051 implements Emulator {
     private void handleInterrupts() {
         updateInterruptRequestFlags();
 
-        final boolean EA = this.state.sfrs.IE.getBit(7); //global interrupt enable/disable
-        if (!EA) return; //if interrupts are disables, there is nothing to do
+        final int ie = this.state.sfrs.IE.getValue();
+        if ((ie & 0x80) == 0) return; //if interrupts are disabled (EA), there is nothing to do
         if (this.state.runningInterruptPriority == 1) return; // a interrupt of high priority cannot be cancelled
-        final boolean ES  = this.state.sfrs.IE.getBit(4); //enable serial interrupt
-        final boolean ET1 = this.state.sfrs.IE.getBit(3); //enable timer 1 interrupt
-        final boolean EX1 = this.state.sfrs.IE.getBit(2); //enable external 1 interrupt
-        final boolean ET0 = this.state.sfrs.IE.getBit(1); //enable timer 0 interrupt
-        final boolean EX0 = this.state.sfrs.IE.getBit(0); //enable external 0 interrupt
-        final BitAddressableByteRegister TCON = this.state.sfrs.TCON;
-        final BitAddressableByteRegister SCON = this.state.sfrs.SCON;
-        final BitAddressableByteRegister IP   = this.state.sfrs.IP;
-
-        final boolean[] interruptRequests = {
-                EX0 && TCON.getBit(1), // external interrupt 0 (IE0)
-                ET0 && TCON.getBit(5), // timer 0 overflow (TF0)
-                EX1 && TCON.getBit(3), // external interrupt 1 (IE1)
-                ET1 && TCON.getBit(7), // timer 1 overflow (TF1)
-                ES  && (SCON.getBit(0) || SCON.getBit(1)) // SCON.1 is TI (set when a byte has been transmitted
-                                                          // through the serial port)
-                                                          // SCON.0 is RI (set when a byte has been received through the
-                                                          // serial port)
-        };
-
-        // the SCON-bits aren't cleared (that's why those indexes are set to -1)
-        final int[] tconClear = { 1 /* IE0 */, 5 /* TF0 */, 3 /* IE1 */, 7 /* TF1 */, -1, -1 };
-
-        final boolean[] priorities = {
-                IP.getBit(0), // external interrupt 0 priority
-                IP.getBit(1), // timer 0 interrupt priority
-                IP.getBit(2), // external interrupt 1 priority
-                IP.getBit(3), // timer 1 interrupt priority
-                IP.getBit(4)  // serial interrupt priority
-        };
-
-        boolean priority = true; // check high priority interrupts first
-        for (int helper = 0, i = 0; helper < 8; ++helper, i = helper % 4, priority = helper < 4) {
-            if (priority != priorities[i]) continue;
-            if (interruptRequests[i] && (priority || this.state.runningInterruptPriority == -1)) {
-                // if we made it this far, we can execute our interrupt
-                if (tconClear[i] >= 0) TCON.setBit(false, tconClear[i]); // clear request flag if necessary
-                this.state.runningInterruptPriority = priority ? 1 : 0;
-                if (this.state.runningInterruptPriority == 0)
-                    this.state.runningInterruptInterruptedOtherInterrupt = true;
-                interruptJump((char)(3 + i * 8));
-                break; // we can only execute one interrupt at a time
-            }
-        }
+        // bit i is set if interrupt i is requested and enabled (the bits in IE and IP have the same order)
+        int requests = INTERRUPT_REQUESTS[this.state.sfrs.TCON.getValue() & 0xFF];
+        if ((this.state.sfrs.SCON.getValue() & 0x03) != 0) requests |= 1 << SERIAL_INTERRUPT; // TI or RI
+        requests &= ie;
+        if (requests == 0) return;
+
+        final int ip = this.state.sfrs.IP.getValue();
+        final boolean priority; // high priority interrupts are checked first
+        int interrupt;
+        if ((requests & ip) != 0) {
+            priority = true;
+            interrupt = Integer.numberOfTrailingZeros(requests & ip);
+        } else if (this.state.runningInterruptPriority == -1) {
+            priority = false;
+            interrupt = Integer.numberOfTrailingZeros(requests);
+        } else return;
+        // if we made it this far, we can execute our interrupt
+        // clear the request flag; TI and RI have to be cleared by the program
+        if (interrupt != SERIAL_INTERRUPT) this.state.sfrs.TCON.setBit(false, INTERRUPT_REQUEST_FLAGS[interrupt]);
+        this.state.runningInterruptPriority = priority ? 1 : 0;
+        if (this.state.runningInterruptPriority == 0)
+            this.state.runningInterruptInterruptedOtherInterrupt = true;
+        interruptJump((char)(3 + interrupt * 8));
     }
 
     /**
@@ -687,10 +1548,12 @@ public class MC8051 implements Emulator {
      * are NOT updated by this method as those features are not supported.
      */
     private void updateInterruptRequestFlags() {
-        final boolean IT0  = this.state.sfrs.TCON.getBit(0);
-        final boolean IT1  = this.state.sfrs.TCON.getBit(2);
-        final boolean P3_2 = this.state.sfrs.P3.getBit(2);
-        final boolean P3_3 = this.state.sfrs.P3.getBit(3);
+        final int tcon = this.state.sfrs.TCON.getValue() & 0xFF;
+        final int p3 = this.state.sfrs.P3.getValue();
+        final boolean IT0  = (tcon & 0x01) != 0;
+        final boolean IT1  = (tcon & 0x04) != 0;
+        final boolean P3_2 = (p3 & 0x04) != 0;
+        final boolean P3_3 = (p3 & 0x08) != 0;
         boolean IE0; // interrupt request flag of external interrupt 0; located at TCON.1
         boolean IE1; // interrupt request flag of external interrupt 1; located at TCON.3
         if (!IT0) { // external interrupt 0 (P3.2) is triggered by level (instead of transition)
@@ -703,8 +1566,8 @@ public class MC8051 implements Emulator {
         } else {
             IE1 = this.state.prevP3_3 && !P3_3; //this expression checks for a falling transition at P3.3
         }
-        this.state.sfrs.TCON.setBit(IE0, 1);
-        this.state.sfrs.TCON.setBit(IE1, 3);
+        final int newTcon = tcon & ~0x0A | (IE0 ? 0x02 : 0) | (IE1 ? 0x08 : 0);
+        if (newTcon != tcon) this.state.sfrs.TCON.setValue((byte)newTcon);
         this.state.prevP3_2 = P3_2;
         this.state.prevP3_3 = P3_3;
     }
@@ -729,13 +1592,22 @@ public class MC8051 implements Emulator {
      */
     private byte getDirectAddress(byte address) throws IndexOutOfBoundsException {
         if ((address & 0xFF) < 0x80) //if the address in in the directly addressable part of the internal RAM
-            return this.state.internalRAM.get(address & 0xFF);
+            return getInternalByte(address & 0xFF);
         else {
+            if ((address & 0xFF) >= 0x88 && (address & 0xFF) <= 0x8D) synchronizeTimers(); //TCON, TMOD, TLx, THx
+            if (this.devices != null) {
+                final int value = this.devices.readSfr(address & 0xFF);
+                if (value != DeviceBus.UNMAPPED) {
+                    if (this.watchpoints != null) this.watchpoints.check(Watchpoints.Space.SFR, address & 0xFF, false);
+                    return (byte) value;
+                }
+            }
             if (!this.state.sfrs.hasAddress(address)) {
                 int pcOfThisInstruction = this.state.PCH.getValue() << 8 & 0xFF00 | this.state.PCL.getValue() & 0xFF;
                 throw new IndexOutOfBoundsException("Illegal address used at " + pcOfThisInstruction + ": "
                         + (address & 0xFF));
             }
+            if (this.watchpoints != null) this.watchpoints.check(Watchpoints.Space.SFR, address & 0xFF, false);
             return this.state.sfrs.get(address & 0xFF);
         }
     }
@@ -752,38 +1624,32 @@ public class MC8051 implements Emulator {
      */
     private void setDirectAddress(byte address, byte value) throws IndexOutOfBoundsException {
         if ((address & 0xFF) < 0x80) //if the address in in the directly addressable part of the internal RAM
-            this.state.internalRAM.set(address & 0xFF, value);
-        else
+            setInternalByte(address & 0xFF, value);
+        else {
+            if ((address & 0xFF) >= 0x88 && (address & 0xFF) <= 0x8D) synchronizeTimers(); //TCON, TMOD, TLx, THx
+            if (this.watchpoints != null) this.watchpoints.check(Watchpoints.Space.SFR, address & 0xFF, true);
+            if (this.devices != null && this.devices.writeSfr(address & 0xFF, value)) return;
             this.state.sfrs.getRegister(address).setValue(value);
+        }
     }
 
     /**
-     * Decode a bit address into a direct address and a bit mask.
+     * Decode a bit address into the direct address of the byte containing the bit.
+     * The bit's mask within that byte is {@code 1 << (bitAddress & 7)}.
      * @param bitAddress
      *     the bit address to be decoded; must be valid
      * @return
-     *     a {@code BitAddress} object containing the direct address of the byte containing the specified bit and a
-     *     bit mask for the bit
+     *     the direct address of the byte containing the specified bit
      * @throws IndexOutOfBoundsException
      *     when given an invalid bit address
      */
-    private BitAddress decodeBitAddress(byte bitAddress) throws IndexOutOfBoundsException {
-        int address = bitAddress & 0xFF; //trying to prevent strange behaviour with negative bytes...
-        int retAddress;
-        byte retBitMask;
-
-        if (address < 0x80) { //the address is in the lower part of the internal RAM
-            final int START_OF_BIT_MEMORY = 0x20;
-            retAddress = START_OF_BIT_MEMORY + address / 8;
-        } else {
-            byte tmpAddress = (byte)(address -  address % 8);
-            //we cannot just return the calculated address, because the SFR might not exist
-            ByteRegister tmp = this.state.sfrs.getRegister(tmpAddress);
-            retAddress = this.state.sfrs.getAddress(tmp);
-        }
-
-        retBitMask = (byte)(1 << (address % 8)); // in the bit mask, only the addressed bit will be set
-        return new BitAddress((byte)retAddress, retBitMask);
+    private byte decodeBitAddress(byte bitAddress) throws IndexOutOfBoundsException {
+        final byte address = BIT_ADDRESS_BYTES[bitAddress & 0xFF];
+        //the SFR might not exist; in this case, getRegister() creates it (and may throw an exception)
+        if ((bitAddress & 0x80) != 0 && !this.state.sfrs.hasAddress(address)
+                && (this.devices == null || this.devices.getSfrMapping(address & 0xFF) == null))
+            this.state.sfrs.getRegister(address);
+        return address;
     }
 
     /**
@@ -795,8 +1661,7 @@ public class MC8051 implements Emulator {
      * @see #decodeBitAddress(byte)
      */
     boolean getBit(byte bitAddress) {
-        BitAddress tmp = decodeBitAddress(bitAddress);
-        return (getDirectAddress(tmp.DIRECT_ADDRESS) & tmp.BIT_MASK) == tmp.BIT_MASK;
+        return (getDirectAddress(decodeBitAddress(bitAddress)) & 1 << (bitAddress & 7)) != 0;
     }
 
     /**
@@ -808,11 +1673,10 @@ public class MC8051 implements Emulator {
      * @see #decodeBitAddress(byte)
      */
     void setBit(boolean bit, byte bitAddress) {
-        BitAddress tmp = decodeBitAddress(bitAddress);
-        byte b = getDirectAddress(tmp.DIRECT_ADDRESS);
-        if (bit) b |= tmp.BIT_MASK & 0xFF;
-        else b &= ~(tmp.BIT_MASK & 0xFF);
-        setDirectAddress(tmp.DIRECT_ADDRESS, b);
+        final byte address = decodeBitAddress(bitAddress);
+        final int mask = 1 << (bitAddress & 7);
+        final byte b = getDirectAddress(address);
+        setDirectAddress(address, (byte)(bit ? b | mask : b & ~mask));
     }
 
     private void jumpToOffset(byte offset) {
@@ -835,7 +1699,7 @@ public class MC8051 implements Emulator {
      */
     private byte _pop(boolean exceptionOnUnderflow) throws IllegalStateException {
         int resultingAddress = this.state.sfrs.SP.getValue() & 0xFF;
-        byte result = this.state.internalRAM.get(resultingAddress);
+        byte result = getInternalByte(resultingAddress);
         --resultingAddress;
         this.state.sfrs.SP.setValue((byte)resultingAddress);
         if (resultingAddress < 0 && exceptionOnUnderflow && !this.state.ignoreSOSU)
@@ -1005,6 +1869,21 @@ public class MC8051 implements Emulator {
         return 1;
     }
 
+    /**
+     * <b>Increment (R Register)</b><br>
+     * Increment an R register by one. The R register is accessed through the internal RAM, so that watchpoints
+     * see the access.
+     * @param ordinal
+     *     the R register to be used (E.g. '5' implies R5)
+     * @return
+     *     the number of cycles (1)
+     */
+    private int inc_r(int ordinal) {
+        final int address = this.state.getRAddress(ordinal);
+        setInternalByte(address, (byte)(getInternalByte(address) + 1));
+        return 1;
+    }
+
     /**
      * <b>Increment (Direct Address)</b><br>
      * Increment the byte at the direct address by one.
@@ -1031,8 +1910,8 @@ public class MC8051 implements Emulator {
      *     the number of cycles (1)
      */
     private int inc_indirect(byte indirectAddress) {
-        this.state.internalRAM.set(indirectAddress & 0xFF,
-                (byte)(this.state.internalRAM.get(indirectAddress & 0xFF) + 1));
+        setInternalByte(indirectAddress & 0xFF,
+                (byte)(getInternalByte(indirectAddress & 0xFF) + 1));
         return 1;
     }
 
@@ -1063,6 +1942,21 @@ public class MC8051 implements Emulator {
         return 1;
     }
 
+    /**
+     * <b>Decrement (R Register)</b><br>
+     * Decrement an R register by one. The R register is accessed through the internal RAM, so that watchpoints
+     * see the access.
+     * @param ordinal
+     *     the R register to be used (E.g. '5' implies R5)
+     * @return
+     *     the number of cycles (1)
+     */
+    private int dec_r(int ordinal) {
+        final int address = this.state.getRAddress(ordinal);
+        setInternalByte(address, (byte)(getInternalByte(address) - 1));
+        return 1;
+    }
+
     /**
      * <b>Decrement (Direct Address)</b><br>
      * Decrement the byte at the direct address by one.
@@ -1090,8 +1984,8 @@ public class MC8051 implements Emulator {
      *     the number of cycles (1)
      */
     private int dec_indirect(byte indirectAddress) {
-        this.state.internalRAM.set(indirectAddress & 0xFF,
-                (byte)(this.state.internalRAM.get(indirectAddress & 0xFF) - 1));
+        setInternalByte(indirectAddress & 0xFF,
+                (byte)(getInternalByte(indirectAddress & 0xFF) - 1));
         return 1;
     }
 
@@ -1306,7 +2200,7 @@ public class MC8051 implements Emulator {
      */
     private int push(byte value) throws IllegalStateException {
         int resultingAddress = (this.state.sfrs.SP.getValue() & 0xFF) + 1;
-        this.state.internalRAM.set(resultingAddress & 0xFF, value);
+        setInternalByte(resultingAddress & 0xFF, value);
         this.state.sfrs.SP.setValue((byte)resultingAddress);
         if (resultingAddress > 0xFF && !this.state.ignoreSOSU)
             //TODO: Log exception
@@ -1363,7 +2257,7 @@ public class MC8051 implements Emulator {
      * @see #add_immediate(byte)
      */
     private int add_indirect(byte indirectAddress) {
-        return add_immediate(this.state.internalRAM.get(indirectAddress & 0xFF));
+        return add_immediate(getInternalByte(indirectAddress & 0xFF));
     }
 
     /**
@@ -1416,7 +2310,7 @@ public class MC8051 implements Emulator {
      * @see #addc_immediate(byte)
      */
     private int addc_indirect(byte indirectAddress) {
-        return addc_immediate(this.state.internalRAM.get(indirectAddress & 0xFF));
+        return addc_immediate(getInternalByte(indirectAddress & 0xFF));
     }
 
     /**
@@ -1482,7 +2376,7 @@ public class MC8051 implements Emulator {
      * @see #subb_immediate(byte)
      */
     private int subb_indirect(byte indirectAddress) {
-        return subb_immediate(this.state.internalRAM.get(indirectAddress & 0xFF));
+        return subb_immediate(getInternalByte(indirectAddress & 0xFF));
     }
 
     /**
@@ -1554,7 +2448,7 @@ public class MC8051 implements Emulator {
      * @see #orl(byte, byte)
      */
     private int orl_a_immediate(byte immediateValue) {
-        orl(this.state.sfrs.getAddress(this.state.sfrs.A), immediateValue);
+        this.state.sfrs.A.setValue((byte)(this.state.sfrs.A.getValue() | immediateValue));
         return 1;
     }
 
@@ -1581,7 +2475,7 @@ public class MC8051 implements Emulator {
      * @see #orl_a_immediate(byte)
      */
     private int orl_a_indirect(byte indirectAddress) {
-        return orl_a_immediate(this.state.internalRAM.get(indirectAddress & 0xFF));
+        return orl_a_immediate(getInternalByte(indirectAddress & 0xFF));
     }
 
     /**
@@ -1647,7 +2541,7 @@ public class MC8051 implements Emulator {
      * @see #xrl(byte, byte)
      */
     private int xrl_a_immediate(byte immediateValue) {
-        xrl(this.state.sfrs.getAddress(this.state.sfrs.A), immediateValue);
+        this.state.sfrs.A.setValue((byte)(this.state.sfrs.A.getValue() ^ immediateValue));
         return 1;
     }
 
@@ -1674,7 +2568,7 @@ public class MC8051 implements Emulator {
      * @see #xrl_a_immediate(byte)
      */
     private int xrl_a_indirect(byte indirectAddress) {
-        return xrl_a_immediate(this.state.internalRAM.get(indirectAddress & 0xFF));
+        return xrl_a_immediate(getInternalByte(indirectAddress & 0xFF));
     }
 
     /**
@@ -1722,7 +2616,7 @@ public class MC8051 implements Emulator {
      * @see #anl(byte, byte)
      */
     private int anl_a_immediate(byte immediateValue) {
-        anl(this.state.sfrs.getAddress(this.state.sfrs.A), immediateValue);
+        this.state.sfrs.A.setValue((byte)(this.state.sfrs.A.getValue() & immediateValue));
         return 1;
     }
 
@@ -1749,7 +2643,7 @@ public class MC8051 implements Emulator {
      * @see #anl_a_immediate(byte)
      */
     private int anl_a_indirect(byte indirectAddress) {
-        return anl_a_immediate(this.state.internalRAM.get(indirectAddress & 0xFF));
+        return anl_a_immediate(getInternalByte(indirectAddress & 0xFF));
     }
 
     /**
@@ -1780,7 +2674,7 @@ public class MC8051 implements Emulator {
      *     the number of cycles (1)
      */
     private int mov_indirect_immediate(byte indirectAddress, byte immediateValue) {
-        this.state.internalRAM.set(indirectAddress & 0xFF, immediateValue);
+        setInternalByte(indirectAddress & 0xFF, immediateValue);
         return 1;
     }
 
@@ -1820,7 +2714,7 @@ public class MC8051 implements Emulator {
      *     the number of cycles (1)
      */
     private int mov_a_immediate(byte immediateValue) {
-        mov_direct_immediate(this.state.sfrs.getAddress(this.state.sfrs.A), immediateValue);
+        this.state.sfrs.A.setValue(immediateValue);
         return 1;
     }
 
@@ -1832,7 +2726,7 @@ public class MC8051 implements Emulator {
      *     the number of cycles (1)
      */
     private int mov_a_indirect(byte indirectAddress) {
-        return mov_a_immediate(this.state.internalRAM.get(indirectAddress & 0xFF));
+        return mov_a_immediate(getInternalByte(indirectAddress & 0xFF));
     }
 
     /**
@@ -1900,7 +2794,7 @@ public class MC8051 implements Emulator {
      *     the number of cycles (2)
      */
     private int mov_direct_indirect(byte directAddress, byte indirectAddress) {
-        mov_direct_immediate(directAddress, this.state.internalRAM.get(indirectAddress & 0xFF));
+        mov_direct_immediate(directAddress, getInternalByte(indirectAddress & 0xFF));
         return 2;
     }
 
@@ -1929,7 +2823,7 @@ public class MC8051 implements Emulator {
      *     the number of cycles (1)
      */
     private int mov_r_immediate(int ordinal, byte immediateValue) {
-        this.state.internalRAM.set(this.state.getRAddress(ordinal), immediateValue);
+        setInternalByte(this.state.getRAddress(ordinal), immediateValue);
         return 1;
     }
 
@@ -1984,9 +2878,7 @@ public class MC8051 implements Emulator {
      *     the number of cycles (2)
      */
     private int movx_indirect_a(byte indirectAddress) {
-        if (null != this.state.externalRAM)
-            this.state.externalRAM.set(indirectAddress & 0xFF, this.state.sfrs.A.getValue());
-        else if (!this.state.ignoreExceptions) throw new IllegalStateException("no external RAM, but MOVX was used");
+        setExternalByte(indirectAddress & 0xFF, this.state.sfrs.A.getValue());
         //TODO: Log exception
         return 2;
     }
@@ -1998,9 +2890,7 @@ public class MC8051 implements Emulator {
      */
     private int movx_dptr_a() {
         final int address = this.state.sfrs.DPH.getValue() << 8 & 0xFF00 | this.state.sfrs.DPL.getValue() & 0xFF;
-        if (null != this.state.externalRAM)
-            this.state.externalRAM.set(address, this.state.sfrs.A.getValue());
-        else if (!this.state.ignoreExceptions) throw new IllegalStateException("no external RAM, but MOVX was used");
+        setExternalByte(address, this.state.sfrs.A.getValue());
         //TODO: Log exception
         return 2;
     }
@@ -2014,9 +2904,7 @@ public class MC8051 implements Emulator {
      */
     private int movx_a_indirect(byte indirectAddress) {
         this.state.sfrs.A.setValue((byte)0);
-        if (null != this.state.externalRAM)
-            this.state.sfrs.A.setValue(this.state.externalRAM.get(indirectAddress & 0xFF));
-        else if (!this.state.ignoreExceptions) throw new IllegalStateException("no external RAM, but MOVX was used");
+        this.state.sfrs.A.setValue(getExternalByte(indirectAddress & 0xFF));
         //TODO: Log exception
         return 2;
     }
@@ -2029,9 +2917,7 @@ public class MC8051 implements Emulator {
     private int movx_a_dptr() {
         final int address = this.state.sfrs.DPH.getValue() << 8 & 0xFF00 | this.state.sfrs.DPL.getValue() & 0xFF;
         this.state.sfrs.A.setValue((byte)0);
-        if (null != this.state.externalRAM)
-            this.state.sfrs.A.setValue(this.state.externalRAM.get(address));
-        else if (!this.state.ignoreExceptions) throw new IllegalStateException("no external RAM, but MOVX was used");
+        this.state.sfrs.A.setValue(getExternalByte(address));
         //TODO: Log exception
         return 2;
     }
@@ -2159,7 +3045,7 @@ public class MC8051 implements Emulator {
      *     the number of cycles (2)
      */
     private int cjne_indirect_immediate(byte indirectAddress, byte immediateValue, byte offset) {
-        return _cjne(this.state.internalRAM.get(indirectAddress & 0xFF), immediateValue, offset);
+        return _cjne(getInternalByte(indirectAddress & 0xFF), immediateValue, offset);
     }
 
     /**
@@ -2259,8 +3145,8 @@ public class MC8051 implements Emulator {
      */
     private int xch_a_indirect(byte indirectAddress) {
         final byte a = this.state.sfrs.A.getValue();
-        this.state.sfrs.A.setValue(this.state.internalRAM.get(indirectAddress & 0xFF));
-        this.state.internalRAM.set(indirectAddress & 0xFF, a);
+        this.state.sfrs.A.setValue(getInternalByte(indirectAddress & 0xFF));
+        setInternalByte(indirectAddress & 0xFF, a);
         return 1;
     }
 
@@ -2389,9 +3275,9 @@ public class MC8051 implements Emulator {
      */
     private int xchd_a(byte indirectAddress) {
         final byte a = this.state.sfrs.A.getValue();
-        final byte b = this.state.internalRAM.get(indirectAddress & 0xFF);
+        final byte b = getInternalByte(indirectAddress & 0xFF);
         this.state.sfrs.A.setValue((byte)(a & 0xF0 | b & 0xF));
-        this.state.internalRAM.set(indirectAddress & 0xFF, (byte)(b & 0xF0 | a & 0xF));
+        setInternalByte(indirectAddress & 0xFF, (byte)(b & 0xF0 | a & 0xF));
         return 1;
     }
 
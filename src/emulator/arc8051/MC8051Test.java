@@ -1,15 +1,38 @@
 package emulator.arc8051;
 
+import emulator.Breakpoints;
 import emulator.ByteRegister;
+import emulator.Coverage;
+import emulator.Device;
+import emulator.DeviceBus;
 import emulator.EmulatorException;
+import emulator.EmulatorFarm;
 import emulator.FlagRegister;
+import emulator.HexReader;
+import emulator.MappedRAM;
+import emulator.MappedROM;
+import emulator.InputLog;
+import emulator.PagedRAM;
+import emulator.Profiler;
 import emulator.RAM;
+import emulator.ROM;
+import emulator.RealTimePacer;
+import emulator.RunResult;
+import emulator.Watchpoints;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.beans.PropertyChangeEvent;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Random;
 import java.util.function.BooleanSupplier;
 
@@ -1217,6 +1240,37 @@ public class MC8051Test {
                 && testController.state.sfrs.TCON.getBit(7)); // bit 7 is TF1
     }
 
+    @Test
+    public void testTimersInBatch() throws EmulatorException {
+        System.out.println("__________Testing Timers in a batch....");
+        final RAM rom = (RAM) testController.getCodeMemory();
+        // 0x00: JNB TF0, 0x00; 0x03: MOV A, TL0; 0x05: SJMP 0x05
+        rom.set(0, (byte)0x30);
+        rom.set(1, (byte)0x8D);
+        rom.set(2, (byte)-3);
+        rom.set(3, (byte)0xE5);
+        rom.set(4, (byte)0x8A);
+        rom.set(5, (byte)0x80);
+        rom.set(6, (byte)-2);
+        testController.state.sfrs.TMOD.setValue((byte)0x01); //timer 0 counts cycles as a 16-bit counter
+        testController.state.sfrs.TH0.setValue((byte)0xFF);
+        testController.state.sfrs.TL0.setValue((byte)0x00);
+        testController.state.sfrs.TCON.setBit(true, 4); //TR0
+        final RunResult result = testController.runUntilAddress(5, 10000);
+        assertTrue(result.stopReason == RunResult.StopReason.BREAKPOINT);
+        // JNB takes 2 cycles, so the timer overflows during the 128th JNB and the 129th JNB does not jump
+        assertTrue(result.instructions == 130 && result.cycles == 259);
+        assertTrue(testController.state.sfrs.TCON.getBit(5)); //TF0
+        assertTrue(A.getValue() == 2);
+        assertTrue(testController.state.sfrs.TH0.getValue() == 0 && testController.state.sfrs.TL0.getValue() == 3);
+        // mode 0: TL0 only uses 5 bits
+        testController.state.sfrs.TMOD.setValue((byte)0x00);
+        testController.state.sfrs.TH0.setValue((byte)0x10);
+        testController.state.sfrs.TL0.setValue((byte)0x00);
+        testController.runFor(100);
+        assertTrue(testController.state.sfrs.TH0.getValue() == 0x13 && testController.state.sfrs.TL0.getValue() == 4);
+    }
+
     @Test
     public void testUpdateInterruptRequestFlags() {
         System.out.println("__________Testing interrupt flag updates...");
@@ -1298,12 +1352,83 @@ public class MC8051Test {
         assertTrue((PCH.getValue() << 8 & 0xFF00 | PCL.getValue() & 0xFF) == 0x5);
         for (int i = 0; i < 4; ++i) testController.next();
         assertTrue((PCH.getValue() << 8 & 0xFF00 | PCL.getValue() & 0xFF) == 0x22);
+        byte[] program3 = {
+                /* 0x0  */         0x75, (byte)0xA8, (byte)0x90, // mov ie, #90h ; ea and es
+                /* 0x3  */   (byte)0xD2, (byte)0x99,            // setb ti
+                /* 0x5  */   (byte)0x80, (byte)0xFE,            // endlabel: sjmp endlabel
+        };
+        this.setUp();
+        rom = (RAM)this.testController.getCodeMemory();
+        for (int address = 0; address < program3.length; ++address) rom.set(address, program3[address]);
+        rom.set(0x23, (byte)0xC2); // clr ti ; (org 23h)
+        rom.set(0x24, (byte)0x99);
+        rom.set(0x25, (byte)0x32); // reti
+        for (int i = 0; i < 2; ++i) testController.next();
+        assertTrue((PCH.getValue() << 8 & 0xFF00 | PCL.getValue() & 0xFF) == 0x23);
+        for (int i = 0; i < 3; ++i) testController.next();
+        assertTrue((PCH.getValue() << 8 & 0xFF00 | PCL.getValue() & 0xFF) == 0x5);
+        assertTrue(this.testController.state.sfrs.SCON.getValue() == 0);
     }
 
     @Test
     public void testXmlSerialization() throws IOException {
         System.out.println("__________Testing serialization to XML...");
-        // generate some state
+        generateRandomState();
+        Path p = Paths.get("/tmp/" + r.nextInt(9000) + ".b8eSerializationTest.xml");
+        System.out.println("test path: "+p);
+        testController.saveStateTo(p);
+        State8051 restoredState = new MC8051(p).state;
+        assertTrue("failed serialization test", testController.state.equals(restoredState));
+        assertTrue("sfr map not updated after deserialization",
+                restoredState.sfrs.B == restoredState.sfrs.getRegister((byte)0xf0)
+                && restoredState.sfrs.PSW == restoredState.sfrs.getRegister((byte)0xd0)
+        );
+    }
+
+    @Test
+    public void testBinarySerialization() throws IOException {
+        System.out.println("__________Testing serialization to binary snapshots...");
+        generateRandomState();
+        testController.state.runningInterruptPriority = 1;
+        for (boolean compress : new boolean[] {false, true}) {
+            Path p = Paths.get("/tmp/" + r.nextInt(9000) + ".b8eSerializationTest");
+            System.out.println("test path: "+p);
+            testController.saveStateTo(p, compress);
+            assertTrue("zero pages are stored", Files.size(p) < 4096);
+            State8051 restoredState = new MC8051(p).state;
+            assertTrue("failed serialization test", testController.state.equals(restoredState));
+            assertTrue(restoredState.runningInterruptPriority == 1);
+            assertTrue(restoredState.codeMemory instanceof PagedRAM && restoredState.externalRAM instanceof PagedRAM);
+            assertTrue(restoredState.R3.getValue() == testController.state.R3.getValue());
+            assertTrue("sfr map not updated after deserialization",
+                    restoredState.sfrs.B == restoredState.sfrs.getRegister((byte)0xf0)
+                    && restoredState.sfrs.PSW == restoredState.sfrs.getRegister((byte)0xd0)
+            );
+            Files.delete(p);
+        }
+    }
+
+    @Test
+    public void testBinarySerializationOfSharedMemory() throws IOException {
+        System.out.println("__________Testing binary snapshots of shared code memory and external RAM...");
+        final PagedRAM memory = new PagedRAM(65536);
+        memory.set(0x1234, (byte)0x56);
+        final MC8051 controller = new MC8051(memory, memory);
+        final Path p = Files.createTempFile("b8eSerializationTest", null);
+        try {
+            controller.saveStateTo(p, false);
+            assertTrue("shared memory is stored once", Files.size(p) < 1024);
+            final State8051 restoredState = new MC8051(p).state;
+            assertTrue(restoredState.externalRAM == restoredState.codeMemory);
+            assertTrue(restoredState.codeMemory.get(0x1234) == 0x56);
+            restoredState.externalRAM.set(0x1235, (byte)0x78);
+            assertTrue(restoredState.codeMemory.get(0x1235) == 0x78);
+        } finally {
+            Files.delete(p);
+        }
+    }
+
+    private void generateRandomState() {
         testController.state.PCH.setValue((byte)r.nextInt(256));
         testController.state.PCL.setValue((byte)r.nextInt(256));
         testController.state.R7.setValue((byte)r.nextInt(256));
@@ -1322,15 +1447,650 @@ public class MC8051Test {
         testController.state.sfrs.DPH.setValue((byte)r.nextInt(256));
         testController.state.sfrs.P2.setBit(true, r.nextInt(8));
         testController.state.sfrs.TMOD.setValue((byte)r.nextInt(256));
-        Path p = Paths.get("/tmp/" + r.nextInt(9000) + ".b8eSerializationTest");
-        System.out.println("test path: "+p);
-        testController.saveStateTo(p);
-        State8051 restoredState = new MC8051(p).state;
-        assertTrue("failed serialization test", testController.state.equals(restoredState));
-        assertTrue("sfr map not updated after deserialization",
-                restoredState.sfrs.B == restoredState.sfrs.getRegister((byte)0xf0)
-                && restoredState.sfrs.PSW == restoredState.sfrs.getRegister((byte)0xd0)
-        );
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testSfrLookup() {
+        System.out.println("__________Testing SFR lookup...");
+        final State8051.SpecialFunctionRegisters sfrs = testController.state.sfrs;
+        assertTrue(sfrs.getAddress(sfrs.A) == (byte)0xE0 && sfrs.getAddress(sfrs.PCON) == (byte)0x87);
+        assertTrue(sfrs.hasAddress((byte)0x81) && !sfrs.hasAddress((byte)0x84) && !sfrs.hasAddress((byte)0x20));
+        assertTrue(sfrs.getRegister((byte)0xD0) == sfrs.PSW);
+        final byte[] bytes = sfrs.get(0x80, 4);
+        assertTrue(bytes[0] == (byte)0xFF && bytes[1] == 7 && bytes[2] == 0 && bytes[3] == 0);
+        int count = 0;
+        for (Byte b : sfrs) if (b != null) ++count;
+        assertTrue(count == 21);
+    }
+
+    @Test
+    public void testRun() throws EmulatorException {
+        System.out.println("__________Testing run...");
+        final RAM rom = (RAM) testController.getCodeMemory();
+        // 0x00: INC A; 0x01: INC R0; 0x02: SJMP 0x00
+        rom.set(0, (byte)0x04);
+        rom.set(1, (byte)0x08);
+        rom.set(2, (byte)0x80);
+        rom.set(3, (byte)-4);
+        RunResult result = testController.runFor(40);
+        assertTrue(result.stopReason == RunResult.StopReason.CYCLE_LIMIT);
+        assertTrue(result.cycles == 40 && result.instructions == 30);
+        assertTrue(A.getValue() == 10 && testController.state.R0.getValue() == 10);
+
+        result = testController.runUntilAddress(2, 1000);
+        assertTrue(result.stopReason == RunResult.StopReason.BREAKPOINT);
+        assertTrue(result.instructions == 2 && testController.getProgramCounter() == 2);
+
+        result = testController.runUntil(() -> A.getValue() == 20, 1000);
+        assertTrue(result.stopReason == RunResult.StopReason.CONDITION);
+        assertTrue(testController.getProgramCounter() == 1);
+    }
+
+    @Test
+    public void testSelfModifyingCode() throws EmulatorException {
+        System.out.println("__________Testing run with self-modifying code...");
+        final RAM memory = new RAM(65536); // code memory and external RAM are the same
+        final MC8051 controller = new MC8051(memory, memory);
+        // 0x00: MOVX @DPTR, A; 0x01: NOP; 0x02: SJMP 0x00
+        memory.set(0, (byte)0xF0);
+        memory.set(1, (byte)0x00);
+        memory.set(2, (byte)0x80);
+        memory.set(3, (byte)-4);
+        controller.state.sfrs.A.setValue((byte)0x04); // INC A
+        controller.state.sfrs.DPL.setValue((byte)0x10);
+        controller.runUntilAddress(0, 1000);
+        assertTrue(controller.state.sfrs.A.getValue() == 4);
+        controller.state.sfrs.DPL.setValue((byte)0x01);
+        RunResult result = controller.runUntilAddress(0, 1000);
+        assertTrue(result.instructions == 3 && result.cycles == 5);
+        assertTrue(controller.state.sfrs.A.getValue() == 5);
+
+        // the program changes the operand of an instruction it has already executed
+        // 0x10: ADD A, #0x01; 0x12: MOVX @DPTR, A; 0x13: SJMP 0x10
+        final int[] program = {0x24, 0x01, 0xF0, 0x80, 0xFB};
+        for (int i = 0; i < program.length; ++i) memory.set(0x10 + i, (byte) program[i]);
+        controller.state.sfrs.A.setValue((byte)0);
+        controller.state.sfrs.DPL.setValue((byte)0x11);
+        controller.state.PCL.setValue((byte)0x10);
+        for (int i = 0; i < 4; ++i) controller.runUntilAddress(0x10, 1000);
+        assertTrue(controller.state.sfrs.A.getValue() == 8 && memory.get(0x11) == 8);
+    }
+
+    @Test
+    public void testCheckpoints() throws EmulatorException {
+        System.out.println("__________Testing checkpoints and forks...");
+        final PagedRAM code = new PagedRAM(65536);
+        final PagedRAM external = new PagedRAM(65536);
+        // 0x00: INC A; 0x01: MOVX @DPTR, A; 0x02: INC DPTR; 0x03: SJMP 0x00
+        code.set(0, (byte)0x04);
+        code.set(1, (byte)0xF0);
+        code.set(2, (byte)0xA3);
+        code.set(3, (byte)0x80);
+        code.set(4, (byte)-6);
+        final MC8051 controller = new MC8051(code, external);
+        controller.runFor(100);
+        final State8051 checkpoint = controller.checkpoint();
+        assertTrue(checkpoint.equals(controller.state));
+        assertTrue(code.getDirtyPageCount() == 0 && external.getDirtyPageCount() == 0);
+
+        controller.runFor(100);
+        assertTrue(external.getDirtyPageCount() == 1);
+        assertFalse(checkpoint.equals(controller.state));
+        final MC8051 fork = controller.fork();
+        final byte a = controller.state.sfrs.A.getValue();
+        controller.restore(checkpoint);
+        assertTrue(checkpoint.equals(controller.state));
+        assertTrue(fork.state.sfrs.A.getValue() == a);
+        assertTrue(fork.getSecondaryMemory().get(a - 2) == a - 1 && external.get(a - 2) == 0);
+
+        // the checkpoint is not changed by running from it and can be restored again
+        controller.runFor(300);
+        controller.restore(checkpoint);
+        assertTrue(checkpoint.equals(controller.state));
+        fork.runUntilAddress(1, 100);
+        assertTrue(fork.state.sfrs.A.getValue() == a + 1 && controller.state.sfrs.A.getValue() != a + 1);
+
+        // temporary SFRs that did not exist at the checkpoint are removed
+        controller.state.sfrs.restoreRegister((byte)0xC0, (byte)1);
+        assertTrue(controller.state.sfrs.hasAddress((byte)0xC0));
+        controller.restore(checkpoint);
+        assertFalse(controller.state.sfrs.hasAddress((byte)0xC0));
+        assertTrue(controller.getRegisters().size() == checkpoint.getRegisters().size());
+    }
+
+    @Test
+    public void testStepBack() throws EmulatorException {
+        System.out.println("__________Testing stepping backwards...");
+        final PagedRAM code = new PagedRAM(65536);
+        // 0x00: MOV TMOD, #0x01; 0x03: SETB TR0; 0x05: INC A; 0x06: MOVX @DPTR, A; 0x07: INC DPTR;
+        // 0x08: ADD A, TL0; 0x0A: SJMP 0x05
+        final int[] program = {0x75, 0x89, 0x01, 0xD2, 0x8C, 0x04, 0xF0, 0xA3, 0x25, 0x8A, 0x80, -7};
+        for (int i = 0; i < program.length; ++i) code.set(i, (byte) program[i]);
+        final MC8051 controller = new MC8051(code, new PagedRAM(65536));
+        assertFalse(controller.canStepBack());
+        controller.setRecordHistory(true);
+        controller.runUntil(() -> controller.getInstructionCount() == 15000, Long.MAX_VALUE);
+        final State8051 expected = controller.checkpoint();
+        controller.runUntil(() -> controller.getInstructionCount() == 32000, Long.MAX_VALUE);
+        final State8051 expectedLater = controller.checkpoint();
+        assertTrue(controller.canStepBack());
+
+        assertTrue(controller.stepBack(17000) == 17000);
+        assertTrue(controller.getInstructionCount() == 15000 && controller.state.equals(expected));
+        controller.runUntil(() -> controller.getInstructionCount() == 32000, Long.MAX_VALUE);
+        assertTrue(controller.state.equals(expectedLater));
+
+        final BitSet breakpoints = new BitSet();
+        breakpoints.set(0x08);
+        final long back = controller.runBackwards(breakpoints);
+        assertTrue(back > 0 && back < 6 && controller.getProgramCounter() == 0x08);
+        assertTrue(controller.stepBack(Long.MAX_VALUE) == 32000 - back);
+        assertFalse(controller.canStepBack());
+        assertTrue(controller.getProgramCounter() == 0 && controller.state.sfrs.A.getValue() == 0);
+
+        // a change made between two checkpoints must survive going back to an instruction after it
+        controller.runUntil(() -> controller.getInstructionCount() == 12345, Long.MAX_VALUE);
+        controller.state.sfrs.A.setValue((byte) 0x42);
+        controller.state.internalRAM.set(0x30, (byte) 0x42);
+        controller.recordExternalChange();
+        final State8051 changed = controller.checkpoint();
+        controller.runUntil(() -> controller.getInstructionCount() == 12400, Long.MAX_VALUE);
+        assertTrue(controller.stepBack(55) == 55 && controller.state.equals(changed));
+        assertTrue(controller.state.internalRAM.get(0x30) == 0x42);
+    }
+
+    @Test
+    public void testInputReplay() throws EmulatorException, IOException {
+        System.out.println("__________Testing input logs...");
+        final RAM code = new RAM(65536);
+        // 0x00: MOV A, P1; 0x02: MOVX @DPTR, A; 0x03: INC DPTR; 0x04: SJMP 0x00
+        final int[] program = {0xE5, 0x90, 0xF0, 0xA3, 0x80, -6};
+        for (int i = 0; i < program.length; ++i) code.set(i, (byte) program[i]);
+        final MC8051 recorded = new MC8051(code, new RAM(65536));
+        final InputLog log = new InputLog();
+        recorded.runFor(100);
+        recorded.state.sfrs.P1.setValue((byte)0x12);
+        log.record(recorded.getCycleCount(), recorded.state.sfrs.P1);
+        recorded.runFor(50);
+        recorded.state.sfrs.P1.setValue((byte)0x34);
+        log.record(recorded.getCycleCount(), recorded.state.sfrs.P1);
+        recorded.runFor(100);
+        assertTrue(log.getEntries().size() == 2 && recorded.getCycleCount() >= 250);
+
+        final Path p = Files.createTempFile("b8eInputLog", ".txt");
+        log.saveTo(p);
+        final InputLog loaded = InputLog.loadFrom(p);
+        Files.delete(p);
+        final MC8051 replayed = new MC8051(code, new RAM(65536));
+        final RunResult result = loaded.replay(replayed, recorded.getCycleCount());
+        assertTrue(result.cycles == recorded.getCycleCount());
+        assertTrue(replayed.getCycleCount() == recorded.getCycleCount() && replayed.state.equals(recorded.state));
+    }
+
+    @Test
+    public void testFarm() {
+        System.out.println("__________Testing the emulator farm...");
+        // 0x00: INC A; 0x01: MOVX @DPTR, A; 0x02: INC DPTR; 0x03: SJMP 0x00; 0x05: undefined instruction
+        final int[] program = {0x04, 0xF0, 0xA3, 0x80, -6, 0xA5};
+        final Configuration8051 ignoreAll = new Configuration8051(false, false, true, false);
+        final List<EmulatorFarm.Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            final int start = i % 2 == 0 ? 0 : 5;
+            jobs.add(new EmulatorFarm.Job("job" + i, () -> {
+                final RAM code = new RAM(65536);
+                for (int j = 0; j < program.length; ++j) code.set(j, (byte) program[j]);
+                final MC8051 emulator = new MC8051(code, new RAM(65536), start == 5 ? Configuration8051.DEFAULT
+                                                                                    : ignoreAll);
+                emulator.state.PCL.setValue((byte) start);
+                return emulator;
+            }, 1000, e -> ((MC8051) e).getSecondaryMemory().get(10) == 11));
+        }
+        try (EmulatorFarm farm = new EmulatorFarm(4)) {
+            final EmulatorFarm.Report report = farm.run(jobs);
+            System.out.println(report);
+            assertTrue(report.getOutcomes().size() == 8);
+            assertTrue(report.getPassedCount() == 4 && report.getErrorCount() == 4);
+            for (int i = 0; i < 8; ++i) {
+                final EmulatorFarm.Outcome outcome = report.getOutcomes().get(i);
+                assertTrue(outcome.name.equals("job" + i));
+                assertTrue(i % 2 == 0 ? outcome.passed && outcome.result.cycles >= 1000
+                                      : outcome.exception instanceof EmulatorException);
+            }
+        }
+    }
+
+    @Test
+    public void testRealTimePacing() throws EmulatorException {
+        System.out.println("__________Testing real time pacing...");
+        // a simulated clock where the emulator takes no time at all and waiting moves the time to the deadline
+        final long[] time = {0};
+        final int[] waits = {0};
+        final RealTimePacer.Clock clock = new RealTimePacer.Clock() {
+            @Override public long nanoTime() { return time[0]; }
+            @Override public long waitUntil(long deadline) {
+                ++waits[0];
+                time[0] = Math.max(time[0], deadline);
+                return time[0];
+            }
+        };
+        // 12 MHz: 1 machine cycle per microsecond
+        final RealTimePacer pacer = new RealTimePacer(12_000_000, testController.getClocksPerCycle(), 1_000_000,
+                clock);
+        assertTrue(pacer.getCyclesPerSecond() == 1_000_000 && pacer.getBatchCycles() == 1000);
+        pacer.start();
+        long cycles = 0;
+        while (cycles < 600_000) {
+            final RunResult result = testController.runFor(pacer.getBatchCycles());
+            cycles += result.cycles;
+            pacer.pace(result.cycles);
+        }
+        assertTrue("the emulator was not slowed down: " + time[0], time[0] == cycles * 1000);
+        assertTrue(pacer.getSpeedRatio() == 1.0);
+
+        // falling behind by more than the maximum lag drops the missing time instead of catching up
+        time[0] += RealTimePacer.MAX_LAG_NANOSECONDS + 2_000_000; // more than the lag plus the next batch
+        int waitsBefore = waits[0];
+        pacer.pace(1000);
+        assertTrue(waits[0] == waitsBefore);
+        long before = time[0];
+        pacer.pace(1000);
+        assertTrue(waits[0] == waitsBefore + 1 && time[0] - before == 1_000_000);
+
+        pacer.setTurbo(true);
+        waitsBefore = waits[0];
+        before = time[0];
+        pacer.pace(1_000_000); // one second on the real hardware
+        assertTrue(waits[0] == waitsBefore && time[0] == before);
+    }
+
+    @Test
+    public void testIdleLoops() throws EmulatorException {
+        System.out.println("__________Testing skipping idle loops...");
+        final int[][] programs = {
+                // timer 0 (mode 1) interrupt: 0x0B: INC R0; RETI
+                // 0x30: MOV TMOD, #0x01; SETB TR0; MOV IE, #0x82; SJMP $
+                {0x30, 0x75, 0x89, 0x01, 0xD2, 0x8C, 0x75, 0xA8, 0x82, 0x80, 0xFE},
+                // polling timer 0 (mode 2):
+                // 0x30: MOV TMOD, #0x02; MOV TH0, #0x38; SETB TR0; JNB TF0, $; CLR TF0; INC R1; SJMP 0x39
+                {0x30, 0x75, 0x89, 0x02, 0x75, 0x8C, 0x38, 0xD2, 0x8C, 0x30, 0x8D, 0xFD, 0xC2, 0x8D, 0x09, 0x80, 0xF8},
+                // no timers: 0x30: MOV A, #0x42; LJMP 0x0032
+                {0x30, 0x74, 0x42, 0x02, 0x00, 0x32},
+        };
+        for (int[] program : programs) {
+            final RAM code = new RAM(65536);
+            code.set(0, (byte) 0x02); // LJMP 0x0030
+            code.set(2, (byte) 0x30);
+            code.set(0x0B, (byte) 0x08); // INC R0
+            code.set(0x0C, (byte) 0x32); // RETI
+            for (int i = 1; i < program.length; ++i) code.set(program[0] + i - 1, (byte) program[i]);
+            final MC8051 skipping = new MC8051(code, null);
+            final MC8051 executing = new MC8051(code, null);
+            executing.setSkipIdleLoops(false);
+            for (long cycles : new long[] {1, 7, 1000, 123_457, 1_000_000}) {
+                final RunResult skipped = skipping.runFor(cycles);
+                final RunResult executed = executing.runFor(cycles);
+                assertTrue(skipped.cycles == executed.cycles && skipped.instructions == executed.instructions);
+                assertTrue(skipping.getCycleCount() == executing.getCycleCount());
+                assertTrue(skipping.getInstructionCount() == executing.getInstructionCount());
+                assertTrue(skipping.state.equals(executing.state));
+            }
+        }
+
+        // with the execution history, at most one interval is skipped at once, so going back stays cheap
+        final RAM code = new RAM(65536);
+        code.set(0, (byte) 0x80); // SJMP $
+        code.set(1, (byte) 0xFE);
+        final MC8051 controller = new MC8051(code, null);
+        controller.setRecordHistory(true);
+        assertTrue(controller.runFor(1_000_000).instructions == 500_000);
+        assertTrue(controller.stepBack(1) == 1 && controller.getInstructionCount() == 499_999);
+        assertTrue(controller.getCycleCount() == 999_998 && controller.getProgramCounter() == 0);
+    }
+
+    @Test
+    public void testBreakpoints() throws EmulatorException {
+        System.out.println("__________Testing breakpoints...");
+        final RAM rom = (RAM) testController.getCodeMemory();
+        // 0x00: INC A; 0x01: INC R0; 0x02: SJMP 0x00
+        rom.set(0, (byte)0x04);
+        rom.set(1, (byte)0x08);
+        rom.set(2, (byte)0x80);
+        rom.set(3, (byte)-4);
+        final Breakpoints breakpoints = new Breakpoints();
+        breakpoints.add(1);
+        assertTrue(breakpoints.run(testController, 1000, null).stopReason == RunResult.StopReason.BREAKPOINT);
+        assertTrue(breakpoints.run(testController, 1000, null).stopReason == RunResult.StopReason.BREAKPOINT);
+        assertTrue(testController.getProgramCounter() == 1 && breakpoints.getHitCount(1) == 2);
+
+        breakpoints.setEnabled(1, false);
+        breakpoints.addTemporary(2);
+        assertTrue(breakpoints.contains(1) && !breakpoints.isEnabled(1) && breakpoints.isTemporary(2));
+        breakpoints.addTemporary(1); // the permanent breakpoint is kept
+        assertTrue(!breakpoints.isEnabled(1) && !breakpoints.isTemporary(1));
+        assertTrue(breakpoints.run(testController, 1000, null).stopReason == RunResult.StopReason.BREAKPOINT);
+        assertTrue(testController.getProgramCounter() == 2 && !breakpoints.contains(2));
+        assertTrue(breakpoints.run(testController, 1000, null).stopReason == RunResult.StopReason.CYCLE_LIMIT);
+        assertTrue(breakpoints.getHitCount(1) == 2);
+
+        assertFalse(breakpoints.toggle(1));
+        assertTrue(breakpoints.getEnabled().isEmpty() && breakpoints.getHitCount(1) == 0);
+
+        // the set passed to a running emulator is a snapshot
+        final BitSet snapshot = breakpoints.getEnabled();
+        breakpoints.add(3);
+        assertTrue(snapshot.isEmpty() && breakpoints.getEnabled().get(3));
+        breakpoints.clear();
+        assertTrue(!breakpoints.contains(3) && breakpoints.getEnabled().isEmpty());
+    }
+
+    @Test
+    public void testWatchpoints() throws EmulatorException {
+        System.out.println("__________Testing watchpoints...");
+        final RAM code = new RAM(65536);
+        // 0x00: MOV 0x30, #1; 0x03: INC R0; 0x04: MOVX @DPTR, A; 0x05: INC A; 0x06: MOV A, 0x30; 0x08: SJMP $
+        final int[] program = {0x75, 0x30, 0x01, 0x08, 0xF0, 0x04, 0xE5, 0x30, 0x80, 0xFE};
+        for (int i = 0; i < program.length; ++i) code.set(i, (byte) program[i]);
+        final MC8051 controller = new MC8051(code, new RAM(65536));
+        final Watchpoints watchpoints = new Watchpoints();
+        controller.setWatchpoints(watchpoints);
+        watchpoints.add(new Watchpoints.Watchpoint(Watchpoints.Space.INTERNAL_RAM, 0x30, 0x30, false, true));
+        watchpoints.add(new Watchpoints.Watchpoint(Watchpoints.Space.INTERNAL_RAM, 0x00, 0x07, false, true));
+        watchpoints.add(new Watchpoints.Watchpoint(Watchpoints.Space.EXTERNAL_RAM, 0x0000, 0x00FF, false, true));
+        watchpoints.add(new Watchpoints.Watchpoint(Watchpoints.Space.SFR, 0xE0, 0xE0, false, true));
+        watchpoints.add(new Watchpoints.Watchpoint(Watchpoints.Space.INTERNAL_RAM, 0x30, 0x30, true, false));
+        final int[] stops = {3, 4, 5, 6, 8};
+        final Watchpoints.Space[] spaces = {Watchpoints.Space.INTERNAL_RAM, Watchpoints.Space.INTERNAL_RAM,
+                Watchpoints.Space.EXTERNAL_RAM, Watchpoints.Space.SFR, Watchpoints.Space.INTERNAL_RAM};
+        final int[] addresses = {0x30, 0x00, 0x00, 0xE0, 0x30};
+        for (int i = 0; i < stops.length; ++i) {
+            final RunResult result = controller.runFor(1000);
+            assertTrue(result.stopReason == RunResult.StopReason.WATCHPOINT && result.instructions == 1);
+            assertTrue(controller.getProgramCounter() == stops[i]);
+            assertTrue(watchpoints.getHit().space == spaces[i] && watchpoints.getHit().address == addresses[i]);
+            assertTrue(watchpoints.getHit().write == (i < 4));
+        }
+        watchpoints.remove(new Watchpoints.Watchpoint(Watchpoints.Space.INTERNAL_RAM, 0x30, 0x30, true, false));
+        assertFalse(watchpoints.isWatched(Watchpoints.Space.INTERNAL_RAM, 0x30, false));
+        assertTrue(watchpoints.isWatched(Watchpoints.Space.INTERNAL_RAM, 0x30, true));
+        watchpoints.clear();
+        assertTrue(controller.runFor(1000).stopReason == RunResult.StopReason.CYCLE_LIMIT);
+
+        // the watched SFRs are looked up again when the watchpoints change between runs
+        watchpoints.add(new Watchpoints.Watchpoint(Watchpoints.Space.SFR, 0xE0, 0xE0, false, true));
+        controller.state.PCH.setValue((byte)0);
+        controller.state.PCL.setValue((byte)0x05);
+        assertTrue(controller.runFor(1000).stopReason == RunResult.StopReason.WATCHPOINT);
+        assertTrue(controller.getProgramCounter() == 6 && watchpoints.getHit().address == 0xE0);
+    }
+
+    @Test
+    public void testProfiler() throws EmulatorException, IOException {
+        System.out.println("__________Testing the profiler...");
+        // 0x00: MOV R0, #3; 0x02: DJNZ R0, $; 0x04: SJMP $
+        final int[] program = {0x78, 0x03, 0xD8, 0xFE, 0x80, 0xFE};
+        final Profiler[] profilers = new Profiler[2];
+        for (int i = 0; i < profilers.length; ++i) {
+            final RAM code = new RAM(65536);
+            for (int j = 0; j < program.length; ++j) code.set(j, (byte) program[j]);
+            final MC8051 controller = new MC8051(code, new RAM(65536));
+            controller.setSkipIdleLoops(i == 0);
+            profilers[i] = new Profiler();
+            controller.setProfiler(profilers[i]);
+            controller.runFor(1000);
+            assertTrue(profilers[i].getTotalCycles() == controller.getCycleCount());
+            assertTrue(profilers[i].getTotalInstructions() == controller.getInstructionCount());
+        }
+        final Profiler profiler = profilers[0];
+        assertTrue(profiler.getInstructions(0) == 1 && profiler.getCycles(0) == 1);
+        assertTrue(profiler.getInstructions(2) == 3 && profiler.getCycles(2) == 6);
+        assertTrue(profiler.getInstructions(1) == 0 && profiler.getInstructions(4) > 400);
+        for (int address = 0; address < program.length; ++address)
+            assertTrue(profiler.getCycles(address) == profilers[1].getCycles(address));
+
+        final List<Profiler.Hotspot> hotspots = profiler.getHotspots(null);
+        assertTrue(hotspots.size() == 3 && hotspots.get(0).address == 4 && hotspots.get(2).address == 0);
+        final StringWriter csv = new StringWriter();
+        profiler.writeCsv(csv, hotspots);
+        assertTrue(csv.toString().split(System.lineSeparator()).length == 4);
+
+        profiler.merge(profilers[1]);
+        assertTrue(profiler.getInstructions(2) == 6);
+        profiler.clear();
+        assertTrue(profiler.getTotalCycles() == 0 && profiler.getHotspots(null).isEmpty());
+    }
+
+    @Test
+    public void testCoverage() throws EmulatorException {
+        System.out.println("__________Testing the coverage...");
+        // 0x00: JZ 0x04; 0x02: SJMP $; 0x04: INC A; 0x05: SJMP 0x00
+        final int[] program = {0x60, 0x02, 0x80, 0xFE, 0x04, 0x80, 0xF9};
+        final RAM code = new RAM(65536);
+        for (int i = 0; i < program.length; ++i) code.set(i, (byte) program[i]);
+        final MC8051 controller = new MC8051(code, new RAM(65536));
+        final Coverage coverage = new Coverage();
+        controller.setCoverage(coverage);
+        controller.next();
+        assertTrue(coverage.isExecuted(0) && coverage.wasTaken(0) && !coverage.wasNotTaken(0));
+        controller.runFor(100);
+        assertTrue(coverage.getExecutedCount() == 4);
+        for (int address : new int[] {0, 2, 4, 5}) assertTrue(coverage.isExecuted(address));
+        assertTrue(coverage.isBranch(0) && coverage.wasNotTaken(0) && !coverage.isBranch(2) && !coverage.isBranch(5));
+
+        final Coverage other = new Coverage();
+        other.record(0x10);
+        other.recordBranch(0x10, false);
+        coverage.merge(other);
+        assertTrue(coverage.getExecutedCount() == 5 && coverage.isBranch(0x10) && !coverage.wasTaken(0x10));
+        coverage.clear();
+        assertTrue(coverage.getExecutedCount() == 0 && !coverage.isBranch(0));
+    }
+
+    @Test
+    public void testTrace() throws EmulatorException, IOException {
+        System.out.println("__________Testing the instruction trace...");
+        // 0x00: MOV A, #12h; 0x02: MOV 30h, 31h; 0x05: CJNE A, #05h, 0x00
+        final int[] program = {0x74, 0x12, 0x85, 0x31, 0x30, 0xB4, 0x05, 0xF8};
+        final RAM code = new RAM(65536);
+        for (int i = 0; i < program.length; ++i) code.set(i, (byte) program[i]);
+        assertTrue(Disassembler8051.disassemble(code, 0).equals("MOV A, #12h"));
+        assertTrue(Disassembler8051.disassemble(code, 2).equals("MOV 30h, 31h"));
+        assertTrue(Disassembler8051.disassemble(code, 5).equals("CJNE A, #05h, 0000h"));
+        assertTrue(Disassembler8051.disassemble(0x0100, (byte) 0x11, (byte) 0x23, (byte) 0).equals("ACALL 0023h"));
+        assertTrue(Disassembler8051.disassemble(0, (byte) 0xB2, (byte) 0xE3, (byte) 0).equals("CPL ACC.3"));
+
+        final MC8051 controller = new MC8051(code, new RAM(65536));
+        final Path p = Files.createTempFile("b8eTrace", ".bin");
+        try {
+            // small buffers, so that the writer thread has to take over several of them
+            final Trace8051 trace = new Trace8051(p, 4, 2);
+            controller.setTrace(trace);
+            controller.runFor(100);
+            controller.setTrace(null);
+            trace.close();
+            assertTrue(trace.getRecordCount() == controller.getInstructionCount());
+            assertTrue(Files.size(p) == 8 + trace.getRecordCount() * Trace8051.RECORD_LENGTH);
+            final StringWriter text = new StringWriter();
+            Trace8051.decode(p, text);
+            final String[] lines = text.toString().split(System.lineSeparator());
+            assertTrue(lines.length == trace.getRecordCount());
+            assertTrue(lines[0].contains("74 12") && lines[0].contains("MOV A, #12h") && lines[0].contains("A=00"));
+            assertTrue(lines[3].matches("\\s*5  0000 .*A=12 PSW=00 SP=07"));
+        } finally {
+            Files.delete(p);
+        }
+    }
+
+    @Test
+    public void testHexReader() throws EmulatorException, IOException {
+        System.out.println("__________Testing the HEX reader...");
+        // 0x0000: MOV A, #12h; SJMP $ (Intel HEX); 0x8000: AB (extended segment address); 0x0100: 01 02 03 (S1)
+        final String hex = ":04000000741280FEF8\n:020000020800F4\n:01000000AB54\n\nS1060100010203F2\n:00000001FF\n"
+                + "this line is not read\n";
+        final PagedRAM code = new PagedRAM(65536);
+        assertTrue(HexReader.read(new StringReader(hex), code) == 8);
+        assertTrue(code.getDirtyPageCount() == 3);
+        assertTrue(code.get(0x8000) == (byte) 0xAB && code.get(0x0102) == 3 && code.get(0x0104) == 0);
+        final MC8051 controller = new MC8051(code, new RAM(65536));
+        controller.runFor(10);
+        assertTrue(controller.state.sfrs.A.getValue() == 0x12 && controller.getProgramCounter() == 2);
+
+        // wrong checksums, wrong byte count, unknown record type and data that does not fit into the memory
+        for (String invalid : new String[] {":04000000741280FEF9", "S1060100010203F3", ":0400000074", ":00000006FA",
+                "S1060100010203F2"})
+            try {
+                HexReader.read(new StringReader(invalid), new RAM(256));
+                assertTrue(false);
+            } catch (IOException expected) {
+                assertTrue(expected.getMessage().startsWith("line 1: "));
+            }
+    }
+
+    @Test
+    public void testMappedMemory() throws EmulatorException, IOException {
+        System.out.println("__________Testing memory-mapped files...");
+        // 0x00: MOVX A, @DPTR; 0x01: INC A; 0x02: MOVX @DPTR, A; 0x03: SJMP $
+        final Path program = Files.createTempFile("b8eProgram", ".bin");
+        final Path xram = Files.createTempFile("b8eXram", ".bin");
+        try {
+            Files.write(program, new byte[] {(byte) 0xE0, 0x04, (byte) 0xF0, (byte) 0x80, (byte) 0xFE});
+            final MappedROM code = new MappedROM(program, 65536);
+            assertTrue(code.getSize() == 65536 && code.get(3) == (byte) 0x80 && code.get(0xFFFF) == 0);
+            for (int run = 1; run <= 2; ++run) {
+                final MappedRAM external = new MappedRAM(xram, 65536);
+                new MC8051(code, external).runFor(10);
+                assertTrue(external.get(0) == run && external.getModificationCount() == 1);
+                external.force();
+            }
+            assertTrue(Files.size(xram) == 65536 && Files.readAllBytes(xram)[0] == 2);
+
+            final byte[] bytes = new byte[8];
+            Arrays.fill(bytes, (byte) -1);
+            code.copyTo(0, bytes, 1, 6);
+            assertTrue(bytes[0] == -1 && bytes[1] == (byte) 0xE0 && bytes[5] == (byte) 0xFE && bytes[6] == 0);
+            final MappedROM sameCode = new MappedROM(program, 65536);
+            assertTrue(code.equals(sameCode) && code.hashCode() == sameCode.hashCode());
+            final byte[] content = new byte[65536];
+            code.copyTo(0, content, 0, content.length);
+            assertTrue(code.hashCode() == Arrays.hashCode(content));
+            for (ROM memory : new ROM[] {code, new MappedRAM(xram, 65536)})
+                try {
+                    memory.copyTo(0, bytes, 4, 5); // does not fit into the array
+                    assertTrue(false);
+                } catch (IndexOutOfBoundsException expected) {
+                    assertTrue(bytes[4] == (byte) 0x80); // unchanged
+                }
+            final PagedRAM paged = new PagedRAM(code);
+            assertTrue(paged.getDirtyPageCount() == 1 && paged.equals(RAM.copyOf(code)));
+            paged.set(0x1FE, new byte[] {1, 2, 3, 4}, 1, 3);
+            paged.copyTo(0x1FD, bytes, 0, 5);
+            assertTrue(bytes[0] == 0 && bytes[1] == 2 && bytes[3] == 4 && bytes[4] == 0);
+        } finally {
+            Files.delete(program);
+            Files.delete(xram);
+        }
+    }
+
+    @Test
+    public void testDeviceBus() throws EmulatorException {
+        System.out.println("__________Testing the device bus...");
+        // a register file that counts the accesses
+        final byte[] registers = new byte[4];
+        final int[] accesses = new int[1];
+        final Device device = new Device() {
+            @Override public byte read(int offset) { ++accesses[0]; return registers[offset]; }
+            @Override public void write(int offset, byte value) { ++accesses[0]; registers[offset] = value; }
+        };
+        final DeviceBus bus = new DeviceBus();
+        bus.addExternal(0x8001, 0x8002, device);
+        bus.addSfr(0xF8, 0xF9, device);
+        try {
+            bus.addExternal(0x8002, 0x8010, device);
+            assertTrue(false);
+        } catch (IllegalArgumentException expected) {
+            assertTrue(bus.getMappings().size() == 2 && bus.getExternalMapping(0x8003) == null);
+        }
+
+        final RAM rom = (RAM) testController.getCodeMemory();
+        final RAM xram = testController.getSecondaryMemory();
+        final int[] program = {
+                0x90, 0x80, 0x02,   // MOV DPTR, #8002h
+                0x74, 0x42,         // MOV A, #42h
+                0xF0,               // MOVX @DPTR, A  (device offset 1)
+                0xA3,               // INC DPTR
+                0xF0,               // MOVX @DPTR, A  (RAM)
+                0x75, 0xF9, 0x17,   // MOV 0F9h, #17h (device offset 1)
+                0xD2, 0xF8,         // SETB 0F8h.0    (device offset 0)
+                0xE5, 0xF9,         // MOV A, 0F9h
+        };
+        for (int i = 0; i < program.length; ++i) rom.set(i, (byte) program[i]);
+        testController.setDeviceBus(bus);
+        for (int i = 0; i < 8; ++i) testController.next();
+        assertTrue(xram.get(0x8002) == 0 && xram.get(0x8003) == 0x42);
+        assertTrue(registers[1] == 0x17 && registers[0] == 1 && A.getValue() == 0x17 && accesses[0] == 5);
+        assertFalse(testController.state.sfrs.hasAddress((byte) 0xF8));
+
+        bus.remove(device);
+        assertTrue(bus.getMappings().isEmpty() && bus.readExternal(0x8001) == DeviceBus.UNMAPPED);
+        testController.setDeviceBus(null);
+
+        // an idle loop that polls a device is executed instead of being skipped
+        final int[] reads = new int[1];
+        bus.addSfr(0xF8, 0xF8, new Device() { // a status register whose ready bit (0) is set after 100 reads
+            @Override public byte read(int offset) { return (byte) (++reads[0] >= 100 ? 1 : 0); }
+            @Override public void write(int offset, byte value) { }
+        });
+        final RAM code = new RAM(65536);
+        final int[] polling = {0x30, 0xF8, 0xFD, 0x80, 0xFE}; // 0x00: JNB 0F8h.0, $; 0x03: SJMP $
+        for (int i = 0; i < polling.length; ++i) code.set(i, (byte) polling[i]);
+        final MC8051 controller = new MC8051(code, null);
+        controller.setDeviceBus(bus);
+        controller.runFor(100_000);
+        assertTrue(reads[0] == 100 && controller.getProgramCounter() == 3);
+    }
+
+    @Test
+    public void testParityFlag() throws EmulatorException {
+        System.out.println("__________Testing the parity flag...");
+        final RAM rom = (RAM) testController.getCodeMemory();
+        rom.set(0, (byte)0x74); // MOV A, #0x07
+        rom.set(1, (byte)0x07);
+        rom.set(2, (byte)0x14); // DEC A
+        final List<PropertyChangeEvent> events = new ArrayList<>();
+        PSW.addPropertyChangeListener(events::add);
+        A.setValue((byte)0x01);
+        assertTrue(PSW.getBit(0));
+        A.setValue((byte)0x03);
+        assertFalse(PSW.getBit(0));
+        testController.next();
+        assertTrue(PSW.getBit(0) && events.size() == 1);
+        testController.next();
+        assertTrue(!PSW.getBit(0) && events.size() == 2);
+        assertTrue((Integer) events.get(1).getNewValue() == 0);
+        PSW.setBit(true, 0); // writing P has no effect
+        assertFalse(PSW.getBit(0));
+    }
+
+    @Test
+    public void testDeferChanges() throws EmulatorException {
+        System.out.println("__________Testing deferred change events...");
+        final RAM rom = (RAM) testController.getCodeMemory();
+        rom.set(0, (byte)0x04); // INC A
+        rom.set(1, (byte)0x04); // INC A
+        rom.set(2, (byte)0x04); // INC A
+        final List<PropertyChangeEvent> events = new ArrayList<>();
+        A.addPropertyChangeListener(events::add);
+        testController.setDeferChanges(true);
+        testController.runFor(2);
+        assertTrue(events.isEmpty());
+        testController.flushChanges();
+        assertTrue(events.size() == 1);
+        assertTrue((Integer) events.get(0).getOldValue() == 0 && (Integer) events.get(0).getNewValue() == 2);
+        testController.flushChanges();
+        assertTrue(events.size() == 1);
+        testController.setDeferChanges(false);
+        testController.next();
+        assertTrue(events.size() == 2);
     }
 
     private void testOpcode(byte opcode, int address, int desiredReturn, BooleanSupplier resultCorrect) {
@@ -0,0 +1,315 @@
+package emulator.arc8051;
+
+import emulator.PagedRAM;
+import emulator.RAM;
+import emulator.ROM;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This class reads and writes the binary snapshot format for {@code State8051} objects.
+ * <br>
+ * A snapshot starts with a header that consists of the magic number {@code "B8ES"}, the format version (2 bytes),
+ * flags (2 bytes; bit 0 means that the body is deflate-compressed) and the length of the uncompressed body
+ * (4 bytes). The body is a sequence of sections, each of which consists of a tag (1 byte), the length of its content
+ * (4 bytes) and the content. The last section has the tag {@code END}. Unknown sections are skipped when reading,
+ * so newer versions of the format can add sections without breaking older readers.
+ * <br>
+ * Memory is stored in pages of 256 bytes. A bitmap marks the pages that contain non-zero bytes and only those pages
+ * are stored, so the mostly empty code memory and external RAM take up very little space. If the external RAM is the
+ * same object as the code memory (e.g. for programs that modify themselves through {@code MOVX}), it is not stored
+ * separately; an empty {@code EXTERNAL_RAM_IS_CODE} section marks that the code memory is used for both.
+ * <br>
+ * All numbers are big endian.
+ *
+ * @author 5hir0kur0
+ */
+final class Snapshot8051 {
+
+    private static final byte[] MAGIC = {'B', '8', 'E', 'S'};
+    private static final short VERSION = 1;
+    private static final short FLAG_COMPRESSED = 1;
+    private static final int HEADER_LENGTH = 12;
+    private static final int PAGE_SIZE = 256;
+
+    // section tags
+    private static final byte END = 0;
+    private static final byte STATE = 1;
+    private static final byte SFRS = 2;
+    private static final byte INTERNAL_RAM = 3;
+    private static final byte EXTERNAL_RAM = 4;
+    private static final byte CODE_MEMORY = 5;
+    private static final byte CYCLES = 6;
+    private static final byte EXTERNAL_RAM_IS_CODE = 7;
+
+    private Snapshot8051() {
+        throw new UnsupportedOperationException("trying to instantiate utility class Snapshot8051");
+    }
+
+    /**
+     * Check whether a file starts with the snapshot magic number.
+     * @param path
+     *     the file; must be a valid and accessible path
+     * @return
+     *     {@code true} if the file is a snapshot; {@code false} otherwise (e.g. if it is an XML file)
+     * @throws IOException
+     *     if there was an IO error
+     */
+    static boolean isSnapshot(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            while (magic.hasRemaining() && channel.read(magic) >= 0);
+            return !magic.hasRemaining() && Arrays.equals(magic.array(), MAGIC);
+        }
+    }
+
+    /**
+     * Write a snapshot of a state to a file.
+     * @param state
+     *     the state; must not be {@code null}
+     * @param path
+     *     the file; it is created or overwritten
+     * @param compress
+     *     {@code true} if the body should be deflate-compressed
+     * @throws IOException
+     *     if there was an IO error
+     */
+    static void write(State8051 state, Path path, boolean compress) throws IOException {
+        final ByteBuffer body = writeBody(state);
+        final int bodyLength = body.remaining();
+        ByteBuffer content = body;
+        if (compress) {
+            final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(body.array(), body.arrayOffset(), bodyLength);
+                deflater.finish();
+                byte[] compressed = new byte[Math.max(64, bodyLength / 4)];
+                int length = 0;
+                while (!deflater.finished()) {
+                    if (length == compressed.length) compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                    length += deflater.deflate(compressed, length, compressed.length - length);
+                }
+                content = ByteBuffer.wrap(compressed, 0, length);
+            } finally {
+                deflater.end();
+            }
+        }
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.put(MAGIC).putShort(VERSION).putShort(compress ? FLAG_COMPRESSED : 0).putInt(bodyLength);
+        header.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer[] buffers = {header, content};
+            while (header.hasRemaining() || content.hasRemaining()) channel.write(buffers);
+        }
+    }
+
+    /**
+     * Read a snapshot from a file.
+     * @param path
+     *     the file; must be a valid and accessible path
+     * @return
+     *     the restored state
+     * @throws IOException
+     *     if there was an IO error or the file is not a valid snapshot
+     */
+    static State8051 read(Path path) throws IOException {
+        final ByteBuffer file;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("snapshot is too big: " + path);
+            file = ByteBuffer.allocate((int) channel.size());
+            while (file.hasRemaining() && channel.read(file) >= 0);
+            file.flip();
+        }
+        try {
+            final byte[] magic = new byte[MAGIC.length];
+            file.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException("not a snapshot: " + path);
+            final short version = file.getShort();
+            if (version > VERSION) throw new IOException("unsupported snapshot version: " + version);
+            final short flags = file.getShort();
+            final int bodyLength = file.getInt();
+            ByteBuffer body = file.slice();
+            if ((flags & FLAG_COMPRESSED) != 0) {
+                final Inflater inflater = new Inflater();
+                try {
+                    inflater.setInput(file.array(), file.arrayOffset() + file.position(), file.remaining());
+                    final byte[] uncompressed = new byte[bodyLength];
+                    int length = 0;
+                    while (length < bodyLength && !inflater.finished()) {
+                        final int inflated = inflater.inflate(uncompressed, length, bodyLength - length);
+                        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                        length += inflated;
+                    }
+                    if (length != bodyLength) throw new IOException("truncated snapshot: " + path);
+                    body = ByteBuffer.wrap(uncompressed);
+                } catch (DataFormatException e) {
+                    throw new IOException("corrupt snapshot: " + path, e);
+                } finally {
+                    inflater.end();
+                }
+            }
+            return readBody(body);
+        } catch (BufferUnderflowException|IllegalArgumentException|IndexOutOfBoundsException e) {
+            throw new IOException("invalid snapshot: " + path, e);
+        }
+    }
+
+    private static ByteBuffer writeBody(State8051 state) {
+        final boolean shared = state.externalRAM != null && state.externalRAM == state.codeMemory;
+        final int maxLength = 64 + 2 * 128 + maxMemoryLength(state.internalRAM) + maxMemoryLength(state.codeMemory)
+                + (state.externalRAM != null && !shared ? maxMemoryLength(state.externalRAM) : 0);
+        final ByteBuffer out = ByteBuffer.allocate(maxLength);
+
+        int start = beginSection(out, STATE);
+        out.put(toByte(state.ignoreSOSU)).put(toByte(state.ignoreUndefined)).put(toByte(state.ignoreExceptions))
+                .put(toByte(state.ignoreUndefinedSfrs));
+        out.put(state.PCH.getValue()).put(state.PCL.getValue());
+        out.put(state.TMOD_OLD).put(toByte(state.TR1_OLD)).put(toByte(state.prevP3_2)).put(toByte(state.prevP3_3));
+        out.put((byte) state.runningInterruptPriority).put(toByte(state.runningInterruptInterruptedOtherInterrupt));
+        endSection(out, start);
+
+        start = beginSection(out, SFRS);
+        final byte[] present = new byte[128 / 8];
+        final byte[] values = new byte[128];
+        for (int address = 0x80; address <= 0xFF; ++address)
+            if (state.sfrs.hasAddress((byte) address)) {
+                present[(address - 0x80) / 8] |= 1 << (address & 7);
+                values[address - 0x80] = state.sfrs.getRegister((byte) address).getValue();
+            }
+        out.put(present).put(values);
+        endSection(out, start);
+
+        start = beginSection(out, CYCLES);
+        out.putLong(state.cycleCount);
+        endSection(out, start);
+
+        writeMemory(out, INTERNAL_RAM, state.internalRAM);
+        if (shared) out.put(EXTERNAL_RAM_IS_CODE).putInt(0);
+        else if (state.externalRAM != null) writeMemory(out, EXTERNAL_RAM, state.externalRAM);
+        writeMemory(out, CODE_MEMORY, state.codeMemory);
+        out.put(END).putInt(0);
+        out.flip();
+        return out;
+    }
+
+    private static State8051 readBody(ByteBuffer in) throws IOException {
+        ByteBuffer stateSection = null, sfrSection = null;
+        long cycleCount = 0;
+        boolean shared = false;
+        RAM internalRAM = null, externalRAM = null, codeMemory = null;
+        byte tag;
+        while ((tag = in.get()) != END) {
+            final int length = in.getInt();
+            final ByteBuffer section = (ByteBuffer) in.slice().limit(length);
+            in.position(in.position() + length);
+            switch (tag) {
+                case STATE: stateSection = section; break;
+                case SFRS: sfrSection = section; break;
+                case CYCLES: cycleCount = section.getLong(); break;
+                case INTERNAL_RAM: internalRAM = readMemory(section); break;
+                case EXTERNAL_RAM: externalRAM = readMemory(section); break;
+                case CODE_MEMORY: codeMemory = readMemory(section); break;
+                case EXTERNAL_RAM_IS_CODE: shared = true; break;
+                default: break; // sections from newer versions
+            }
+        }
+        if (null == stateSection || null == sfrSection || null == internalRAM || null == codeMemory)
+            throw new IOException("incomplete snapshot");
+        if (shared) {
+            if (externalRAM != null) throw new IOException("invalid snapshot: external RAM stored twice");
+            externalRAM = codeMemory;
+        }
+
+        if (internalRAM.getSize() != 256) throw new IOException("invalid size of the internal RAM in the snapshot");
+        final State8051 state = new State8051(codeMemory, externalRAM, new Configuration8051(
+                stateSection.get() != 0, stateSection.get() != 0, stateSection.get() != 0, stateSection.get() != 0));
+        // the R registers are restored through the internal RAM
+        for (int i = 0; i < 256; ++i) state.internalRAM.set(i, internalRAM.get(i));
+        state.PCH.setValue(stateSection.get());
+        state.PCL.setValue(stateSection.get());
+        state.TMOD_OLD = stateSection.get();
+        state.TR1_OLD = stateSection.get() != 0;
+        state.prevP3_2 = stateSection.get() != 0;
+        state.prevP3_3 = stateSection.get() != 0;
+        state.runningInterruptPriority = stateSection.get();
+        state.runningInterruptInterruptedOtherInterrupt = stateSection.get() != 0;
+        state.cycleCount = cycleCount;
+
+        final byte[] present = new byte[128 / 8];
+        sfrSection.get(present);
+        for (int address = 0x80; address <= 0xFF; ++address) {
+            final byte value = sfrSection.get();
+            if ((present[(address - 0x80) / 8] & 1 << (address & 7)) == 0) continue;
+            state.sfrs.restoreRegister((byte) address, value);
+        }
+        return state;
+    }
+
+    private static int maxMemoryLength(ROM memory) {
+        final int pages = (memory.getSize() + PAGE_SIZE - 1) / PAGE_SIZE;
+        return 5 + 4 + (pages + 7) / 8 + memory.getSize();
+    }
+
+    private static void writeMemory(ByteBuffer out, byte tag, ROM memory) {
+        final int start = beginSection(out, tag);
+        final int size = memory.getSize();
+        final int pages = (size + PAGE_SIZE - 1) / PAGE_SIZE;
+        out.putInt(size);
+        final int bitmap = out.position();
+        out.position(bitmap + (pages + 7) / 8);
+        final byte[] buffer = new byte[PAGE_SIZE];
+        for (int page = 0; page < pages; ++page) {
+            final int length = Math.min(PAGE_SIZE, size - page * PAGE_SIZE);
+            memory.copyTo(page * PAGE_SIZE, buffer, 0, length);
+            boolean empty = true;
+            for (int i = 0; i < length && empty; ++i) empty = buffer[i] == 0;
+            if (empty) continue;
+            out.put(buffer, 0, length);
+            out.put(bitmap + page / 8, (byte) (out.get(bitmap + page / 8) | 1 << (page & 7)));
+        }
+        endSection(out, start);
+    }
+
+    private static RAM readMemory(ByteBuffer in) {
+        final int size = in.getInt();
+        final int pages = (size + PAGE_SIZE - 1) / PAGE_SIZE;
+        final byte[] bitmap = new byte[(pages + 7) / 8];
+        in.get(bitmap);
+        // the memory is paged right away, so the checkpoints of the execution history do not copy it in full
+        final RAM memory = size % PagedRAM.PAGE_SIZE == 0 ? new PagedRAM(size) : new RAM(size);
+        final byte[] content = new byte[PAGE_SIZE];
+        for (int page = 0; page < pages; ++page)
+            if ((bitmap[page / 8] & 1 << (page & 7)) != 0) {
+                final int length = Math.min(PAGE_SIZE, size - page * PAGE_SIZE);
+                in.get(content, 0, length);
+                memory.set(page * PAGE_SIZE, content, 0, length);
+            }
+        return memory;
+    }
+
+    /** @return the position of the section's length, which is filled in by {@link #endSection(ByteBuffer, int)} */
+    private static int beginSection(ByteBuffer out, byte tag) {
+        out.put(tag);
+        final int start = out.position();
+        out.putInt(0);
+        return start;
+    }
+
+    private static void endSection(ByteBuffer out, int start) {
+        out.putInt(start, out.position() - start - 4);
+    }
+
+    private static byte toByte(boolean value) {
+        return (byte) (value ? 1 : 0);
+    }
+}
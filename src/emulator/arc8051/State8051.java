@@ -6,7 +6,6 @@ import misc.Settings;
 import javax.xml.bind.annotation.*;
 import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 import java.util.*;
-import java.util.function.Predicate;
 
 /**
  * This class represents the internal state of the 8051 micro controller.
@@ -34,6 +33,9 @@ public class State8051 {
     //priority and thus cannot be interrupted.
     boolean runningInterruptInterruptedOtherInterrupt = false;
 
+    //the number of machine cycles that have been executed in this state
+    long cycleCount;
+
     //settings:
     final static String IGNORE_SO_SU = "emulator.ignore-stack-overflow-and-stack-underflow";
     final static String IGNORE_SO_SU_DEFAULT = "false";
@@ -79,10 +81,10 @@ public class State8051 {
     /**
      * This class represents the SFR area of the 8051 micro controller.
      * There are two references to each register as every register is an attribute of the class, but is also
-     * contained in an internal hash map (the hash map is needed to quickly get the register corresponding to a
-     * given memory address). This improved performance and readability as you can type {@code instance.A} instead
-     * of {@code instance.get((byte)0xE0)}. It should not be a problem as the set of registers is not intended to
-     * be changed during the execution of the program.
+     * contained in an internal array indexed by {@code address - 0x80} (the array is needed to quickly get the
+     * register corresponding to a given memory address). This improved performance and readability as you can type
+     * {@code instance.A} instead of {@code instance.get((byte)0xE0)}. It should not be a problem as the set of
+     * registers is not intended to be changed during the execution of the program.
      */
     @XmlAccessorType(XmlAccessType.FIELD)
     static class SpecialFunctionRegisters implements ROM {
@@ -91,13 +93,11 @@ public class State8051 {
 
         //TODO add flag names for other flag registers
 
-        @XmlTransient private HashMap<Byte, ByteRegister> specialFunctionRegisters;
+        @XmlTransient private ByteRegister[] specialFunctionRegisters;
 
         final BitAddressableByteRegister B = new BitAddressableByteRegister("B");
         final BitAddressableByteRegister A = new BitAddressableByteRegister("A");
-        final ByteFlagRegister PSW = new ByteFlagRegister("PSW",
-                Flag.fromNames("P", "UD", "OV", "RS0", "RS1", "F0", "AC", "C")
-        );
+        final ProgramStatusWord PSW = new ProgramStatusWord();
         final ByteFlagRegister IP = new ByteFlagRegister("IP",
                 Flag.fromNames("EX0", "ET0", "EX1", "ET1", "ES", "UD0", "UD1", "EA")
         );
@@ -138,36 +138,38 @@ public class State8051 {
         }
 
         void updateSfrMap() {
-            this.specialFunctionRegisters = new HashMap<>(21);
-            this.specialFunctionRegisters.put((byte)0xF0, B);
-            this.specialFunctionRegisters.put((byte)0xE0, A);
-            this.specialFunctionRegisters.put((byte)0xD0, PSW);
-            this.specialFunctionRegisters.put((byte)0xB8, IP);
-            this.specialFunctionRegisters.put((byte)0xB0, P3);
-            this.specialFunctionRegisters.put((byte)0xA8, IE);
-            this.specialFunctionRegisters.put((byte)0xA0, P2);
-            this.specialFunctionRegisters.put((byte)0x98, SCON);
-            this.specialFunctionRegisters.put((byte)0x99, SBUF);
-            this.specialFunctionRegisters.put((byte)0x90, P1);
-            this.specialFunctionRegisters.put((byte)0x88, TCON);
-            this.specialFunctionRegisters.put((byte)0x89, TMOD);
-            this.specialFunctionRegisters.put((byte)0x8A, TL0);
-            this.specialFunctionRegisters.put((byte)0x8B, TL1);
-            this.specialFunctionRegisters.put((byte)0x8C, TH0);
-            this.specialFunctionRegisters.put((byte)0x8D, TH1);
-            this.specialFunctionRegisters.put((byte)0x80, P0);
-            this.specialFunctionRegisters.put((byte)0x81, SP);
-            this.specialFunctionRegisters.put((byte)0x82, DPL);
-            this.specialFunctionRegisters.put((byte)0x83, DPH);
-            this.specialFunctionRegisters.put((byte)0x87, PCON);
+            this.specialFunctionRegisters = new ByteRegister[128];
+            this.PSW.accumulator = this.A;
+            this.addRegister((byte)0xF0, B);
+            this.addRegister((byte)0xE0, A);
+            this.addRegister((byte)0xD0, PSW);
+            this.addRegister((byte)0xB8, IP);
+            this.addRegister((byte)0xB0, P3);
+            this.addRegister((byte)0xA8, IE);
+            this.addRegister((byte)0xA0, P2);
+            this.addRegister((byte)0x98, SCON);
+            this.addRegister((byte)0x99, SBUF);
+            this.addRegister((byte)0x90, P1);
+            this.addRegister((byte)0x88, TCON);
+            this.addRegister((byte)0x89, TMOD);
+            this.addRegister((byte)0x8A, TL0);
+            this.addRegister((byte)0x8B, TL1);
+            this.addRegister((byte)0x8C, TH0);
+            this.addRegister((byte)0x8D, TH1);
+            this.addRegister((byte)0x80, P0);
+            this.addRegister((byte)0x81, SP);
+            this.addRegister((byte)0x82, DPL);
+            this.addRegister((byte)0x83, DPH);
+            this.addRegister((byte)0x87, PCON);
         }
 
         @Override
         public byte get(int index) {
             if (index < 0x80 || index > 255)
                 throw new IndexOutOfBoundsException("SFR index too big or too small: "+index);
-            if (specialFunctionRegisters.containsKey((byte)index))
-                return specialFunctionRegisters.get((byte)index).getValue();
+            final ByteRegister register = this.specialFunctionRegisters[index - 0x80];
+            if (register != null)
+                return register.getValue();
             else if (!this.ignoreUndefinedSfrs) throw new IndexOutOfBoundsException("SFR index out of range: "+index);
             else return 0;
         }
@@ -182,8 +184,8 @@ public class State8051 {
             for (int i = 0; i < ret.length; ++i) {
                 int tmpIndex = i + index;
                 if (tmpIndex > 255) ret[i] = 0;
-                else if (specialFunctionRegisters.containsKey((byte)i))
-                    ret[i] = specialFunctionRegisters.get((byte)i).getValue();
+                else if (this.specialFunctionRegisters[tmpIndex - 0x80] != null)
+                    ret[i] = this.specialFunctionRegisters[tmpIndex - 0x80].getValue();
                 else ret[i] = 0;
             }
             return ret;
@@ -195,11 +197,13 @@ public class State8051 {
         }
 
         List<Register> getRegisters() {
-            return new ArrayList<>(this.specialFunctionRegisters.values());
+            List<Register> ret = new ArrayList<>(this.specialFunctionRegisters.length);
+            for (ByteRegister r : this.specialFunctionRegisters) if (r != null) ret.add(r);
+            return ret;
         }
 
         public boolean hasAddress(byte address) {
-            return this.specialFunctionRegisters.containsKey(address);
+            return (address & 0xFF) >= 0x80 && this.specialFunctionRegisters[(address & 0xFF) - 0x80] != null;
         }
 
         @Override
@@ -208,14 +212,13 @@ public class State8051 {
                 int index = 0;
                 @Override
                 public boolean hasNext() {
-                    return index <= 0xFF;
+                    return index < SpecialFunctionRegisters.this.specialFunctionRegisters.length;
                 }
 
                 @Override
                 public Byte next() {
-                    return SpecialFunctionRegisters.this.specialFunctionRegisters.containsKey((byte)index)
-                            ? SpecialFunctionRegisters.this.specialFunctionRegisters.get((byte)index).getValue()
-                            : null;
+                    final ByteRegister r = SpecialFunctionRegisters.this.specialFunctionRegisters[index++];
+                    return r != null ? r.getValue() : null;
                 }
             };
         }
@@ -226,12 +229,10 @@ public class State8051 {
             if (null == other) return false;
             if (!(other instanceof SpecialFunctionRegisters)) return false;
             SpecialFunctionRegisters tmp = (SpecialFunctionRegisters)other;
-            for (byte b : this.specialFunctionRegisters.keySet()) {
-                try {
-                    if (tmp.getRegister(b) == null || !tmp.getRegister(b).equals(this.getRegister(b))) return false;
-                } catch (IndexOutOfBoundsException e) {
-                    return false;
-                }
+            for (int i = 0; i < this.specialFunctionRegisters.length; ++i) {
+                if (this.specialFunctionRegisters[i] == null) continue;
+                if (tmp.specialFunctionRegisters[i] == null
+                        || !tmp.specialFunctionRegisters[i].equals(this.specialFunctionRegisters[i])) return false;
             }
             return true;
         }
@@ -246,8 +247,8 @@ public class State8051 {
          *     when a register that is not contained in this object is given as a parameter
          */
         public byte getAddress(ByteRegister r) throws IllegalArgumentException {
-            for (Byte b : this.specialFunctionRegisters.keySet()) {
-                if (specialFunctionRegisters.get(b) == r) return b;
+            for (int i = 0; i < this.specialFunctionRegisters.length; ++i) {
+                if (this.specialFunctionRegisters[i] == r) return (byte)(i + 0x80);
             }
             throw new IllegalArgumentException("Invalid byte register; cannot get address: "+r);
         }
@@ -261,7 +262,8 @@ public class State8051 {
          */
         ByteRegister getRegister(byte address) {
             if ((address & 0xFF) < 0x80) throw new IllegalArgumentException("Invalid address for SFR: "+address);
-            if (this.specialFunctionRegisters.containsKey(address)) return this.specialFunctionRegisters.get(address);
+            final ByteRegister register = this.specialFunctionRegisters[(address & 0xFF) - 0x80];
+            if (register != null) return register;
             //If the program attempts to use a value in the SFR area which does not hold a register,
             //create a new register and throw an exception (because the program would exhibit undefined behaviour
             //on real hardware
@@ -272,6 +274,20 @@ public class State8051 {
             else return tmp;
         }
 
+        /**
+         * Set the value of the SFR at the specified address. If there is no SFR at this address, a temporary one is
+         * created (like the ones {@link #getRegister(byte)} creates for undefined SFRs).
+         * @param address
+         *     the address; must be >= 0x80
+         * @param value
+         *     the new value
+         */
+        void restoreRegister(byte address, byte value) {
+            if (!this.hasAddress(address))
+                this.addRegister(address, new ByteRegister(String.format("TMP_SFR#%02X", address & 0xFF)));
+            this.specialFunctionRegisters[(address & 0xFF) - 0x80].setValue(value);
+        }
+
         /**
          * Add a new SFR at the specified address.
          * @param address
@@ -281,7 +297,53 @@ public class State8051 {
          */
         void addRegister(byte address, ByteRegister register) {
             if ((address & 0xFF) < 0x80) throw new IllegalArgumentException("Invalid address for SFR: "+address);
-            this.specialFunctionRegisters.put(address, Objects.requireNonNull(register));
+            this.specialFunctionRegisters[(address & 0xFF) - 0x80] = Objects.requireNonNull(register);
+        }
+
+        /**
+         * Remove the SFR at the specified address (e.g. a temporary one that does not exist in a restored state).
+         * @param address
+         *     the address; must be >= 0x80
+         */
+        void removeRegister(byte address) {
+            if ((address & 0xFF) < 0x80) throw new IllegalArgumentException("Invalid address for SFR: "+address);
+            this.specialFunctionRegisters[(address & 0xFF) - 0x80] = null;
+        }
+    }
+
+    /**
+     * This class represents the program status word.
+     * The parity flag (bit 0) is not stored, but derived from the accumulator every time the value is read, so it
+     * does not have to be updated after every instruction. Writes to the parity flag have no lasting effect (like on
+     * real hardware).
+     */
+    @XmlAccessorType(XmlAccessType.FIELD)
+    static class ProgramStatusWord extends ByteFlagRegister {
+        //PARITY[x] is 1 if the number of bits set to one in x is odd
+        private final static byte[] PARITY = new byte[256];
+        static {
+            for (int i = 0; i < PARITY.length; ++i) PARITY[i] = (byte)(Integer.bitCount(i) & 1);
+        }
+
+        @XmlTransient private ByteRegister accumulator;
+
+        ProgramStatusWord() { // also used by JAXB, which fills the flag list when unmarshalling, so it must be mutable
+            super("PSW", new ArrayList<>(Flag.fromNames("P", "UD", "OV", "RS0", "RS1", "F0", "AC", "C")));
+        }
+
+        @Override
+        public byte getValue() {
+            final byte value = super.getValue();
+            if (null == this.accumulator) return value;
+            return (byte)(value & 0xFE | PARITY[this.accumulator.getValue() & 0xFF]);
+        }
+
+        /**
+         * Store the current parity flag. This fires a property change if the parity changed since it was last stored.
+         */
+        void updateParityFlag() {
+            // super.getValue() reads from the attribute and this.getValue() computes the parity
+            if (this.getValue() != super.getValue()) this.setValue(this.getValue());
         }
     }
 
@@ -289,6 +351,7 @@ public class State8051 {
 
     final RAM internalRAM;
 
+    @XmlJavaTypeAdapter(RAM.RamAdapter.class)
     final RAM externalRAM;
 
     @XmlJavaTypeAdapter(RAM.RomAdapter.class)
@@ -315,6 +378,7 @@ public class State8051 {
     }
 
     /**
+     * Create a state with the settings from the global {@link Settings}.
      * @param codeMemory
      *     The instructions will be read from this object. (must not be {@code null})
      *     The size must be 65536 bytes.
@@ -323,21 +387,30 @@ public class State8051 {
      *     {@code null} is a valid value and implies that there is no external RAM
      */
     public State8051(ROM codeMemory, RAM externalRAM) {
+        this(codeMemory, externalRAM, Configuration8051.fromSettings());
+    }
+
+    /**
+     * Create a state with an explicit configuration instead of the global {@link Settings}.
+     * @param codeMemory
+     *     The instructions will be read from this object. (must not be {@code null})
+     *     The size must be 65536 bytes.
+     * @param externalRAM
+     *     external {@code RAM} that can be accessed with the {@code MOVX} command;
+     *     {@code null} is a valid value and implies that there is no external RAM
+     * @param configuration
+     *     the settings; must not be {@code null}
+     */
+    public State8051(ROM codeMemory, RAM externalRAM, Configuration8051 configuration) {
         this.codeMemory = Objects.requireNonNull(codeMemory, "trying to create MC8051 object without code memory");
         if (this.codeMemory.getSize() != 65536)
             throw new IllegalArgumentException("code memory has to be 2^16 bytes long");
+        Objects.requireNonNull(configuration, "trying to create MC8051 object without configuration");
 
-        //settings
-        final Predicate<String> isValidBoolean = s -> "true".equals(s) || "false".equals(s);
-        this.ignoreExceptions = Boolean.parseBoolean(Settings.INSTANCE.getProperty(
-                IGNORE_ALL_EXCEPTIONS, IGNORE_ALL_EXCEPTIONS_DEFAULT, isValidBoolean));
-        this.ignoreSOSU = Boolean.parseBoolean(Settings.INSTANCE.getProperty(
-                IGNORE_SO_SU, IGNORE_SO_SU_DEFAULT, isValidBoolean)) || this.ignoreExceptions;
-        this.ignoreUndefined = Boolean.parseBoolean(Settings.INSTANCE.getProperty(
-                IGNORE_UNDEFINED_MNEMONIC, IGNORE_UNDEFINED_MNEMONIC_DEFAULT, isValidBoolean)) || this.ignoreExceptions;
-        this.ignoreUndefinedSfrs = Boolean.parseBoolean(Settings.INSTANCE.getProperty(
-                IGNORE_UNDEFINED_SFRS, IGNORE_UNDEFINED_SFRS_DEFAULT, isValidBoolean
-        )) || this.ignoreExceptions;
+        this.ignoreExceptions = configuration.ignoreAllExceptions;
+        this.ignoreSOSU = configuration.ignoreStackOverflowAndUnderflow;
+        this.ignoreUndefined = configuration.ignoreUndefinedMnemonics;
+        this.ignoreUndefinedSfrs = configuration.ignoreUndefinedSfrs;
 
         this.sfrs = new SpecialFunctionRegisters(this.ignoreUndefinedSfrs);
         this.internalRAM = new RAM(256);
@@ -347,6 +420,99 @@ public class State8051 {
         this.setRRegisters(this.generateRRegisters());
     }
 
+    /**
+     * Create an independent copy of this state.<br>
+     * {@code PagedRAM} is forked, so the copy shares the memory pages with this state until either of them writes to
+     * them, and forking only takes time proportional to the number of pages. Other {@code RAM} has to be copied in
+     * full every time, so states that are forked repeatedly (e.g. for the execution history) should be created with
+     * {@code PagedRAM}. Other {@code ROM} objects are shared.
+     * @return
+     *     the copy
+     */
+    public State8051 fork() {
+        final ROM code = this.codeMemory instanceof RAM ? forkMemory((RAM) this.codeMemory) : this.codeMemory;
+        final RAM external = this.externalRAM == null ? null
+                : this.externalRAM == this.codeMemory ? (RAM) code : forkMemory(this.externalRAM);
+        final State8051 result = new State8051(code, external, this.getConfiguration());
+        result.restoreCpuState(this);
+        return result;
+    }
+
+    /**
+     * Create a copy of this state that can be restored later on (see {@link #restore(State8051)}).
+     * The checkpoint should not be modified.
+     * @return
+     *     the checkpoint
+     * @see #fork()
+     */
+    public State8051 checkpoint() {
+        return this.fork();
+    }
+
+    /**
+     * Overwrite this state with the content of another one (e.g. a checkpoint). The {@code Register} objects and
+     * memory objects of this state are kept and only their values change, so their listeners are notified.
+     * The settings of this state are not changed.
+     * @param other
+     *     the state to be restored; must not be {@code null}; its memories must have the same sizes
+     */
+    void restore(State8051 other) {
+        if (this.codeMemory != other.codeMemory) restoreMemory(this.codeMemory, other.codeMemory);
+        if (this.externalRAM != null && other.externalRAM != null && this.externalRAM != other.externalRAM
+                && this.externalRAM != this.codeMemory)
+            restoreMemory(this.externalRAM, other.externalRAM);
+        this.restoreCpuState(other);
+    }
+
+    /**
+     * Overwrite everything but the code memory and the external RAM with the content of another state.
+     * Temporary SFRs that were created after the other state was saved are removed.
+     */
+    private void restoreCpuState(State8051 other) {
+        restoreMemory(this.internalRAM, other.internalRAM);
+        for (int address = 0x80; address <= 0xFF; ++address)
+            if (other.sfrs.hasAddress((byte) address))
+                this.sfrs.restoreRegister((byte) address, other.sfrs.getRegister((byte) address).getValue());
+            else if (this.sfrs.hasAddress((byte) address))
+                this.sfrs.removeRegister((byte) address);
+        this.PCH.setValue(other.PCH.getValue());
+        this.PCL.setValue(other.PCL.getValue());
+        this.TMOD_OLD = other.TMOD_OLD;
+        this.TR1_OLD = other.TR1_OLD;
+        this.prevP3_2 = other.prevP3_2;
+        this.prevP3_3 = other.prevP3_3;
+        this.runningInterruptPriority = other.runningInterruptPriority;
+        this.runningInterruptInterruptedOtherInterrupt = other.runningInterruptInterruptedOtherInterrupt;
+        this.cycleCount = other.cycleCount;
+    }
+
+    private static RAM forkMemory(RAM memory) {
+        if (memory instanceof PagedRAM) return ((PagedRAM) memory).fork();
+        if (memory.getSize() % PagedRAM.PAGE_SIZE == 0) return new PagedRAM(memory);
+        return RAM.copyOf(memory);
+    }
+
+    private static void restoreMemory(ROM target, ROM source) {
+        if (!(target instanceof RAM)) return; // read only memory cannot have changed
+        if (target instanceof PagedRAM && source instanceof PagedRAM) {
+            ((PagedRAM) target).restore((PagedRAM) source);
+            return;
+        }
+        if (target.getSize() != source.getSize())
+            throw new IllegalArgumentException("cannot restore memory of a different size");
+        final RAM ram = (RAM) target;
+        // only write the bytes that differ, so the modification count stays the same if nothing changed
+        for (int i = 0; i < ram.getSize(); ++i) if (ram.get(i) != source.get(i)) ram.set(i, source.get(i));
+    }
+
+    /**
+     * @return the settings of this state
+     */
+    public Configuration8051 getConfiguration() {
+        return new Configuration8051(this.ignoreSOSU, this.ignoreUndefined, this.ignoreExceptions,
+                this.ignoreUndefinedSfrs);
+    }
+
     @Override
     public boolean equals(Object other) {
         if (null == other) return false;
@@ -0,0 +1,245 @@
+package emulator.arc8051;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * This class records every instruction an {@code MC8051} executes in a binary trace file (see
+ * {@link MC8051#setTrace(Trace8051)}).
+ * <br>
+ * A trace starts with a header that consists of the magic number {@code "B8ET"}, the format version (2 bytes) and the
+ * length of a record (2 bytes). It is followed by one record per instruction, which contains the state before the
+ * instruction: the cycle count (8 bytes), the program counter (2 bytes), the opcode and the two following bytes of
+ * the code memory (3 bytes; unused bytes are 0), A, PSW and SP (1 byte each). All numbers are big endian.
+ * <br>
+ * The records are written to a fixed number of direct (off-heap) buffers. A full buffer is handed to a background
+ * thread that writes it to the file through a {@code FileChannel}, while the {@code MC8051} continues with the next
+ * free buffer. The {@code MC8051} only waits if all buffers are full, so tracing never allocates memory while running
+ * and no records are lost. {@link #decode(Path, Writer)} turns a trace into text with disassembly.
+ *
+ * @author 5hir0kur0
+ */
+public final class Trace8051 implements AutoCloseable {
+    /** The length of a record in bytes. */
+    public static final int RECORD_LENGTH = 16;
+
+    private static final byte[] MAGIC = {'B', '8', 'E', 'T'};
+    private static final short VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int DEFAULT_BUFFER_RECORDS = 1 << 16;
+    private static final int DEFAULT_BUFFERS = 4;
+
+    private final FileChannel channel;
+    private final BlockingQueue<ByteBuffer> free;
+    private final BlockingQueue<ByteBuffer> full;
+    private final ByteBuffer end = ByteBuffer.allocate(0); // tells the writer thread to stop
+    private final Thread writer;
+    private volatile IOException error;
+    private ByteBuffer current;
+    private long records;
+    private boolean closed;
+
+    /**
+     * Create a trace file with 4 buffers of 64 Ki records (1 MiB each).
+     * @param path
+     *     the file; it is created or overwritten
+     * @throws IOException
+     *     if the file cannot be created
+     */
+    public Trace8051(Path path) throws IOException {
+        this(path, DEFAULT_BUFFER_RECORDS, DEFAULT_BUFFERS);
+    }
+
+    /**
+     * @param path
+     *     the file; it is created or overwritten
+     * @param bufferRecords
+     *     the number of records in a buffer; must be &gt; 0
+     * @param buffers
+     *     the number of buffers; must be &gt;= 2
+     * @throws IOException
+     *     if the file cannot be created
+     */
+    public Trace8051(Path path, int bufferRecords, int buffers) throws IOException {
+        if (bufferRecords <= 0) throw new IllegalArgumentException("the number of records per buffer must be > 0");
+        if (buffers < 2) throw new IllegalArgumentException("at least two buffers are needed");
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.put(MAGIC).putShort(VERSION).putShort((short) RECORD_LENGTH).flip();
+        while (header.hasRemaining()) this.channel.write(header);
+        this.free = new ArrayBlockingQueue<>(buffers);
+        this.full = new ArrayBlockingQueue<>(buffers + 1);
+        for (int i = 1; i < buffers; ++i) this.free.add(ByteBuffer.allocateDirect(bufferRecords * RECORD_LENGTH));
+        this.current = ByteBuffer.allocateDirect(bufferRecords * RECORD_LENGTH);
+        this.writer = new Thread(this::write, "trace writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Record an instruction.
+     * @param pc
+     *     the address of the instruction
+     * @param opcode
+     *     the opcode
+     * @param operand1
+     *     the byte following the opcode
+     * @param operand2
+     *     the second byte following the opcode
+     * @param a
+     *     the value of A before the instruction
+     * @param psw
+     *     the value of PSW before the instruction
+     * @param sp
+     *     the value of SP before the instruction
+     * @param cycles
+     *     the cycle count before the instruction
+     */
+    void record(int pc, byte opcode, byte operand1, byte operand2, byte a, byte psw, byte sp, long cycles) {
+        final ByteBuffer buffer = this.current;
+        buffer.putLong(cycles).putShort((short) pc).put(opcode).put(operand1).put(operand2).put(a).put(psw).put(sp);
+        ++this.records;
+        if (!buffer.hasRemaining()) this.handOver();
+    }
+
+    /**
+     * @return the number of recorded instructions
+     */
+    public long getRecordCount() {
+        return this.records;
+    }
+
+    /**
+     * Write the records that have not been written yet and stop the writer thread. The trace must be removed from the
+     * {@code MC8051} before it is closed.
+     * @throws IOException
+     *     if there was an IO error while writing the trace
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) return;
+        if (this.current.position() > 0) this.handOver();
+        this.closed = true;
+        putUninterruptibly(this.full, this.end);
+        boolean interrupted = false;
+        while (this.writer.isAlive()) {
+            try {
+                this.writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        this.channel.close();
+        if (this.error != null) throw this.error;
+    }
+
+    private void handOver() {
+        if (this.closed) throw new IllegalStateException("the trace is closed");
+        putUninterruptibly(this.full, this.current);
+        this.current = takeUninterruptibly(this.free);
+    }
+
+    private void write() {
+        while (true) {
+            final ByteBuffer buffer = takeUninterruptibly(this.full);
+            if (buffer == this.end) return;
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining() && this.error == null) this.channel.write(buffer);
+            } catch (IOException e) {
+                this.error = e; // reported by close(); the records are dropped, so the emulator does not block
+            }
+            buffer.clear();
+            putUninterruptibly(this.free, buffer);
+        }
+    }
+
+    /**
+     * Write a trace as text with one line per instruction, e.g.
+     * {@code 1234  0010  74 12     MOV A, #12h       A=00 PSW=00 SP=07}.
+     * @param path
+     *     the trace file; must be a valid and accessible path
+     * @param out
+     *     the output; must not be {@code null}
+     * @throws IOException
+     *     if there was an IO error or the file is not a trace
+     */
+    public static void decode(Path path, Writer out) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            while (header.hasRemaining() && channel.read(header) >= 0);
+            header.flip();
+            final byte[] magic = new byte[MAGIC.length];
+            if (header.remaining() == HEADER_LENGTH) header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException("not a trace file: " + path);
+            final short version = header.getShort();
+            if (version != VERSION) throw new IOException("unsupported trace format version: " + version);
+            final int recordLength = header.getShort() & 0xFFFF;
+            if (recordLength < RECORD_LENGTH) throw new IOException("invalid record length: " + recordLength);
+            final ByteBuffer buffer = ByteBuffer.allocate(recordLength * 4096);
+            final String nl = System.lineSeparator();
+            boolean endOfFile = false;
+            while (!endOfFile) {
+                endOfFile = channel.read(buffer) < 0; // a partial record at the end is ignored
+                buffer.flip();
+                while (buffer.remaining() >= recordLength) {
+                    final int start = buffer.position();
+                    final long cycles = buffer.getLong();
+                    final int pc = buffer.getShort() & 0xFFFF;
+                    final byte opcode = buffer.get();
+                    final byte operand1 = buffer.get();
+                    final byte operand2 = buffer.get();
+                    final int a = buffer.get() & 0xFF;
+                    final int psw = buffer.get() & 0xFF;
+                    final int sp = buffer.get() & 0xFF;
+                    buffer.position(start + recordLength);
+                    final int length = Disassembler8051.getLength(opcode);
+                    final String codes = String.format("%02X", opcode)
+                            + (length > 1 ? String.format(" %02X", operand1) : "")
+                            + (length > 2 ? String.format(" %02X", operand2) : "");
+                    out.write(String.format("%12d  %04X  %-8s  %-22s  A=%02X PSW=%02X SP=%02X", cycles, pc, codes,
+                            Disassembler8051.disassemble(pc, opcode, operand1, operand2), a, psw, sp));
+                    out.write(nl);
+                }
+                buffer.compact();
+            }
+        }
+    }
+
+    private static <T> void putUninterruptibly(BlockingQueue<T> queue, T element) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(element);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private static <T> T takeUninterruptibly(BlockingQueue<T> queue) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return queue.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -14,11 +14,13 @@ import java.awt.event.ActionEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.function.Predicate;
 
 /**
@@ -30,15 +32,24 @@ public class EmulatorWindow extends JFrame {
     private final NumeralSystem registerNumeralSystem;
     private final NumeralSystem memoryNumeralSystem;
     private final boolean updateWhileRunning;
-    private boolean running;
+    private volatile boolean running;
     private SwingWorker<Void, Void> emulatorRunner;
     private JButton nextButton, runButton, pauseButton, codeButton, loadButton, storeButton;
+    private JButton stepBackButton, runBackButton, storeInputsButton;
+    private JButton watchButton, storeProfileButton;
+    private JCheckBox turboCheckBox;
+    private JLabel speedLabel;
+    private final RealTimePacer pacer;
+    private final boolean canStepBack; // whether the emulator records its execution history
+    private final Watchpoints watchpoints; // null if the emulator does not support watchpoints
+    private final Profiler profiler; // null if the emulator does not support profiling
     private JTable listingTable;
     private JToolBar toolBar;
     private RegisterTableModel registerTableModel;
     private JSplitPane registerSplit;
     private JPanel registerTableArea;
-    private final List<Long> breakpoints;
+    private final Breakpoints breakpoints;
+    private final InputLog inputLog; // the values the user entered while the program was paused
 
     private final static String[] REGISTER_TABLE_HEADER = {"Register", "Value"};
     private final static String[] LISTING_TABLE_HEADER = {"Line", "Label", "Code", "Code Memory"};
@@ -63,10 +74,25 @@ public class EmulatorWindow extends JFrame {
     private final static String MEMORY_NUMERAL_SYSTEM_SETTING_DEFAULT = NumeralSystem.HEXADECIMAL.name();
     private final static String UPDATE_WHILE_RUNNING_SETTING = "gui.emulator.update-while-running";
     private final static String UPDATE_WHILE_RUNNING_SETTING_DEFAULT = "true";
+    private final static long RUN_BATCH_CYCLES = 10000;
+    private final static String CRYSTAL_FREQUENCY_SETTING = "gui.emulator.crystal-frequency";
+    private final static String CRYSTAL_FREQUENCY_SETTING_DEFAULT = "12000000";
+    private final static Predicate<String> IS_VALID_FREQUENCY = s -> {
+        try {
+            return Long.parseLong(s) > 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    };
+    private final static String TURBO_SETTING = "gui.emulator.turbo";
+    private final static String TURBO_SETTING_DEFAULT = "true";
+    private final static long REAL_TIME_BATCH_NANOSECONDS = 5_000_000;
     static {
         Settings.INSTANCE.setDefault(REGISTER_NUMERAL_SYSTEM_SETTING, REGISTER_NUMERAL_SYSTEM_SETTING_DEFAULT);
         Settings.INSTANCE.setDefault(MEMORY_NUMERAL_SYSTEM_SETTING, MEMORY_NUMERAL_SYSTEM_SETTING_DEFAULT);
         Settings.INSTANCE.setDefault(UPDATE_WHILE_RUNNING_SETTING, UPDATE_WHILE_RUNNING_SETTING_DEFAULT);
+        Settings.INSTANCE.setDefault(CRYSTAL_FREQUENCY_SETTING, CRYSTAL_FREQUENCY_SETTING_DEFAULT);
+        Settings.INSTANCE.setDefault(TURBO_SETTING, TURBO_SETTING_DEFAULT);
     }
 
     /**
@@ -85,7 +111,33 @@ public class EmulatorWindow extends JFrame {
                 MEMORY_NUMERAL_SYSTEM_SETTING_DEFAULT, IS_VALID_NUMERAL_SYSTEM));
         this.updateWhileRunning = Settings.INSTANCE.getBoolProperty(UPDATE_WHILE_RUNNING_SETTING);
         this.running = false;
-        this.breakpoints = new ArrayList<>(10);
+        this.breakpoints = new Breakpoints();
+        this.inputLog = new InputLog();
+        boolean canStepBack = true;
+        try {
+            this.emulator.setRecordHistory(true);
+        } catch (UnsupportedOperationException e) {
+            canStepBack = false;
+        }
+        this.canStepBack = canStepBack;
+        Watchpoints watchpoints = new Watchpoints();
+        try {
+            this.emulator.setWatchpoints(watchpoints);
+        } catch (UnsupportedOperationException e) {
+            watchpoints = null;
+        }
+        this.watchpoints = watchpoints;
+        Profiler profiler = new Profiler();
+        try {
+            this.emulator.setProfiler(profiler);
+        } catch (UnsupportedOperationException e) {
+            profiler = null;
+        }
+        this.profiler = profiler;
+        this.pacer = new RealTimePacer(Long.parseLong(Settings.INSTANCE.getProperty(CRYSTAL_FREQUENCY_SETTING,
+                CRYSTAL_FREQUENCY_SETTING_DEFAULT, IS_VALID_FREQUENCY)), this.emulator.getClocksPerCycle(),
+                REAL_TIME_BATCH_NANOSECONDS);
+        this.pacer.setTurbo(Settings.INSTANCE.getBoolProperty(TURBO_SETTING));
         this.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
         this.setSize(new Dimension(420, 420));
 
@@ -152,6 +204,7 @@ public class EmulatorWindow extends JFrame {
             listingSplit.setResizeWeight(0.2);
             listingSplit.setDividerLocation(0.2);
             tmpTable.addMouseListener(new ListingMouseListener());
+            tmpTable.setToolTipText("Double-click: add/remove breakpoint; Ctrl: enable/disable; Shift: run to here");
             registersAndListing.add(listingSplit, BorderLayout.CENTER);
         } else registersAndListing.add(this.registerSplit, BorderLayout.CENTER);
 
@@ -197,21 +250,58 @@ public class EmulatorWindow extends JFrame {
         this.codeButton  = new JButton("Show Code Memory");
         this.codeButton.setMnemonic('c');
         this.codeButton.addActionListener(this::showCodeMemory);
+        this.stepBackButton = new JButton("Step Back");
+        this.stepBackButton.setMnemonic('b');
+        this.stepBackButton.addActionListener(this::stepBack);
+        this.stepBackButton.setEnabled(this.canStepBack);
+        this.runBackButton = new JButton("Run Back");
+        this.runBackButton.setMnemonic('k');
+        this.runBackButton.addActionListener(this::runBack);
+        this.runBackButton.setEnabled(this.canStepBack);
         this.loadButton = new JButton("Load State");
         this.loadButton.setMnemonic('l');
         this.loadButton.addActionListener(this::loadState);
         this.storeButton = new JButton("Store State");
         this.storeButton.setMnemonic('s');
         this.storeButton.addActionListener(this::storeState);
+        this.storeInputsButton = new JButton("Store Inputs");
+        this.storeInputsButton.setMnemonic('i');
+        this.storeInputsButton.addActionListener(this::storeInputs);
+        this.watchButton = new JButton("Watchpoints");
+        this.watchButton.setMnemonic('w');
+        this.watchButton.addActionListener(this::editWatchpoints);
+        this.watchButton.setEnabled(this.watchpoints != null);
+        this.storeProfileButton = new JButton("Store Profile");
+        this.storeProfileButton.setMnemonic('o');
+        this.storeProfileButton.setToolTipText("Store the instructions and cycles per address (or label) as CSV and "
+                + "the annotated listing");
+        this.storeProfileButton.addActionListener(this::storeProfile);
+        this.storeProfileButton.setEnabled(this.profiler != null);
+        this.turboCheckBox = new JCheckBox("Turbo", this.pacer.isTurbo());
+        this.turboCheckBox.setMnemonic('t');
+        this.turboCheckBox.setToolTipText("Run as fast as possible instead of at the speed of the real hardware");
+        this.turboCheckBox.addActionListener(e -> this.pacer.setTurbo(this.turboCheckBox.isSelected()));
+        this.speedLabel = new JLabel();
+        this.speedLabel.setToolTipText("Speed compared to the real hardware");
 
         this.toolBar.add(this.nextButton);
         this.toolBar.add(this.runButton);
         this.toolBar.add(this.pauseButton);
+        this.toolBar.add(this.turboCheckBox);
+        this.toolBar.add(this.speedLabel);
+        if (this.canStepBack) {
+            this.toolBar.addSeparator();
+            this.toolBar.add(this.stepBackButton);
+            this.toolBar.add(this.runBackButton);
+        }
         this.toolBar.addSeparator();
         this.toolBar.add(this.codeButton);
+        if (this.watchpoints != null) this.toolBar.add(this.watchButton);
         this.toolBar.addSeparator();
         this.toolBar.add(this.storeButton);
         this.toolBar.add(this.loadButton);
+        this.toolBar.add(this.storeInputsButton);
+        if (this.profiler != null) this.toolBar.add(this.storeProfileButton);
     }
 
     private void showCodeMemory(ActionEvent e) {
@@ -225,6 +315,50 @@ public class EmulatorWindow extends JFrame {
         JOptionPane.showMessageDialog(this, codeMemory, "Code Memory", JOptionPane.PLAIN_MESSAGE);
     }
 
+    private void editWatchpoints(ActionEvent e) {
+        final DefaultListModel<Watchpoints.Watchpoint> listModel = new DefaultListModel<>();
+        for (Watchpoints.Watchpoint w : this.watchpoints.getWatchpoints()) listModel.addElement(w);
+        final JList<Watchpoints.Watchpoint> list = new JList<>(listModel);
+        list.setFont(FONT);
+        final JComboBox<Watchpoints.Space> space = new JComboBox<>(Watchpoints.Space.values());
+        final JTextField from = new JTextField(6);
+        final JTextField to = new JTextField(6);
+        from.setToolTipText("First address (e.g. 0x30)");
+        to.setToolTipText("Last address (optional)");
+        final JCheckBox read = new JCheckBox("Read");
+        final JCheckBox write = new JCheckBox("Write", true);
+        final JButton add = new JButton("Add");
+        add.addActionListener(e1 -> {
+            try {
+                final int first = Integer.decode(from.getText().trim());
+                final int last = to.getText().trim().isEmpty() ? first : Integer.decode(to.getText().trim());
+                final Watchpoints.Space selectedSpace = (Watchpoints.Space) space.getSelectedItem();
+                final Watchpoints.Watchpoint watchpoint = new Watchpoints.Watchpoint(selectedSpace, first, last,
+                        read.isSelected(), write.isSelected());
+                this.watchpoints.add(watchpoint);
+                if (!listModel.contains(watchpoint)) listModel.addElement(watchpoint);
+            } catch (IllegalArgumentException e2) { // NumberFormatException is an IllegalArgumentException
+                JOptionPane.showMessageDialog(list, "Invalid watchpoint: " + e2.getMessage(), "Watchpoints",
+                        JOptionPane.WARNING_MESSAGE);
+            }
+        });
+        final JButton remove = new JButton("Remove");
+        remove.addActionListener(e1 -> {
+            for (Watchpoints.Watchpoint w : list.getSelectedValuesList()) {
+                this.watchpoints.remove(w);
+                listModel.removeElement(w);
+            }
+        });
+        final JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        for (JComponent c : new JComponent[] {space, from, to, read, write, add, remove}) controls.add(c);
+        final JPanel panel = new JPanel(new BorderLayout());
+        final JScrollPane scrollPane = new JScrollPane(list);
+        scrollPane.setPreferredSize(new Dimension(400, 150));
+        panel.add(scrollPane, BorderLayout.CENTER);
+        panel.add(controls, BorderLayout.SOUTH);
+        JOptionPane.showMessageDialog(this, panel, "Watchpoints", JOptionPane.PLAIN_MESSAGE);
+    }
+
     private void loadState(ActionEvent e) {
         final JFileChooser fileChooser = new JFileChooser(System.getProperty("user.dir"));
         if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
@@ -255,8 +389,59 @@ public class EmulatorWindow extends JFrame {
         }
     }
 
+    private void storeInputs(ActionEvent e) {
+        final JFileChooser fileChooser = new JFileChooser(System.getProperty("user.dir"));
+        if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+            final Path path = fileChooser.getSelectedFile().toPath();
+            try {
+                this.inputLog.saveTo(path);
+            } catch (IOException e1) {
+                this.reportException("An error occurred while storing the inputs", "The inputs could not be stored at "
+                        + path, e1);
+            }
+        }
+    }
+
+    /**
+     * Store the hotspots as CSV and, if there is a listing, the listing annotated with the counters of the profiler
+     * (with the additional extension {@code .lst}).
+     */
+    private void storeProfile(ActionEvent e) {
+        final JFileChooser fileChooser = new JFileChooser(System.getProperty("user.dir"));
+        if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+            final Path path = fileChooser.getSelectedFile().toPath();
+            try {
+                try (Writer w = Files.newBufferedWriter(path)) {
+                    this.profiler.writeCsv(w, this.listing == null ? this.profiler.getHotspots(null)
+                            : this.profiler.getHotspotsByLabel(this.listing));
+                }
+                if (this.listing != null)
+                    try (Writer w = Files.newBufferedWriter(Paths.get(path.toString() + ".lst"))) {
+                        this.profiler.writeAnnotatedListing(w, this.listing);
+                    }
+            } catch (IOException e1) {
+                this.reportException("An error occurred while storing the profile", "The profile could not be stored "
+                        + "at " + path, e1);
+            }
+        }
+    }
+
+    /**
+     * Record a value the user entered, so that the run can be reproduced without the GUI (see {@link InputLog}) and
+     * going back in the execution history keeps it.
+     */
+    private void recordInput(Register register) {
+        this.emulator.recordExternalChange();
+        try {
+            this.inputLog.record(this.emulator.getCycleCount(), register);
+        } catch (UnsupportedOperationException ignored) {
+            // the emulator does not count its cycles, so the inputs cannot be replayed
+        }
+    }
+
     private void pauseProgram(ActionEvent e) {
         this.running = false;
+        this.speedLabel.setText("");
         this.enableElements(false);
         this.emulatorRunner = new EmulatorSwingWorker();
         this.updateListingTable();
@@ -286,13 +471,55 @@ public class EmulatorWindow extends JFrame {
         super.repaint();
     }
 
+    private void stepBack(ActionEvent e) {
+        this.goBack(() -> this.emulator.stepBack(1));
+    }
+
+    private void runBack(ActionEvent e) {
+        this.goBack(() -> this.emulator.runBackwards(this.breakpoints.getEnabled()));
+    }
+
+    private void goBack(Runnable action) {
+        this.running = true;
+        this.disableElements(true, true, true, false);
+        // going back executes up to a whole interval of the history again, so it must not block the GUI
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() {
+                action.run();
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    this.get();
+                } catch (InterruptedException|ExecutionException e1) {
+                    final Throwable cause = e1.getCause() != null ? e1.getCause() : e1;
+                    EmulatorWindow.this.reportException("An Exception occurred while going back in the execution "
+                            + "history", cause.getClass().getSimpleName() + ": " + cause.getMessage(), e1);
+                }
+                EmulatorWindow.this.running = false;
+                EmulatorWindow.this.enableElements(false);
+                EmulatorWindow.this.updateListingTable();
+                EmulatorWindow.super.revalidate();
+                EmulatorWindow.super.repaint();
+            }
+        }.execute();
+    }
+
     private void disableElements(boolean nextButton, boolean runButton, boolean pauseButton, boolean codeButton) {
         this.nextButton.setEnabled(!nextButton);
         this.runButton.setEnabled(!runButton);
         this.pauseButton.setEnabled(!pauseButton);
         this.codeButton.setEnabled(!codeButton);
+        this.stepBackButton.setEnabled(false);
+        this.runBackButton.setEnabled(false);
+        this.watchButton.setEnabled(false);
+        this.storeProfileButton.setEnabled(false);
         this.loadButton.setEnabled(false);
         this.storeButton.setEnabled(false);
+        this.storeInputsButton.setEnabled(false);
     }
 
     private void enableElements(boolean enablePauseButton) {
@@ -300,8 +527,13 @@ public class EmulatorWindow extends JFrame {
         this.runButton.setEnabled(true);
         this.pauseButton.setEnabled(enablePauseButton);
         this.codeButton.setEnabled(true);
+        this.stepBackButton.setEnabled(this.canStepBack);
+        this.runBackButton.setEnabled(this.canStepBack);
+        this.watchButton.setEnabled(this.watchpoints != null);
+        this.storeProfileButton.setEnabled(this.profiler != null);
         this.loadButton.setEnabled(true);
         this.storeButton.setEnabled(true);
+        this.storeInputsButton.setEnabled(true);
     }
 
     private void updateListingTable() {
@@ -410,9 +642,14 @@ public class EmulatorWindow extends JFrame {
             final JTable table = (JTable) me.getSource();
             final int row = table.rowAtPoint(me.getPoint());
             final ListingModel model = (ListingModel) table.getModel();
-            final long address = model.getAddressOfRow(row);
-            if (!EmulatorWindow.this.breakpoints.remove(address)) // remove if address present; add if not present
-                EmulatorWindow.this.breakpoints.add(address);
+            final int address = (int) model.getAddressOfRow(row);
+            final Breakpoints breakpoints = EmulatorWindow.this.breakpoints;
+            if (me.isShiftDown()) // "run to here"
+                breakpoints.addTemporary(address);
+            else if (me.isControlDown() && breakpoints.contains(address))
+                breakpoints.setEnabled(address, !breakpoints.isEnabled(address));
+            else
+                breakpoints.toggle(address);
             EmulatorWindow.super.revalidate();
             EmulatorWindow.super.repaint();
         }
@@ -421,26 +658,51 @@ public class EmulatorWindow extends JFrame {
     private class EmulatorSwingWorker extends SwingWorker<Void, Void> {
         @Override
         protected Void doInBackground() throws Exception {
-            while (EmulatorWindow.this.running) try {
-                EmulatorWindow.this.emulator.next();
-                if (EmulatorWindow.this.updateWhileRunning) try {
-                    EmulatorWindow.this.updateListingTable();
-                    // calling revalidate() repeatedly causes NPEs in some Swing thread that I cannot catch
-                    // easily here
-                    // it seems to work with just repaint though
-                    EmulatorWindow.super.repaint();
-                } catch (RuntimeException ignored) {
-                    ignored.printStackTrace();
+            // the registers only notify their listeners once per batch of instructions
+            EmulatorWindow.this.emulator.setDeferChanges(true);
+            final RealTimePacer pacer = EmulatorWindow.this.pacer;
+            pacer.start();
+            try {
+                while (EmulatorWindow.this.running) try {
+                    // when the GUI is not updated while running, the emulator can execute many instructions at once
+                    // in real time mode the GUI is only updated after every batch, because the emulator could not
+                    // keep up with the hardware otherwise
+                    final long cycles = !pacer.isTurbo() ? pacer.getBatchCycles()
+                            : EmulatorWindow.this.updateWhileRunning ? 1 : RUN_BATCH_CYCLES;
+                    final RunResult result = EmulatorWindow.this.breakpoints.run(EmulatorWindow.this.emulator,
+                            cycles, () -> !EmulatorWindow.this.running);
+                    EmulatorWindow.this.emulator.flushChanges();
+                    if (pacer.pace(result.cycles)) {
+                        final String speed = String.format(" %.0f%%", pacer.getSpeedRatio() * 100);
+                        SwingUtilities.invokeLater(() -> EmulatorWindow.this.speedLabel.setText(speed));
+                    }
+                    if (EmulatorWindow.this.updateWhileRunning) try {
+                        EmulatorWindow.this.updateListingTable();
+                        // calling revalidate() repeatedly causes NPEs in some Swing thread that I cannot catch
+                        // easily here
+                        // it seems to work with just repaint though
+                        EmulatorWindow.super.repaint();
+                    } catch (RuntimeException ignored) {
+                        ignored.printStackTrace();
+                    }
+                    if (result.stopReason == RunResult.StopReason.BREAKPOINT) EmulatorWindow.this.pauseProgram(null);
+                    if (result.stopReason == RunResult.StopReason.WATCHPOINT) {
+                        final String hit = String.valueOf(EmulatorWindow.this.watchpoints.getHit());
+                        EmulatorWindow.this.pauseProgram(null);
+                        SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(EmulatorWindow.this,
+                                "The program stopped at a watchpoint (" + hit + ").", "Watchpoint",
+                                JOptionPane.INFORMATION_MESSAGE));
+                    }
+                } catch (Exception e) {
+                    EmulatorWindow.this.reportException("An Exception occurred while running the program",
+                            e.getClass().getSimpleName() + ": " + e.getMessage(), e);
+                    e.printStackTrace();
+                    return null;
                 }
-                if (EmulatorWindow.this.breakpoints.contains(EmulatorWindow.this.emulator.getProgramCounter()))
-                    EmulatorWindow.this.pauseProgram(null);
-            } catch (Exception e) {
-                EmulatorWindow.this.reportException("An Exception occurred while running the program",
-                        e.getClass().getSimpleName() + ": " + e.getMessage(), e);
-                e.printStackTrace();
                 return null;
+            } finally {
+                EmulatorWindow.this.emulator.setDeferChanges(false);
             }
-            return null;
         }
     }
 
@@ -482,6 +744,8 @@ public class EmulatorWindow extends JFrame {
             final String tmp = (String) value;
             if ("0".equals(tmp.trim())) this.register.setBit(false, col - 1);
             else if ("1".equals(tmp.trim())) this.register.setBit(true, col - 1);
+            else return;
+            if (this.register instanceof Register) EmulatorWindow.this.recordInput((Register) this.register);
             EmulatorWindow.this.revalidate();
             EmulatorWindow.this.repaint();
         }
@@ -530,7 +794,8 @@ public class EmulatorWindow extends JFrame {
         public void setValueAt(Object value, int row, int col) {
             if (col != 1 || EmulatorWindow.this.running) return;
             final String tmpValue = value.toString();
-            this.registers.get(row).setValueFromString(this.numeralSystem, tmpValue);
+            if (this.registers.get(row).setValueFromString(this.numeralSystem, tmpValue))
+                EmulatorWindow.this.recordInput(this.registers.get(row));
             EmulatorWindow.this.revalidate();
             EmulatorWindow.this.repaint();
         }
@@ -560,8 +825,8 @@ public class EmulatorWindow extends JFrame {
 
         @Override
         public Object getValueAt(int row, int col) {
-            if (col == 0) return this.data.get(row).getLine() +
-                        (EmulatorWindow.this.breakpoints.contains(this.data.get(row).getAddressAsLong()) ? "*" : "");
+            if (col == 0) return this.data.get(row).getLine()
+                        + getBreakpointMarker((int) this.data.get(row).getAddressAsLong());
             if (col == 1) return this.data.get(row).getLabels();
             if (col == 2) return this.data.get(row).getLineString();
             if (col == 3) return this.data.get(row).getAddress() + ": " + this.data.get(row).getCodes();
@@ -576,6 +841,17 @@ public class EmulatorWindow extends JFrame {
         long getAddressOfRow(int row) {
             return this.data.get(row).getAddressAsLong();
         }
+
+        /**
+         * @return "*" for enabled, "-" for disabled and "+" for temporary breakpoints, followed by the hit count
+         */
+        private String getBreakpointMarker(int address) {
+            final Breakpoints breakpoints = EmulatorWindow.this.breakpoints;
+            if (!breakpoints.contains(address)) return "";
+            final String marker = breakpoints.isTemporary(address) ? "+" : breakpoints.isEnabled(address) ? "*" : "-";
+            final long hits = breakpoints.getHitCount(address);
+            return hits > 0 ? marker + " [" + hits + "]" : marker;
+        }
     }
 
     private class MemoryModel extends AbstractTableModel {
@@ -629,6 +905,8 @@ public class EmulatorWindow extends JFrame {
             if (!this.modifiable || EmulatorWindow.this.running || this.ram == null) return;
             final String tmpValue = value.toString();
             this.ram.set(row * 16 + col - 1, (byte) this.numeralSystem.getValue(tmpValue));
+            // the input log only contains registers, but the history can keep the change
+            EmulatorWindow.this.emulator.recordExternalChange();
             EmulatorWindow.this.revalidate();
             EmulatorWindow.this.repaint();
         }
@@ -636,9 +914,8 @@ public class EmulatorWindow extends JFrame {
 
     public static void main(String[] iDontNeedNoArgs) throws IOException {
         byte[] code = Files.readAllBytes(Paths.get("/tmp/test.bin"));
-        int i = 0;
-        RAM codeMemory = new RAM(65536);
-        for (byte b : code) codeMemory.set(i++, b);
-        SwingUtilities.invokeLater(() -> new EmulatorWindow(new MC8051(codeMemory, new RAM(65536)), null));
+        RAM codeMemory = new PagedRAM(65536);
+        codeMemory.set(0, code, 0, code.length);
+        SwingUtilities.invokeLater(() -> new EmulatorWindow(new MC8051(codeMemory, new PagedRAM(65536)), null));
     }
 }